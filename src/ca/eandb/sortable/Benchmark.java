@@ -0,0 +1,181 @@
+/**
+ * 
+ */
+package ca.eandb.sortable;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+
+import ca.eandb.sortable.json.JSONListingReader;
+import ca.eandb.sortable.json.TrieLayoutOptimizer;
+
+/**
+ * An application that measures the time required to match a collection of
+ * listings using several configurations of the matcher.  The listings are
+ * parsed before timing begins, so only the matching itself is measured.
+ * Each configuration is run for a number of warm-up iterations
+ * (<code>ca.eandb.sortable.benchmark.warmup</code>) followed by a number of
+ * timed iterations (<code>ca.eandb.sortable.benchmark.iterations</code>).
+ * 
+ * The configurations are:
+ * 
+ *   - hashed   - the tries as built by {@link ProductTrieBuilder}, with the
+ *                edges stored in a shared hash map,
+ *   - frozen   - the tries frozen in breadth-first order, and
+ *   - profiled - the tries frozen using a layout optimized for a sample of
+ *                listings (see {@link TrieLayoutOptimizer}),
+ *   - early    - the hashed tries, stopping the walk as soon as the result
+ *                can no longer change (see {@link TrieMatchEngine}), and
+ *   - postings - the {@link PostingMatchEngine} instead of walking the tries.
+ * 
+ * The results of each configuration are compared with those of the first, and
+ * the number of listings for which they differ is reported.  Since all of the
+ * configurations are meant to produce identical results, this also serves as
+ * a differential check of the faster configurations.
+ * 
+ * @author Brad Kimmel
+ */
+public final class Benchmark {
+	
+	/** The number of untimed iterations to run for each configuration. */
+	private static final int WARMUP = Integer.parseInt(
+			System.getProperty("ca.eandb.sortable.benchmark.warmup", "3"));
+	
+	/** The number of timed iterations to run for each configuration. */
+	private static final int ITERATIONS = Integer.parseInt(
+			System.getProperty("ca.eandb.sortable.benchmark.iterations", "5"));
+
+	/**
+	 * Usage: ca.eandb.sortable.Benchmark <products_file> <listings_file>
+	 *        [<sample_file>]
+	 * Measures the time required to match listings against products.
+	 *
+	 *   <products_file> - A file containing a list of products formatted as JSON
+	 *                     objects, one per line.
+	 *   <listings_file> - A file containing a collection of listings formatted as
+	 *                     JSON objects, one per line.
+	 *   <sample_file>   - A file containing a sample of listings used to
+	 *                     optimize the trie layout.  If not specified, the
+	 *                     listings file is used.
+	 *                     
+	 * @param args The program arguments as specified above.
+	 */
+	public static void main(String[] args) {
+		
+		if (args.length < 2 || args.length > 3) {
+			System.out.printf("Usage: %s <products_file> <listings_file> [<sample_file>]", Benchmark.class.getName());
+			System.out.println();
+			System.exit(1);
+		}
+		
+		try {
+			
+			ProductTrieBuilder builder = new ProductTrieBuilder();
+			Catalogs.read(new File(args[0]), builder);
+			
+			List<JSONObject> listings = new ArrayList<JSONObject>();
+			BufferedReader buf = new BufferedReader(new FileReader(args[1]));
+			JSONParser parser = new JSONParser();
+			String line;
+			while ((line = buf.readLine()) != null) {
+				listings.add((JSONObject) parser.parse(line));
+			}
+			buf.close();
+			
+			TrieNode manufacturerRoot = builder.getManufacturerRoot();
+			TrieNode modelRoot = builder.getModelRoot();
+			ProductStore products = builder.getProducts();
+			
+			Reader reader = new FileReader(args.length > 2 ? args[2] : args[1]);
+			TrieNode[] profiled = TrieLayoutOptimizer.optimize(products, manufacturerRoot, modelRoot, reader);
+			reader.close();
+			
+			Product[] reference = run("hashed", new JSONListingReader(products, manufacturerRoot, modelRoot), listings, null);
+			run("frozen", new JSONListingReader(products,
+					manufacturerRoot.freeze(null), modelRoot.freeze(null)), listings, reference);
+			run("profiled", new JSONListingReader(products, profiled[0], profiled[1]), listings, reference);
+			run("early", new JSONListingReader(new TrieMatchEngine(
+					products, manufacturerRoot, modelRoot, null, true)), listings, reference);
+			run("postings", new JSONListingReader(new PostingMatchEngine(
+					products, manufacturerRoot, modelRoot)), listings, reference);
+			
+		} catch (Exception e) {
+			
+			e.printStackTrace();
+			System.exit(1);
+			
+		}
+		
+	}
+	
+	/**
+	 * Runs and reports the benchmark for one configuration.
+	 * @param name The name of the configuration.
+	 * @param matcher The <code>JSONListingReader</code> to use to match the
+	 * 		listings.
+	 * @param listings The <code>List</code> of listings to match.
+	 * @param reference The results to compare against, or <code>null</code>
+	 * 		if the results are not to be compared.
+	 * @return The <code>Product</code> matched by each listing (or
+	 * 		<code>null</code> where there was no match).
+	 */
+	private static Product[] run(String name, JSONListingReader matcher,
+			List<JSONObject> listings, Product[] reference) {
+		
+		Product[] results = new Product[listings.size()];
+		for (int i = 0; i < WARMUP; i++) {
+			matchAll(matcher, listings, results);
+		}
+		
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			matchAll(matcher, listings, results);
+		}
+		long end = System.nanoTime();
+		
+		int matches = 0;
+		int differences = 0;
+		for (int i = 0; i < results.length; i++) {
+			if (results[i] != null) {
+				matches++;
+			}
+			if (reference != null && results[i] != reference[i]) {
+				differences++;
+			}
+		}
+		
+		double msPerIteration = (double) (end - start) / 1e6 / (double) ITERATIONS;
+		System.out.printf("%-10s %10.1f ms/iteration %12.0f listings/s %8d matches %8d differences",
+				name, msPerIteration,
+				(double) listings.size() * 1e3 / msPerIteration, matches,
+				differences);
+		System.out.println();
+		
+		return results;
+		
+	}
+	
+	/**
+	 * Matches a collection of listings.
+	 * @param matcher The <code>JSONListingReader</code> to use to match the
+	 * 		listings.
+	 * @param listings The <code>List</code> of listings to match.
+	 * @param results The array in which to store the <code>Product</code>
+	 * 		matched by each listing.
+	 */
+	private static void matchAll(JSONListingReader matcher, List<JSONObject> listings,
+			Product[] results) {
+		int i = 0;
+		for (JSONObject json : listings) {
+			results[i++] = matcher.match(json);
+		}
+	}
+
+}
@@ -0,0 +1,170 @@
+/**
+ * 
+ */
+package ca.eandb.sortable;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An object that reads a collection of product entities from a binary
+ * catalog written by a {@link BinaryProductWriter}.  The strings for each
+ * product are decoded directly from a reusable buffer, and no intermediate
+ * objects are created other than the <code>Product</code> itself.  This
+ * class is not thread-safe.
+ * 
+ * @author Brad Kimmel
+ */
+public final class BinaryProductReader implements ProductStreamReader {
+
+	/** The size of the buffer to read into. */
+	private static final int BUFFER_SIZE = 65536;
+
+	/** The <code>InputStream</code> being read. */
+	private InputStream in;
+
+	/** The buffer holding bytes read from the stream. */
+	private byte[] buffer = new byte[BUFFER_SIZE];
+
+	/** The position of the next unread byte in the buffer. */
+	private int pos = 0;
+
+	/** The number of valid bytes in the buffer. */
+	private int limit = 0;
+
+	/* (non-Javadoc)
+	 * @see ca.eandb.sortable.ProductStreamReader#read(java.io.InputStream, ca.eandb.sortable.ProductVisitor)
+	 */
+	@Override
+	public void read(InputStream in, ProductVisitor visitor) throws IOException {
+
+		this.in = in;
+		this.pos = 0;
+		this.limit = 0;
+
+		if (readInt() != BinaryProductWriter.MAGIC) {
+			throw new IOException("Not a binary product catalog.");
+		}
+		int version = readInt();
+		if (version != BinaryProductWriter.VERSION) {
+			throw new IOException("Unsupported binary product catalog version: " + version);
+		}
+
+		String[] values = new String[5];
+		while (fill(1)) {
+			int fields = buffer[pos++];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = (fields & (1 << i)) != 0 ? readString() : null;
+			}
+			visitor.visit(new Product(values[0], values[1], values[2], values[3], values[4]));
+		}
+
+	}
+
+	/**
+	 * Determines whether a stream contains a binary product catalog, without
+	 * consuming any of it.
+	 * @param in The <code>BufferedInputStream</code> to examine.
+	 * @return A value indicating whether <code>in</code> begins with the
+	 * 		magic number of a binary product catalog.
+	 * @throws IOException If an error occurs while reading from
+	 * 		<code>in</code>.
+	 */
+	public static boolean isBinaryCatalog(BufferedInputStream in) throws IOException {
+		in.mark(4);
+		int magic = 0;
+		for (int i = 0; i < 4; i++) {
+			int b = in.read();
+			if (b < 0) {
+				in.reset();
+				return false;
+			}
+			magic = (magic << 8) | b;
+		}
+		in.reset();
+		return magic == BinaryProductWriter.MAGIC;
+	}
+
+	/**
+	 * Ensures that the buffer holds at least the specified number of unread
+	 * bytes, growing it if necessary.
+	 * @param n The number of bytes required.
+	 * @return A value indicating whether any bytes were available.  If the
+	 * 		stream ends after some, but fewer than <code>n</code>, bytes, an
+	 * 		<code>EOFException</code> is thrown.
+	 * @throws IOException If an error occurs while reading from the stream.
+	 */
+	private boolean fill(int n) throws IOException {
+		if (limit - pos >= n) {
+			return true;
+		}
+		if (n > buffer.length) {
+			byte[] newBuffer = new byte[Math.max(n, 2 * buffer.length)];
+			System.arraycopy(buffer, pos, newBuffer, 0, limit - pos);
+			buffer = newBuffer;
+		} else {
+			System.arraycopy(buffer, pos, buffer, 0, limit - pos);
+		}
+		limit -= pos;
+		pos = 0;
+		while (limit < n) {
+			int count = in.read(buffer, limit, buffer.length - limit);
+			if (count < 0) {
+				if (limit == 0) {
+					return false;
+				}
+				throw new EOFException("Truncated binary product catalog.");
+			}
+			limit += count;
+		}
+		return true;
+	}
+
+	/**
+	 * Reads a big-endian 32-bit integer.
+	 * @return The integer that was read.
+	 * @throws IOException If an error occurs while reading from the stream.
+	 */
+	private int readInt() throws IOException {
+		if (!fill(4)) {
+			throw new EOFException("Truncated binary product catalog.");
+		}
+		int value = ((buffer[pos] & 0xFF) << 24) | ((buffer[pos + 1] & 0xFF) << 16)
+				| ((buffer[pos + 2] & 0xFF) << 8) | (buffer[pos + 3] & 0xFF);
+		pos += 4;
+		return value;
+	}
+
+	/**
+	 * Reads a length-prefixed UTF-8 string.
+	 * @return The string that was read.
+	 * @throws IOException If an error occurs while reading from the stream,
+	 * 		or if the length is negative or does not fit in an
+	 * 		<code>int</code>.
+	 */
+	private String readString() throws IOException {
+		int length = 0;
+		for (int shift = 0; ; shift += 7) {
+			if (!fill(1)) {
+				throw new EOFException("Truncated binary product catalog.");
+			}
+			int b = buffer[pos++];
+			if (shift == 28 && (b & 0xF8) != 0) {
+				throw new IOException("Invalid string length in binary product catalog.");
+			}
+			length |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				break;
+			}
+		}
+		if (length > 0 && !fill(length)) {
+			throw new EOFException("Truncated binary product catalog.");
+		}
+		String s = new String(buffer, pos, length, BinaryProductWriter.UTF8);
+		pos += length;
+		return s;
+	}
+
+}
@@ -0,0 +1,112 @@
+/**
+ * 
+ */
+package ca.eandb.sortable;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * A <code>ProductVisitor</code> that writes the <code>Product</code>s it
+ * visits to a stream in a compact, length-prefixed binary format, which may
+ * be read back using a {@link BinaryProductReader}.  The format consists of a
+ * header (magic number and version) followed by one record per product.  Each
+ * record begins with a byte indicating which of the optional fields are
+ * present, followed by each present field as a variable-length byte count and
+ * the UTF-8 encoded bytes of the field.  There is no trailer, so products may
+ * be appended to the stream as they are visited.
+ * 
+ * @author Brad Kimmel
+ */
+public final class BinaryProductWriter implements ProductVisitor {
+
+	/** The magic number identifying a binary product catalog. */
+	static final int MAGIC = 0x53434154; // "SCAT"
+
+	/** The version of the file format. */
+	static final int VERSION = 1;
+
+	/** The character set used to encode strings. */
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** The <code>DataOutputStream</code> to write to. */
+	private final DataOutputStream out;
+
+	/** The first <code>IOException</code> encountered while writing. */
+	private IOException error = null;
+
+	/**
+	 * Creates a new <code>BinaryProductWriter</code> and writes the header.
+	 * @param out The <code>OutputStream</code> to write to.
+	 * @throws IOException If an error occurs while writing the header.
+	 */
+	public BinaryProductWriter(OutputStream out) throws IOException {
+		this.out = new DataOutputStream(out);
+		this.out.writeInt(MAGIC);
+		this.out.writeInt(VERSION);
+	}
+
+	/* (non-Javadoc)
+	 * @see ca.eandb.sortable.ProductVisitor#visit(ca.eandb.sortable.Product)
+	 */
+	@Override
+	public void visit(Product product) {
+		if (error != null) {
+			return;
+		}
+		try {
+			int fields = 0;
+			String[] values = {
+					product.getName(),
+					product.getManufacturer(),
+					product.getModel(),
+					product.getFamily(),
+					product.getAnnouncedDate() };
+			for (int i = 0; i < values.length; i++) {
+				if (values[i] != null) {
+					fields |= 1 << i;
+				}
+			}
+			out.writeByte(fields);
+			for (String value : values) {
+				if (value != null) {
+					byte[] bytes = value.getBytes(UTF8);
+					writeLength(bytes.length);
+					out.write(bytes);
+				}
+			}
+		} catch (IOException e) {
+			error = e;
+		}
+	}
+
+	/**
+	 * Writes a length as a variable-length quantity (seven bits per byte,
+	 * least significant group first, with the high bit set on all but the
+	 * last byte).
+	 * @param length The length to write.
+	 * @throws IOException If an error occurs while writing.
+	 */
+	private void writeLength(int length) throws IOException {
+		while ((length & ~0x7F) != 0) {
+			out.writeByte((length & 0x7F) | 0x80);
+			length >>>= 7;
+		}
+		out.writeByte(length);
+	}
+
+	/**
+	 * Flushes the stream.
+	 * @throws IOException If an error occurred while writing any of the
+	 * 		products or while flushing the stream.
+	 */
+	public void flush() throws IOException {
+		if (error != null) {
+			throw error;
+		}
+		out.flush();
+	}
+
+}
@@ -0,0 +1,68 @@
+/**
+ * 
+ */
+package ca.eandb.sortable;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.OutputStream;
+import java.io.Reader;
+
+import ca.eandb.sortable.json.JSONProductReader;
+
+/**
+ * An application that converts a product catalog containing one JSON object
+ * per line into the binary catalog format read by
+ * {@link BinaryProductReader}.
+ * 
+ * @author Brad Kimmel
+ */
+public final class CatalogConverter {
+
+	/**
+	 * Usage: ca.eandb.sortable.CatalogConverter <products_file> <output_file>
+	 * Converts a JSON product catalog to the binary catalog format.
+	 *
+	 *   <products_file> - A file containing a list of products formatted as JSON
+	 *                     objects, one per line.
+	 *   <output_file>   - The file to which to write the binary catalog.
+	 *                     
+	 * @param args The program arguments as specified above.
+	 */
+	public static void main(String[] args) {
+
+		if (args.length != 2) {
+			System.out.printf("Usage: %s <products_file> <output_file>", CatalogConverter.class.getName());
+			System.out.println();
+			System.out.println("Converts a JSON product catalog to the binary catalog format.");
+			System.exit(1);
+		}
+
+		try {
+
+			Reader reader = new FileReader(args[0]);
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(args[1]));
+			BinaryProductWriter writer = new BinaryProductWriter(out);
+
+			long start = System.currentTimeMillis();
+			new JSONProductReader().read(reader, writer);
+			writer.flush();
+			long end = System.currentTimeMillis();
+
+			reader.close();
+			out.close();
+
+			System.err.printf("Time required to convert products: %dms", end - start);
+			System.err.println();
+
+		} catch (Exception e) {
+
+			e.printStackTrace();
+			System.exit(1);
+
+		}
+
+	}
+
+}
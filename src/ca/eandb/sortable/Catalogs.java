@@ -0,0 +1,135 @@
+/**
+ * 
+ */
+package ca.eandb.sortable;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ca.eandb.sortable.json.JSONProductReader;
+
+/**
+ * Utility methods for reading product catalogs.
+ * @author Brad Kimmel
+ */
+public final class Catalogs {
+
+	/**
+	 * Reads the <code>Product</code>s from a catalog file, which may be either
+	 * a binary catalog (see {@link BinaryProductWriter}) or a file containing
+	 * one JSON object per line.  The format is determined from the contents
+	 * of the file, and the catalog is read by a {@link BinaryProductReader}
+	 * or a {@link JSONProductReader} accordingly.  A JSON catalog is decoded
+	 * as UTF-8, as are the partitions read by
+	 * {@link #read(File, ProductVisitor, int)}, so that the products do not
+	 * depend on the number of threads or on the platform charset.
+	 * @param file The catalog file to read.
+	 * @param visitor The <code>ProductVisitor</code> to use to enumerate the
+	 * 		<code>Product</code>s.
+	 * @throws Exception If an error occurs while reading the catalog.
+	 */
+	public static void read(File file, ProductVisitor visitor) throws Exception {
+		BufferedInputStream in = new BufferedInputStream(new FileInputStream(file));
+		try {
+			if (BinaryProductReader.isBinaryCatalog(in)) {
+				new BinaryProductReader().read(in, visitor);
+				return;
+			}
+		} finally {
+			in.close();
+		}
+
+		Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+		try {
+			new JSONProductReader().read(reader, visitor);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Reads the <code>Product</code>s from a catalog file using several
+	 * threads.  A JSON catalog is split into partitions at line boundaries,
+	 * each of which is read by its own <code>JSONProductReader</code>, so the
+	 * products are enumerated concurrently and in no particular order.  A
+	 * binary catalog cannot be split, and is read by the calling thread.
+	 * @param file The catalog file to read.
+	 * @param visitor The <code>ProductVisitor</code> to use to enumerate the
+	 * 		<code>Product</code>s, which must be safe for use by multiple
+	 * 		threads (e.g., a concurrent {@link ProductTrieBuilder}).
+	 * @param threads The number of threads to use.
+	 * @throws Exception If an error occurs while reading the catalog.
+	 */
+	public static void read(final File file, final ProductVisitor visitor, int threads) throws Exception {
+		if (threads <= 1 || isBinaryCatalog(file)) {
+			read(file, visitor);
+			return;
+		}
+
+		final long[] bounds = PartitionCoordinator.split(file, threads);
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+		for (int i = 0; i < threads; i++) {
+			final int partition = i;
+			tasks.add(new Callable<Object>() {
+				public Object call() throws Exception {
+					InputStream part = new PartitionWorker.RangeInputStream(
+							new FileInputStream(file), bounds[partition], bounds[partition + 1]);
+					try {
+						new JSONProductReader().read(new InputStreamReader(part, "UTF-8"), visitor);
+					} finally {
+						part.close();
+					}
+					return null;
+				}
+			});
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			for (Future<Object> result : executor.invokeAll(tasks)) {
+				try {
+					result.get();
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof Error) {
+						throw (Error) e.getCause();
+					}
+					throw (Exception) e.getCause();
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Determines whether a catalog file is a binary catalog.
+	 * @param file The catalog file.
+	 * @return A value indicating whether <code>file</code> is a binary
+	 * 		catalog.
+	 * @throws IOException If an error occurs while reading the file.
+	 */
+	private static boolean isBinaryCatalog(File file) throws IOException {
+		BufferedInputStream in = new BufferedInputStream(new FileInputStream(file));
+		try {
+			return BinaryProductReader.isBinaryCatalog(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	/** Private constructor. */
+	private Catalogs() {}
+
+}
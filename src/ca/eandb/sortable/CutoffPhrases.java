@@ -0,0 +1,253 @@
+/**
+ * 
+ */
+package ca.eandb.sortable;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Finds the earliest occurrence of any of a set of phrases (such as "for" or
+ * "pour") within a string, so that everything from that point on may be cut
+ * off.  A phrase only matches as a whole word, that is, if it is preceded and
+ * followed by a space.  The phrases are compiled once into an Aho-Corasick
+ * automaton, so finding the cut point takes a single scan of the string
+ * regardless of the number of phrases, and does not allocate any objects.
+ * Matching is case-sensitive.  Instances of this class are immutable and may
+ * be shared by multiple threads.
+ *
+ * @author Brad Kimmel
+ */
+public final class CutoffPhrases {
+
+	/** The <code>char</code>s labelling the transitions out of each state. */
+	private final char[][] keys;
+
+	/** The target state of each transition, in the same order as keys. */
+	private final int[][] targets;
+
+	/**
+	 * The state to fall back to when no transition exists from each state
+	 * (i.e., the state representing the longest proper suffix of the string
+	 * represented by each state that is also a prefix of some pattern).
+	 */
+	private final int[] fail;
+
+	/**
+	 * The length of the longest pattern that ends at each state (including
+	 * those reached by following failure links), or zero if none does.
+	 */
+	private final int[] output;
+
+	/** The length of the longest pattern. */
+	private final int maxLength;
+
+	/** A value indicating whether all of the phrases are ASCII. */
+	private final boolean ascii;
+
+	/**
+	 * Creates a new <code>CutoffPhrases</code>.
+	 * @param phrases The phrases to cut off at.  Leading and trailing spaces
+	 * 		are ignored, as are empty phrases.
+	 */
+	public CutoffPhrases(String... phrases) {
+
+		List<StringBuilder> keyList = new ArrayList<StringBuilder>();
+		List<List<Integer>> targetList = new ArrayList<List<Integer>>();
+		List<Integer> outputList = new ArrayList<Integer>();
+		keyList.add(new StringBuilder());
+		targetList.add(new ArrayList<Integer>());
+		outputList.add(0);
+
+		/* Build the trie of patterns. */
+		int longest = 0;
+		boolean allAscii = true;
+		for (String phrase : phrases) {
+			phrase = phrase.trim();
+			if (phrase.length() == 0) {
+				continue;
+			}
+			for (int i = 0; i < phrase.length(); i++) {
+				if (phrase.charAt(i) >= 0x80) {
+					allAscii = false;
+				}
+			}
+
+			String pattern = " " + phrase + " ";
+			int state = 0;
+			for (int i = 0; i < pattern.length(); i++) {
+				char c = pattern.charAt(i);
+				int next = -1;
+				StringBuilder stateKeys = keyList.get(state);
+				for (int j = 0; j < stateKeys.length(); j++) {
+					if (stateKeys.charAt(j) == c) {
+						next = targetList.get(state).get(j);
+						break;
+					}
+				}
+				if (next < 0) {
+					next = keyList.size();
+					keyList.add(new StringBuilder());
+					targetList.add(new ArrayList<Integer>());
+					outputList.add(0);
+					stateKeys.append(c);
+					targetList.get(state).add(next);
+				}
+				state = next;
+			}
+			outputList.set(state, Math.max(outputList.get(state), pattern.length()));
+			longest = Math.max(longest, pattern.length());
+		}
+
+		int n = keyList.size();
+		keys = new char[n][];
+		targets = new int[n][];
+		fail = new int[n];
+		output = new int[n];
+		maxLength = longest;
+		ascii = allAscii;
+		for (int i = 0; i < n; i++) {
+			keys[i] = keyList.get(i).toString().toCharArray();
+			targets[i] = new int[keys[i].length];
+			for (int j = 0; j < keys[i].length; j++) {
+				targets[i][j] = targetList.get(i).get(j);
+			}
+			output[i] = outputList.get(i);
+		}
+
+		/* Compute the failure links in breadth-first order, so that the
+		 * failure link of each state's parent is known before the state is
+		 * processed.
+		 */
+		Queue<Integer> queue = new LinkedList<Integer>();
+		for (int target : targets[0]) {
+			fail[target] = 0;
+			queue.add(target);
+		}
+		while (!queue.isEmpty()) {
+			int state = queue.remove();
+			for (int j = 0; j < keys[state].length; j++) {
+				int target = targets[state][j];
+				int f = fail[state];
+				int next;
+				while ((next = transition(f, keys[state][j])) < 0 && f != 0) {
+					f = fail[f];
+				}
+				fail[target] = next >= 0 ? next : 0;
+				output[target] = Math.max(output[target], output[fail[target]]);
+				queue.add(target);
+			}
+		}
+
+	}
+
+	/**
+	 * Finds the transition out of a state.
+	 * @param state The state.
+	 * @param c The <code>char</code> labelling the transition.
+	 * @return The target state, or -1 if there is no such transition.
+	 */
+	private int transition(int state, char c) {
+		char[] stateKeys = keys[state];
+		for (int i = 0; i < stateKeys.length; i++) {
+			if (stateKeys[i] == c) {
+				return targets[state][i];
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Finds the point at which to cut off a string.
+	 * @param s The <code>CharSequence</code> to search.
+	 * @return The index of the space preceding the earliest occurrence of any
+	 * 		of the phrases, or the length of <code>s</code> if none occurs.
+	 */
+	public int find(CharSequence s) {
+		int n = s.length();
+		int cut = n;
+		int state = 0;
+		for (int i = 0; i < n; i++) {
+
+			/* A match ending here or later cannot start before the one
+			 * already found.
+			 */
+			if (i - maxLength >= cut) {
+				break;
+			}
+
+			char c = s.charAt(i);
+			int next;
+			while ((next = transition(state, c)) < 0 && state != 0) {
+				state = fail[state];
+			}
+			state = next >= 0 ? next : 0;
+
+			if (output[state] > 0) {
+				cut = Math.min(cut, i - output[state] + 1);
+			}
+		}
+		return cut;
+	}
+
+	/**
+	 * Finds the point at which to cut off a UTF-8 encoded string.  Since no
+	 * byte of a multi-byte UTF-8 sequence is ASCII, an ASCII phrase occurs
+	 * in the encoded string exactly where it occurs in the string itself.
+	 * This may therefore only be used if all the phrases are ASCII (see
+	 * {@link #isAscii()}).
+	 * @param b The array containing the UTF-8 encoded string.
+	 * @param from The index of the first byte of the string.
+	 * @param to The index following the last byte of the string.
+	 * @return The index of the space preceding the earliest occurrence of any
+	 * 		of the phrases, or <code>to</code> if none occurs.
+	 */
+	public int find(byte[] b, int from, int to) {
+		int cut = to;
+		int state = 0;
+		for (int i = from; i < to; i++) {
+
+			/* A match ending here or later cannot start before the one
+			 * already found.
+			 */
+			if (i - maxLength >= cut) {
+				break;
+			}
+
+			char c = (char) (b[i] & 0xff);
+			int next;
+			while ((next = transition(state, c)) < 0 && state != 0) {
+				state = fail[state];
+			}
+			state = next >= 0 ? next : 0;
+
+			if (output[state] > 0) {
+				cut = Math.min(cut, i - output[state] + 1);
+			}
+		}
+		return cut;
+	}
+
+	/**
+	 * Determines whether all of the phrases are ASCII, so that
+	 * {@link #find(byte[], int, int)} may be used.
+	 * @return A value indicating whether all of the phrases are ASCII.
+	 */
+	public boolean isAscii() {
+		return ascii;
+	}
+
+	/**
+	 * Cuts off a string at the earliest occurrence of any of the phrases.
+	 * @param s The <code>CharSequence</code> to cut off.
+	 * @return The portion of <code>s</code> preceding the earliest occurrence
+	 * 		of any of the phrases, or <code>s</code> itself if none occurs.
+	 */
+	public CharSequence truncate(CharSequence s) {
+		int cut = find(s);
+		return cut < s.length() ? s.subSequence(0, cut) : s;
+	}
+
+}
@@ -0,0 +1,285 @@
+/**
+ * 
+ */
+package ca.eandb.sortable;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Detects exact duplicate lines of input (e.g., listings sent more than once
+ * by the same source), so that they may be skipped before being parsed and
+ * matched.  Each line is reduced to a 128-bit hash (MurmurHash3), and the
+ * hashes of the most recent distinct lines are kept in a table of fixed
+ * size, so that the memory used does not grow with the input.  The table is
+ * four-way set associative: each hash may be stored in one of four slots,
+ * and once all four are taken, one of them is replaced.  A duplicate is
+ * therefore missed (and processed as usual) if too many other lines
+ * intervene, but a line is never mistaken for a duplicate unless two
+ * distinct lines have the same 128-bit hash.
+ *
+ * Lines given as <code>CharSequence</code>s are hashed as UTF-16 rather than
+ * being encoded first, so a filter should be given all of its lines either
+ * as <code>CharSequence</code>s or as bytes, but not both.  This class is not
+ * thread-safe.
+ *
+ * @author Brad Kimmel
+ */
+public final class DuplicateFilter {
+
+	/** The number of slots in which each hash may be stored. */
+	private static final int WAYS = 4;
+
+	/** Reads eight bytes at a time from a byte array. */
+	private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(
+			long[].class, ByteOrder.LITTLE_ENDIAN);
+
+	/** The first multiplier used by MurmurHash3. */
+	private static final long C1 = 0x87c37b91114253d5L;
+
+	/** The second multiplier used by MurmurHash3. */
+	private static final long C2 = 0x4cf5ad432745937fL;
+
+	/**
+	 * A value indicating whether duplicates are to be skipped, rather than
+	 * only counted.
+	 */
+	private final boolean skip;
+
+	/**
+	 * The stored hashes, two <code>long</code>s per slot, or zero for an
+	 * empty slot.
+	 */
+	private final long[] table;
+
+	/** The mask selecting the set of slots for a hash. */
+	private final int setMask;
+
+	/** The first half of the hash being computed. */
+	private long h1;
+
+	/** The second half of the hash being computed. */
+	private long h2;
+
+	/** The number of lines seen. */
+	private long lines = 0;
+
+	/** The number of duplicate lines seen. */
+	private long duplicates = 0;
+
+	/**
+	 * Creates a new <code>DuplicateFilter</code>.
+	 * @param capacity The number of distinct lines to remember (rounded up
+	 * 		to a power of two, and to at least the number of slots in a set).
+	 * @param skip A value indicating whether duplicates are to be skipped,
+	 * 		rather than only counted.
+	 */
+	public DuplicateFilter(int capacity, boolean skip) {
+		int sets = Integer.highestOneBit(Math.max((capacity - 1) / WAYS, 1)) << 1;
+		if (sets > 1 && (sets >> 1) * WAYS >= capacity) {
+			sets >>= 1;
+		}
+		this.skip = skip;
+		this.table = new long[2 * WAYS * sets];
+		this.setMask = sets - 1;
+	}
+
+	/**
+	 * Creates a <code>DuplicateFilter</code> as configured by the
+	 * <code>ca.eandb.sortable.dedup</code> property ("skip" to skip
+	 * duplicates, "count" to only count them, or "off") and the
+	 * <code>ca.eandb.sortable.dedupCapacity</code> property (the number of
+	 * distinct lines to remember).
+	 * @return The new <code>DuplicateFilter</code>, or <code>null</code> if
+	 * 		duplicates are not to be detected.
+	 */
+	public static DuplicateFilter fromProperties() {
+		String mode = System.getProperty("ca.eandb.sortable.dedup", "off");
+		if (mode.equals("off")) {
+			return null;
+		}
+		if (!mode.equals("skip") && !mode.equals("count")) {
+			throw new IllegalArgumentException("Invalid value for ca.eandb.sortable.dedup: " + mode);
+		}
+		int capacity = Integer.parseInt(System.getProperty("ca.eandb.sortable.dedupCapacity", "1048576"));
+		return new DuplicateFilter(capacity, mode.equals("skip"));
+	}
+
+	/**
+	 * Determines whether to process a line, recording it as seen.
+	 * @param line The line.
+	 * @return A value indicating whether the line should be processed (i.e.,
+	 * 		<code>false</code> if it is a duplicate that is to be skipped).
+	 */
+	public boolean accept(CharSequence line) {
+		int n = line.length();
+		h1 = h2 = 0;
+
+		int i = 0;
+		for (; i + 8 <= n; i += 8) {
+			mix(pack(line, i, i + 4), pack(line, i + 4, i + 8));
+		}
+		mixTail(pack(line, i, Math.min(i + 4, n)), pack(line, Math.min(i + 4, n), n));
+
+		return accept(2L * n);
+	}
+
+	/**
+	 * Determines whether to process a line, recording it as seen.
+	 * @param b The array containing the line.
+	 * @param from The index of the first byte of the line.
+	 * @param to The index following the last byte of the line.
+	 * @return A value indicating whether the line should be processed (i.e.,
+	 * 		<code>false</code> if it is a duplicate that is to be skipped).
+	 */
+	public boolean accept(byte[] b, int from, int to) {
+		h1 = h2 = 0;
+
+		int i = from;
+		for (; i + 16 <= to; i += 16) {
+			mix((long) LONGS.get(b, i), (long) LONGS.get(b, i + 8));
+		}
+		mixTail(pack(b, i, Math.min(i + 8, to)), pack(b, Math.min(i + 8, to), to));
+
+		return accept(to - from);
+	}
+
+	/**
+	 * Packs up to four <code>char</code>s into a <code>long</code>, with the
+	 * first in the lowest bits.
+	 * @param s The <code>CharSequence</code> containing the chars.
+	 * @param from The index of the first char.
+	 * @param to The index following the last char.
+	 * @return The packed chars.
+	 */
+	private static long pack(CharSequence s, int from, int to) {
+		long k = 0;
+		for (int i = to - 1; i >= from; i--) {
+			k = (k << 16) | s.charAt(i);
+		}
+		return k;
+	}
+
+	/**
+	 * Packs up to eight bytes into a <code>long</code>, with the first in
+	 * the lowest bits.
+	 * @param b The array containing the bytes.
+	 * @param from The index of the first byte.
+	 * @param to The index following the last byte.
+	 * @return The packed bytes.
+	 */
+	private static long pack(byte[] b, int from, int to) {
+		long k = 0;
+		for (int i = to - 1; i >= from; i--) {
+			k = (k << 8) | (b[i] & 0xff);
+		}
+		return k;
+	}
+
+	/**
+	 * Mixes a 16-byte block into the hash.
+	 * @param k1 The first eight bytes of the block.
+	 * @param k2 The last eight bytes of the block.
+	 */
+	private void mix(long k1, long k2) {
+		h1 ^= Long.rotateLeft(k1 * C1, 31) * C2;
+		h1 = Long.rotateLeft(h1, 27) + h2;
+		h1 = h1 * 5 + 0x52dce729;
+
+		h2 ^= Long.rotateLeft(k2 * C2, 33) * C1;
+		h2 = Long.rotateLeft(h2, 31) + h1;
+		h2 = h2 * 5 + 0x38495ab5;
+	}
+
+	/**
+	 * Mixes the final, partial block into the hash.
+	 * @param k1 The first (up to) eight bytes of the block.
+	 * @param k2 The remaining bytes of the block.
+	 */
+	private void mixTail(long k1, long k2) {
+		h2 ^= Long.rotateLeft(k2 * C2, 33) * C1;
+		h1 ^= Long.rotateLeft(k1 * C1, 31) * C2;
+	}
+
+	/**
+	 * Finalizes a 64-bit half of the hash.
+	 * @param k The value to finalize.
+	 * @return The finalized value.
+	 */
+	private static long fmix(long k) {
+		k ^= k >>> 33;
+		k *= 0xff51afd7ed558ccdL;
+		k ^= k >>> 33;
+		k *= 0xc4ceb9fe1a85ec53L;
+		k ^= k >>> 33;
+		return k;
+	}
+
+	/**
+	 * Finalizes the hash of a line, and looks it up in (or adds it to) the
+	 * table.
+	 * @param length The length of the line, in bytes.
+	 * @return A value indicating whether the line should be processed.
+	 */
+	private boolean accept(long length) {
+		h1 ^= length;
+		h2 ^= length;
+		h1 += h2;
+		h2 += h1;
+		h1 = fmix(h1);
+		h2 = fmix(h2);
+		h1 += h2;
+		h2 += h1;
+		if (h1 == 0 && h2 == 0) {
+			h2 = 1;	// reserved for empty slots
+		}
+
+		lines++;
+		int base = 2 * WAYS * ((int) h1 & setMask);
+		for (int i = base; i < base + 2 * WAYS; i += 2) {
+			if (table[i] == h1 && table[i + 1] == h2) {
+				duplicates++;
+				return !skip;
+			}
+			if (table[i] == 0 && table[i + 1] == 0) {
+				table[i] = h1;
+				table[i + 1] = h2;
+				return true;
+			}
+		}
+
+		// The set is full, so replace one of its entries.
+		int victim = base + 2 * (int) (h2 >>> 62);
+		table[victim] = h1;
+		table[victim + 1] = h2;
+		return true;
+	}
+
+	/**
+	 * Gets the number of lines seen.
+	 * @return The number of lines seen.
+	 */
+	public long getLineCount() {
+		return lines;
+	}
+
+	/**
+	 * Gets the number of duplicate lines seen.
+	 * @return The number of duplicate lines seen.
+	 */
+	public long getDuplicateCount() {
+		return duplicates;
+	}
+
+	/**
+	 * Prints the number of duplicates found to <code>System.err</code>.
+	 */
+	public void report() {
+		double pctDuplicate = 100.0 * (double) duplicates / (double) Math.max(lines, 1);
+		System.err.printf("%s %d duplicate listings of %d (%4.1f%%).",
+				skip ? "Skipped" : "Found", duplicates, lines, pctDuplicate);
+		System.err.println();
+	}
+
+}
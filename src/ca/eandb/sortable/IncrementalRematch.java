@@ -0,0 +1,120 @@
+/**
+ * 
+ */
+package ca.eandb.sortable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.List;
+
+import ca.eandb.sortable.json.IncrementalMatcher;
+import ca.eandb.sortable.json.JSONListingReader;
+import ca.eandb.sortable.json.JSONProductReader;
+
+/**
+ * An application that updates the results of a previous run of
+ * {@link SortableChallenge} after the product catalog has changed, matching
+ * again only the listings that may be affected by the change.  The previous
+ * run must have been made with <code>ca.eandb.sortable.listingIndex</code>
+ * set, so that a {@link ListingIndex} was written for the listings file.  The
+ * index is updated in place, so that this application may be run again for
+ * the next change to the catalog.
+ *
+ * @author Brad Kimmel
+ */
+public final class IncrementalRematch {
+
+	/**
+	 * Usage: ca.eandb.sortable.IncrementalRematch <old_products_file>
+	 *        <new_products_file> <listings_file> <index_file>
+	 *        <previous_results_file> <output_file>
+	 * Updates the results of a previous run after the products have changed.
+	 *
+	 *   <old_products_file>     - The products file used for the previous run.
+	 *   <new_products_file>     - The updated products file.
+	 *   <listings_file>         - The listings file used for the previous run.
+	 *   <index_file>            - The listing index written by the previous run.
+	 *   <previous_results_file> - The results of the previous run.
+	 *   <output_file>           - A file to which to write the updated results.
+	 *
+	 * @param args The program arguments as specified above.
+	 */
+	public static void main(String[] args) {
+
+		if (args.length != 6) {
+			System.out.printf("Usage: %s <old_products_file> <new_products_file> <listings_file> <index_file> <previous_results_file> <output_file>", IncrementalRematch.class.getName());
+			System.out.println();
+			System.out.println("Updates the results of a previous run after the products have changed.");
+			System.exit(1);
+		}
+
+		try {
+
+			long start = System.currentTimeMillis();
+			Reader oldProducts = new FileReader(args[0]);
+			Reader newProducts = new FileReader(args[1]);
+			List<Product> changed = IncrementalMatcher.diff(oldProducts, newProducts);
+			oldProducts.close();
+			newProducts.close();
+
+			ProductTrieBuilder builder = new ProductTrieBuilder();
+			Reader reader = new FileReader(args[1]);
+			new JSONProductReader().read(reader, builder);
+			reader.close();
+			long end = System.currentTimeMillis();
+
+			System.err.printf(
+					"Time required to compare products and build product data structures: %dms",
+					end - start);
+			System.err.println();
+
+			File indexFile = new File(args[3]);
+			InputStream indexIn = new BufferedInputStream(new FileInputStream(indexFile));
+			ListingIndex index = ListingIndex.read(indexIn);
+			indexIn.close();
+
+			JSONListingReader listingReader = new JSONListingReader(
+					builder.getProducts(), builder.getManufacturerRoot(),
+					builder.getModelRoot());
+			IncrementalMatcher matcher = new IncrementalMatcher(
+					listingReader, index, new File(args[2]),
+					builder.getManufacturerRoot());
+
+			Reader previous = new FileReader(args[4]);
+			Writer out = new FileWriter(args[5]);
+
+			start = System.currentTimeMillis();
+			int rematched = matcher.rematch(changed, previous, out);
+			end = System.currentTimeMillis();
+
+			previous.close();
+			out.close();
+
+			OutputStream indexOut = new BufferedOutputStream(new FileOutputStream(indexFile));
+			index.write(indexOut);
+			indexOut.close();
+
+			System.err.printf(
+					"Rematched %d of %d listings for %d changed products in %dms",
+					rematched, index.size(), changed.size(), end - start);
+			System.err.println();
+
+		} catch (Exception e) {
+
+			e.printStackTrace();
+			System.exit(1);
+
+		}
+
+	}
+
+}
@@ -0,0 +1,217 @@
+/**
+ * 
+ */
+package ca.eandb.sortable;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Finds the nodes of a trie whose strings are within a bounded edit
+ * (Levenshtein) distance of a prefix of a query string.  The search walks the
+ * trie depth first, carrying the state of a Levenshtein automaton for the
+ * query: the edit distances between the string for the current node and each
+ * prefix of the query.  Since only distances up to the bound matter, only the
+ * prefixes whose lengths are within the bound of the depth of the node are
+ * tracked, so the state has a fixed size.  As soon as every distance in the
+ * state exceeds the bound, no descendant can be within the bound either, and
+ * the whole subtree is skipped.
+ *
+ * A search expands at most a fixed number of trie nodes in total, so that a
+ * pathological query cannot take too long.  Instances of this class are not
+ * safe for use by multiple threads.
+ *
+ * @author Brad Kimmel
+ */
+final class LevenshteinTrieSearch {
+
+	/**
+	 * The characters that may label an edge of the trie.  Since the strings
+	 * in the tries are normalized (see {@link StringUtil#normalize}) and
+	 * stored without word breaks, only these need be probed when looking for
+	 * the children of a node in a trie that is not frozen.  They are listed in
+	 * the same order as the children of a frozen trie laid out without a
+	 * profile, so that the search visits the nodes in the same order either
+	 * way.  The children of a frozen trie are enumerated directly.
+	 */
+	static final String ALPHABET = "0123456789abcdefghijklmnopqrstuvwxyz";
+
+	/**
+	 * The number of characters a string must have for each edit allowed when
+	 * matching it, so that short strings (which are within a small distance
+	 * of a great many others) must match exactly.
+	 */
+	private static final int CHARS_PER_EDIT = 4;
+
+	/** The maximum edit distance. */
+	private final int maxDistance;
+
+	/** The number of trie nodes that may still be expanded. */
+	private int budget;
+
+	/** The query being searched for. */
+	private String query;
+
+	/**
+	 * A value indicating, for each prefix length of the query, whether the
+	 * prefix ends at a word boundary.
+	 */
+	private boolean[] boundaries;
+
+	/** The matching nodes found, with their distances. */
+	private Map<TrieNode, Integer> hits;
+
+	/**
+	 * Creates a new <code>LevenshteinTrieSearch</code>.
+	 * @param maxDistance The maximum edit distance.
+	 * @param maxStates The maximum number of trie nodes to expand over all
+	 * 		calls to {@link #search(TrieNode, String, boolean[], Map)}.
+	 */
+	public LevenshteinTrieSearch(int maxDistance, int maxStates) {
+		this.maxDistance = maxDistance;
+		this.budget = maxStates;
+	}
+
+	/**
+	 * Finds the nodes with data associated with them whose strings are
+	 * within the maximum edit distance of a prefix of the query that ends at
+	 * a word boundary.
+	 * @param root The root <code>TrieNode</code> of the trie to search.
+	 * @param query The query string.
+	 * @param boundaries A value indicating, for each prefix length of the
+	 * 		query (from zero to the length of the query), whether the prefix
+	 * 		ends at a word boundary.
+	 * @param hits The <code>Map</code> to which to add the matching nodes,
+	 * 		together with their distances.  If a node is already present with
+	 * 		a greater distance, the distance is replaced.
+	 * @return A value indicating whether the search was completed.  If
+	 * 		<code>false</code>, the budget of expanded nodes was exhausted and
+	 * 		some matching nodes may be missing from <code>hits</code>.
+	 */
+	public boolean search(TrieNode root, String query, boolean[] boundaries,
+			Map<TrieNode, Integer> hits) {
+		this.query = query;
+		this.boundaries = boundaries;
+		this.hits = hits;
+
+		/* The state for a node at depth d holds the distances to the query
+		 * prefixes of length d - maxDistance through d + maxDistance.  At the
+		 * root, the distance to a prefix is its length.
+		 */
+		int[] state = new int[2 * maxDistance + 1];
+		for (int t = 0; t < state.length; t++) {
+			int j = t - maxDistance;
+			state[t] = (j >= 0 && j <= query.length()) ? j : maxDistance + 1;
+		}
+		return expand(root, 0, state);
+	}
+
+	/**
+	 * Searches the children of a node.
+	 * @param node The <code>TrieNode</code> whose children to search.
+	 * @param depth The depth of <code>node</code>.
+	 * @param state The automaton state for <code>node</code>.
+	 * @return A value indicating whether the search was completed.
+	 */
+	private boolean expand(TrieNode node, int depth, int[] state) {
+		int width = state.length;
+		int infinity = maxDistance + 1;
+		int childDepth = depth + 1;
+
+		boolean frozen = node.isFrozen();
+		int n = frozen ? node.getFrozenChildCount() : ALPHABET.length();
+		for (int k = 0; k < n; k++) {
+			char c;
+			TrieNode child;
+			if (frozen) {
+				c = node.getFrozenKey(k);
+				child = node.getFrozenChild(k);
+			} else {
+				c = ALPHABET.charAt(k);
+				child = node.findChild(c);
+				if (child == null) {
+					continue;
+				}
+			}
+			if (--budget < 0) {
+				return false;
+			}
+
+			/* Compute the state for the child.  Position t of the new state
+			 * corresponds to position t + 1 of the parent's state for an
+			 * unchanged prefix length (deleting c), to position t for a prefix
+			 * one shorter (matching or substituting c), and to position t - 1
+			 * of the new state for a prefix one shorter (inserting a query
+			 * character).
+			 */
+			int[] next = new int[width];
+			int best = infinity;
+			for (int t = 0; t < width; t++) {
+				int j = childDepth - maxDistance + t;
+				int d = infinity;
+				if (j >= 0 && j <= query.length()) {
+					if (t + 1 < width) {
+						d = state[t + 1] + 1;
+					}
+					if (j > 0) {
+						d = Math.min(d, state[t] + (query.charAt(j - 1) == c ? 0 : 1));
+						if (t > 0) {
+							d = Math.min(d, next[t - 1] + 1);
+						}
+					}
+					d = Math.min(d, infinity);
+				}
+				next[t] = d;
+				best = Math.min(best, d);
+			}
+			if (best > maxDistance) {	// prune the whole subtree
+				continue;
+			}
+
+			if (child.getData() != null) {
+				int allowed = Math.min(maxDistance, childDepth / CHARS_PER_EDIT);
+				int distance = infinity;
+				for (int t = 0; t < width; t++) {
+					int j = childDepth - maxDistance + t;
+					if (j > 0 && j <= query.length() && boundaries[j]) {
+						distance = Math.min(distance, next[t]);
+					}
+				}
+				if (distance <= allowed) {
+					Integer previous = hits.get(child);
+					if (previous == null || distance < previous) {
+						hits.put(child, distance);
+					}
+				}
+			}
+
+			if (!expand(child, childDepth, next)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Builds a query from a sequence of words, beginning at the specified
+	 * word, for use with {@link #search(TrieNode, String, boolean[], Map)}.
+	 * The words are concatenated without word breaks, as the strings in the
+	 * trie are.
+	 * @param words The words.
+	 * @param start The index of the first word of the query.
+	 * @param boundaries The array in which to mark, for each prefix length of
+	 * 		the query, whether the prefix ends at a word boundary.  Its length
+	 * 		must be greater than the total length of the words.
+	 * @return The query string.
+	 */
+	public static String buildQuery(String[] words, int start, boolean[] boundaries) {
+		StringBuilder query = new StringBuilder();
+		Arrays.fill(boundaries, false);
+		for (int i = start; i < words.length; i++) {
+			query.append(words[i]);
+			boundaries[query.length()] = true;
+		}
+		return query.toString();
+	}
+
+}
@@ -0,0 +1,85 @@
+/**
+ * 
+ */
+package ca.eandb.sortable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads UTF-8 encoded lines of text from an <code>InputStream</code> while
+ * keeping track of the byte offset of each line, so that individual lines may
+ * later be read again directly (see {@link ListingIndex}).  Lines may be
+ * terminated by a line feed or a carriage return followed by a line feed.
+ *
+ * @author Brad Kimmel
+ */
+public final class LineReader {
+
+	/** The <code>InputStream</code> to read from. */
+	private final InputStream in;
+
+	/** The byte offset of the next line to be read. */
+	private long position;
+
+	/** The buffer holding the bytes of the current line. */
+	private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+	/**
+	 * Creates a new <code>LineReader</code>.
+	 * @param in The <code>InputStream</code> to read from.  This should be
+	 * 		buffered, as it is read one byte at a time.
+	 * @param position The byte offset of the first line to be read from
+	 * 		<code>in</code>.
+	 */
+	public LineReader(InputStream in, long position) {
+		this.in = in;
+		this.position = position;
+	}
+
+	/**
+	 * Gets the byte offset of the next line to be read.
+	 * @return The byte offset of the next line to be read.
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	/**
+	 * Reads the next line.
+	 * @return The next line, without its terminator, or <code>null</code> if
+	 * 		the end of the stream has been reached.
+	 * @throws IOException If an error occurs while reading from the stream.
+	 */
+	public String readLine() throws IOException {
+		line.reset();
+		int b;
+		while ((b = in.read()) >= 0) {
+			position++;
+			if (b == '\n') {
+				break;
+			}
+			line.write(b);
+		}
+		if (b < 0 && line.size() == 0) {
+			return null;
+		}
+
+		byte[] bytes = line.toByteArray();
+		int length = bytes.length;
+		if (length > 0 && bytes[length - 1] == '\r') {
+			length--;
+		}
+		return new String(bytes, 0, length, "UTF-8");
+	}
+
+	/**
+	 * Closes the underlying stream.
+	 * @throws IOException If an error occurs while closing the stream.
+	 */
+	public void close() throws IOException {
+		in.close();
+	}
+
+}
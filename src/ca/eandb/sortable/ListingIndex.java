@@ -0,0 +1,535 @@
+/**
+ * 
+ */
+package ca.eandb.sortable;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * An index of a listings file, built while matching the listings, which
+ * records for each listing its byte offset within the file and the name of
+ * the product it matched.  It also maps each key that may be matched against
+ * the manufacturer trie (see {@link #keys(String)}) to the listings whose
+ * manufacturer field contains that key, and each key that may be matched
+ * against the model trie (see {@link #keys(String, int)}) to the listings
+ * whose title contains that key.
+ *
+ * A product can only affect the result for a listing if it is among the
+ * products whose manufacturer matches that listing, since all other products
+ * are filtered out before the title is matched, or if it changes which of
+ * those products are candidates.  The latter happens only through a node of
+ * the manufacturer trie that holds a single product before or after the
+ * change, since such nodes take precedence over the others, or that is
+ * created or emptied by the change, since a node supersedes the nodes for
+ * its prefixes (and such a node holds a single product before or after the
+ * change).  Otherwise, a product among the candidates can only affect the
+ * result if the title of the listing contains the key of one of the nodes of
+ * the model trie with which the product is associated.  Therefore, when
+ * products are added to, removed from, or changed in the catalog, only the
+ * listings that contain the key of such a manufacturer node of one of these
+ * products, or that meet both of the other conditions for one of them, need
+ * to be matched again (see {@link #affectedBy(Collection, TrieNode)}).  Note
+ * that the keys depend only on the listings, so the index remains valid as
+ * the catalog changes; only the recorded results need to be updated.
+ *
+ * When a step budget is set, any node a product inserts into either trie may
+ * change how many steps the walk takes for a listing containing its key,
+ * whatever the manufacturer of the listing, so the listings containing the
+ * key of any such node are matched again.  The title keys are only recorded
+ * up to the depth of the model trie at the time the index was built, as
+ * longer keys cannot lead to any node.  If a product later inserts a longer
+ * string into the trie, the title is not considered for that product (or,
+ * with a step budget, all listings are matched again).  When fuzzy matching
+ * is enabled, all listings are matched again, since the fuzzy search is
+ * bounded by the shape of the whole model trie.
+ *
+ * @author Brad Kimmel
+ */
+public final class ListingIndex {
+
+	/** The magic number identifying a listing index file. */
+	private static final int MAGIC = 0x53494458; // "SIDX"
+
+	/** The version of the file format. */
+	private static final int VERSION = 2;
+
+	/**
+	 * A value indicating whether fuzzy matching is enabled, in which case the
+	 * title keys cannot be used to rule out listings.
+	 */
+	private final boolean fuzzy = Integer.parseInt(
+			System.getProperty("ca.eandb.sortable.fuzzyDistance", "0")) > 0;
+
+	/**
+	 * A value indicating whether a step budget is set, in which case every
+	 * node a product inserts into the model trie may affect the result.
+	 */
+	private final boolean stepBudget = Integer.parseInt(
+			System.getProperty("ca.eandb.sortable.stepBudget", "0")) > 0;
+
+	/** The length of the longest title key recorded. */
+	private final int maxKeyLength;
+
+	/** The byte offset of each listing. */
+	private long[] offsets = new long[1024];
+
+	/** The name of the product matched by each listing (or null). */
+	private String[] results = new String[1024];
+
+	/** The number of listings in the index. */
+	private int size = 0;
+
+	/** The listings containing each manufacturer key, in ascending order. */
+	private final Map<String, List<Integer>> postings = new HashMap<String, List<Integer>>();
+
+	/** The listings containing each title key, in ascending order. */
+	private final Map<String, List<Integer>> titlePostings = new HashMap<String, List<Integer>>();
+
+	/**
+	 * Creates a new <code>ListingIndex</code>.
+	 * @param maxKeyLength The length of the longest title key to record,
+	 * 		which should be the depth of the model trie (see
+	 * 		{@link #depth(TrieNode)}).
+	 */
+	public ListingIndex(int maxKeyLength) {
+		this.maxKeyLength = maxKeyLength;
+	}
+
+	/**
+	 * Adds a listing to the index.
+	 * @param offset The byte offset of the listing within the listings file.
+	 * @param manufacturer The manufacturer field of the listing.
+	 * @param title The title field of the listing.
+	 * @param result The name of the product matched by the listing, or
+	 * 		<code>null</code> if the listing did not match exactly one product.
+	 * @return The index of the listing (i.e., the number of listings
+	 * 		preceding it).
+	 */
+	public int add(long offset, String manufacturer, String title, String result) {
+		if (size == offsets.length) {
+			long[] newOffsets = new long[2 * size];
+			String[] newResults = new String[2 * size];
+			System.arraycopy(offsets, 0, newOffsets, 0, size);
+			System.arraycopy(results, 0, newResults, 0, size);
+			offsets = newOffsets;
+			results = newResults;
+		}
+
+		int listing = size++;
+		offsets[listing] = offset;
+		results[listing] = result;
+
+		post(postings, keys(manufacturer), listing);
+		post(titlePostings, keys(title, maxKeyLength), listing);
+
+		return listing;
+	}
+
+	/**
+	 * Adds a listing to the posting list for each of the specified keys.
+	 * @param postings The posting lists.
+	 * @param keys The keys contained in the listing.
+	 * @param listing The index of the listing.
+	 */
+	private static void post(Map<String, List<Integer>> postings, Set<String> keys, int listing) {
+		for (String key : keys) {
+			List<Integer> list = postings.get(key);
+			if (list == null) {
+				list = new ArrayList<Integer>();
+				postings.put(key, list);
+			}
+			list.add(listing);
+		}
+	}
+
+	/**
+	 * Gets the number of listings in the index.
+	 * @return The number of listings in the index.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the byte offset of a listing within the listings file.
+	 * @param listing The index of the listing.
+	 * @return The byte offset of the listing.
+	 */
+	public long getOffset(int listing) {
+		return offsets[listing];
+	}
+
+	/**
+	 * Gets the name of the product matched by a listing.
+	 * @param listing The index of the listing.
+	 * @return The name of the matching product, or <code>null</code> if the
+	 * 		listing did not match exactly one product.
+	 */
+	public String getResult(int listing) {
+		return results[listing];
+	}
+
+	/**
+	 * Records the name of the product matched by a listing.
+	 * @param listing The index of the listing.
+	 * @param result The name of the matching product, or <code>null</code> if
+	 * 		the listing did not match exactly one product.
+	 */
+	public void setResult(int listing, String result) {
+		results[listing] = result;
+	}
+
+	/**
+	 * Finds the listings whose results may be affected by adding, removing,
+	 * or changing the specified products.
+	 * @param products The <code>Product</code>s that have been added,
+	 * 		removed, or changed (for a changed product, both the old and the
+	 * 		new version should be included).
+	 * @param manufacturerRoot The root <code>TrieNode</code> of the
+	 * 		manufacturer trie built from the new catalog.
+	 * @return The indices of the affected listings, in ascending order.
+	 */
+	public SortedSet<Integer> affectedBy(Collection<Product> products, TrieNode manufacturerRoot) {
+		SortedSet<Integer> affected = new TreeSet<Integer>();
+		if (fuzzy) {
+			for (int i = 0; i < size; i++) {
+				affected.add(i);
+			}
+			return affected;
+		}
+
+		/* Find the manufacturer keys of each product, and count the changed
+		 * products associated with each key.
+		 */
+		List<Set<String>> manufacturerKeys = new ArrayList<Set<String>>();
+		Map<String, Integer> changed = new HashMap<String, Integer>();
+		for (Product product : products) {
+			ProductTrieBuilder builder = new ProductTrieBuilder();
+			builder.addManufacturer(product);
+			Set<String> keys = nodeKeys(builder.getManufacturerRoot(), stepBudget);
+			manufacturerKeys.add(keys);
+			for (String key : keys) {
+				Integer count = changed.get(key);
+				changed.put(key, count != null ? count + 1 : 1);
+			}
+		}
+
+		int n = 0;
+		for (Product product : products) {
+			Set<String> keys = manufacturerKeys.get(n++);
+			Set<String> modelKeys = modelKeys(product);
+
+			if (stepBudget) {
+				affected.addAll(lookup(postings, keys));
+				if (modelKeys == null) {
+					for (int i = 0; i < size; i++) {
+						affected.add(i);
+					}
+					return affected;
+				}
+				affected.addAll(lookup(titlePostings, modelKeys));
+				continue;
+			}
+
+			/* A node that holds a single product in either the old or the
+			 * new catalog may change the candidates of the listings containing
+			 * its key without adding or removing this product (a singleton
+			 * takes precedence over the other nodes, and a new node supersedes
+			 * the nodes for its prefixes), so these listings are matched
+			 * again whatever their titles.  The old number of products at a
+			 * node is not known, but differs from the new one by at most the
+			 * number of changed products associated with it.
+			 */
+			Set<String> singletons = new HashSet<String>();
+			for (String key : keys) {
+				TrieNode node = manufacturerRoot.findDescendant(key);
+				MatchList list = node != null ? (MatchList) node.getData() : null;
+				int count = list != null ? list.size() : 0;
+				if (count <= changed.get(key) + 1) {
+					singletons.add(key);
+				}
+			}
+			affected.addAll(lookup(postings, singletons));
+
+			keys.removeAll(singletons);
+			Set<Integer> candidates = lookup(postings, keys);
+			if (modelKeys != null) {
+				candidates.retainAll(lookup(titlePostings, modelKeys));
+			}
+			affected.addAll(candidates);
+		}
+		return affected;
+	}
+
+	/**
+	 * Gets the title keys that may lead to a node of the model trie whose
+	 * matches depend on a product: the keys of the nodes with which the
+	 * product is associated, or, if a step budget is set, of all nodes
+	 * inserted for the product.  These are found by building a model trie
+	 * for the product alone.
+	 * @param product The <code>Product</code>.
+	 * @return The <code>Set</code> of keys, or <code>null</code> if the title
+	 * 		keys cannot be used to rule out listings for this product.
+	 */
+	private Set<String> modelKeys(Product product) {
+		ProductTrieBuilder builder = new ProductTrieBuilder();
+		builder.addProduct(product);
+		Set<String> keys = nodeKeys(builder.getModelRoot(), stepBudget);
+		for (String key : keys) {
+			if (key.length() > maxKeyLength) {
+				return null;	// longer than any title key recorded
+			}
+		}
+		return keys;
+	}
+
+	/**
+	 * Gets the keys of the nodes of a trie.
+	 * @param root The root <code>TrieNode</code> of the trie.
+	 * @param all A value indicating whether to include the nodes with no
+	 * 		data associated with them.
+	 * @return The <code>Set</code> of keys.
+	 */
+	private static Set<String> nodeKeys(TrieNode root, boolean all) {
+		final Map<TrieNode, Character> chars = new HashMap<TrieNode, Character>();
+		root.visitEdges(new TrieEdgeVisitor() {
+			public void visit(TrieNode parent, char c, TrieNode child) {
+				chars.put(child, c);
+			}
+		});
+
+		Set<String> keys = new HashSet<String>();
+		Map<TrieNode, String> nodeKeys = new HashMap<TrieNode, String>();
+		for (TrieNode node : chars.keySet()) {
+			if (all || node.getData() != null) {
+				keys.add(key(node, chars, nodeKeys));
+			}
+		}
+		return keys;
+	}
+
+	/**
+	 * Computes the key of a node, using the keys of nodes computed so far.
+	 * @param node The <code>TrieNode</code>.
+	 * @param chars The character on the edge leading to each node.
+	 * @param keys The <code>Map</code> of keys computed so far.
+	 * @return The key of <code>node</code> (empty for the root).
+	 */
+	private static String key(TrieNode node, Map<TrieNode, Character> chars,
+			Map<TrieNode, String> keys) {
+		String key = keys.get(node);
+		if (key == null) {
+			key = node.isRoot() ? "" : key(node.getParent(), chars, keys) + chars.get(node);
+			keys.put(node, key);
+		}
+		return key;
+	}
+
+	/**
+	 * Finds the listings containing any of the specified keys.
+	 * @param postings The posting lists.
+	 * @param keys The keys to look up.
+	 * @return The <code>Set</code> of indices of the listings.
+	 */
+	private static Set<Integer> lookup(Map<String, List<Integer>> postings, Set<String> keys) {
+		Set<Integer> listings = new HashSet<Integer>();
+		for (String key : keys) {
+			List<Integer> list = postings.get(key);
+			if (list != null) {
+				listings.addAll(list);
+			}
+		}
+		return listings;
+	}
+
+	/**
+	 * Gets the keys for a manufacturer field: the concatenations of all
+	 * sequences of consecutive words in the normalized field.  These are the
+	 * strings that are looked up in the manufacturer trie when matching a
+	 * listing, and a superset of the strings inserted into it for a product
+	 * (see {@link ProductTrieBuilder}).
+	 * @param manufacturer The manufacturer field (may be <code>null</code>).
+	 * @return The <code>Set</code> of keys.
+	 */
+	public static Set<String> keys(String manufacturer) {
+		return keys(manufacturer, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Gets the keys for a field: the concatenations of all sequences of
+	 * consecutive words in the normalized field, up to a maximum length.  For
+	 * a title, these are the strings that are looked up in the model trie
+	 * when matching a listing.
+	 * @param field The field (may be <code>null</code>).
+	 * @param maxLength The length of the longest key to include.
+	 * @return The <code>Set</code> of keys.
+	 */
+	public static Set<String> keys(String field, int maxLength) {
+		Set<String> keys = new HashSet<String>();
+		if (field != null) {
+			String[] words = StringUtil.normalizeWords(field);
+			for (int i = 0; i < words.length; i++) {
+				StringBuilder key = new StringBuilder();
+				for (int j = i; j < words.length; j++) {
+					key.append(words[j]);
+					if (key.length() > maxLength) {
+						break;
+					}
+					keys.add(key.toString());
+				}
+			}
+		}
+		return keys;
+	}
+
+	/**
+	 * Gets the depth of a trie: the length of the longest string that leads
+	 * to one of its nodes.
+	 * @param root The root <code>TrieNode</code> of the trie.
+	 * @return The depth of the trie.
+	 */
+	public static int depth(TrieNode root) {
+		final Map<TrieNode, Integer> depths = new HashMap<TrieNode, Integer>();
+		final int[] max = { 0 };
+		root.visitEdges(new TrieEdgeVisitor() {
+			public void visit(TrieNode parent, char c, TrieNode child) {
+				max[0] = Math.max(max[0], depth(child, depths));
+			}
+		});
+		return max[0];
+	}
+
+	/**
+	 * Computes the depth of a node, using the depths of nodes computed so far.
+	 * @param node The <code>TrieNode</code>.
+	 * @param depths The <code>Map</code> of depths computed so far.
+	 * @return The depth of <code>node</code> (zero for the root).
+	 */
+	private static int depth(TrieNode node, Map<TrieNode, Integer> depths) {
+		Integer depth = depths.get(node);
+		if (depth == null) {
+			depth = node.isRoot() ? 0 : depth(node.getParent(), depths) + 1;
+			depths.put(node, depth);
+		}
+		return depth;
+	}
+
+	/**
+	 * Writes the index to a stream.
+	 * @param out The <code>OutputStream</code> to write to.
+	 * @throws IOException If an error occurs while writing to
+	 * 		<code>out</code>.
+	 */
+	public void write(OutputStream out) throws IOException {
+
+		DataOutputStream data = new DataOutputStream(out);
+
+		data.writeInt(MAGIC);
+		data.writeInt(VERSION);
+
+		data.writeInt(maxKeyLength);
+		data.writeInt(size);
+		for (int i = 0; i < size; i++) {
+			data.writeLong(offsets[i]);
+			data.writeBoolean(results[i] != null);
+			if (results[i] != null) {
+				data.writeUTF(results[i]);
+			}
+		}
+
+		write(data, postings);
+		write(data, titlePostings);
+
+		data.flush();
+
+	}
+
+	/**
+	 * Writes posting lists to a stream.
+	 * @param data The <code>DataOutputStream</code> to write to.
+	 * @param postings The posting lists.
+	 * @throws IOException If an error occurs while writing to
+	 * 		<code>data</code>.
+	 */
+	private static void write(DataOutputStream data, Map<String, List<Integer>> postings) throws IOException {
+		data.writeInt(postings.size());
+		for (Map.Entry<String, List<Integer>> entry : postings.entrySet()) {
+			data.writeUTF(entry.getKey());
+			data.writeInt(entry.getValue().size());
+			for (int listing : entry.getValue()) {
+				data.writeInt(listing);
+			}
+		}
+	}
+
+	/**
+	 * Reads an index previously written using {@link #write(OutputStream)}.
+	 * @param in The <code>InputStream</code> to read from.
+	 * @return The <code>ListingIndex</code>.
+	 * @throws IOException If an error occurs while reading from
+	 * 		<code>in</code>, or if <code>in</code> does not contain a listing
+	 * 		index.
+	 */
+	public static ListingIndex read(InputStream in) throws IOException {
+
+		DataInputStream data = new DataInputStream(in);
+
+		if (data.readInt() != MAGIC) {
+			throw new IOException("Not a listing index.");
+		}
+		int version = data.readInt();
+		if (version != VERSION) {
+			throw new IOException("Unsupported listing index version: " + version);
+		}
+
+		ListingIndex index = new ListingIndex(data.readInt());
+		index.size = data.readInt();
+		index.offsets = new long[Math.max(index.size, 1)];
+		index.results = new String[Math.max(index.size, 1)];
+		for (int i = 0; i < index.size; i++) {
+			index.offsets[i] = data.readLong();
+			index.results[i] = data.readBoolean() ? data.readUTF() : null;
+		}
+
+		read(data, index.postings);
+		read(data, index.titlePostings);
+
+		return index;
+
+	}
+
+	/**
+	 * Reads posting lists previously written using
+	 * {@link #write(DataOutputStream, Map)}.
+	 * @param data The <code>DataInputStream</code> to read from.
+	 * @param postings The <code>Map</code> to add the posting lists to.
+	 * @throws IOException If an error occurs while reading from
+	 * 		<code>data</code>.
+	 */
+	private static void read(DataInputStream data, Map<String, List<Integer>> postings) throws IOException {
+		int keys = data.readInt();
+		for (int k = 0; k < keys; k++) {
+			String key = data.readUTF();
+			int n = data.readInt();
+			List<Integer> list = new ArrayList<Integer>(n);
+			for (int j = 0; j < n; j++) {
+				list.add(data.readInt());
+			}
+			postings.put(key, list);
+		}
+	}
+
+}
@@ -0,0 +1,45 @@
+/**
+ * 
+ */
+package ca.eandb.sortable;
+
+import java.util.Set;
+
+/**
+ * Represents an object capable of matching the fields of a listing against a
+ * collection of <code>Product</code>s.  A listing is matched in two steps:
+ * first its manufacturer field is used to find the candidate products, and
+ * then its title is matched against the candidates.  Implementations must be
+ * safe for use by multiple threads (unless otherwise noted).
+ * @author Brad Kimmel
+ */
+public interface MatchEngine {
+
+	/**
+	 * Finds the <code>Product</code>s whose manufacturer matches the
+	 * manufacturer field of a listing.
+	 * @param manufacturer The manufacturer field of the listing.
+	 * @return A <code>Set</code> containing the matching
+	 * 		<code>Product</code>s, or <code>null</code> if there are none.
+	 */
+	Set<ProductMatch> matchManufacturer(CharSequence manufacturer);
+
+	/**
+	 * Matches the title of a listing with at most one <code>Product</code>.
+	 * @param title The title of the listing.
+	 * @param manufacturerProducts The <code>Set</code> of candidate
+	 * 		<code>Product</code>s, as returned by
+	 * 		{@link #matchManufacturer(CharSequence)}.
+	 * @return The matching <code>Product</code>, or <code>null</code> if the
+	 * 		title does not match exactly one of the candidates.
+	 */
+	Product matchModel(CharSequence title, Set<ProductMatch> manufacturerProducts);
+
+	/**
+	 * Gets the number of times the work budget for matching a listing has
+	 * been exhausted.
+	 * @return The number of times the work budget has been exhausted.
+	 */
+	long getBudgetExceededCount();
+
+}
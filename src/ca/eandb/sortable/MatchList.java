@@ -0,0 +1,136 @@
+/**
+ * 
+ */
+package ca.eandb.sortable;
+
+import java.util.Arrays;
+
+/**
+ * The product matches associated with a node of a trie built by a
+ * {@link ProductTrieBuilder}.  The matches are encoded as described in
+ * {@link ProductMatch#encode(int, boolean)}, hold at most one match for each
+ * product, and are sorted by product identifier.  In addition to the full
+ * list, the sublist of maximal matches and whether the node matches exactly
+ * one product are computed once, when the list is created, so that they need
+ * not be recomputed each time the node is matched.  The list also records
+ * whether any descendant of the node has matches of its own, in which case a
+ * longer match may supersede this one.
+ *
+ * @author Brad Kimmel
+ */
+public final class MatchList {
+
+	/** The encoded matches, sorted by product identifier. */
+	private final int[] matches;
+
+	/**
+	 * The maximal matches, sorted by product identifier.  This is the same
+	 * array as {@link #matches} if all of the matches are maximal.
+	 */
+	private final int[] maximalMatches;
+
+	/** A value indicating whether there is exactly one match. */
+	private final boolean singleton;
+
+	/**
+	 * A value indicating whether a descendant of the node also has matches.
+	 */
+	private final boolean extensible;
+
+	/**
+	 * Creates a new <code>MatchList</code>.
+	 * @param matches The encoded matches, in any order.  If there are several
+	 * 		matches for the same product, only the first is kept.
+	 * @param extensible A value indicating whether a descendant of the node
+	 * 		also has matches.
+	 */
+	public MatchList(int[] matches, boolean extensible) {
+		/* Sort by product identifier, then by position in the original
+		 * array, so that the first match for each product comes first.
+		 */
+		long[] keys = new long[matches.length];
+		for (int i = 0; i < matches.length; i++) {
+			keys[i] = ((long) ProductMatch.getProductId(matches[i]) << 32) | i;
+		}
+		Arrays.sort(keys);
+
+		int[] sorted = new int[keys.length];
+		int n = 0;
+		for (int i = 0; i < keys.length; i++) {
+			if (i == 0 || (keys[i] >>> 32) != (keys[i - 1] >>> 32)) {
+				sorted[n++] = matches[(int) keys[i]];
+			}
+		}
+		if (n < sorted.length) {
+			sorted = Arrays.copyOf(sorted, n);
+		}
+
+		int maximal = 0;
+		for (int match : sorted) {
+			if (ProductMatch.isMaximal(match)) {
+				maximal++;
+			}
+		}
+
+		this.matches = sorted;
+		if (maximal == sorted.length) {
+			this.maximalMatches = sorted;
+		} else {
+			this.maximalMatches = new int[maximal];
+			int m = 0;
+			for (int match : sorted) {
+				if (ProductMatch.isMaximal(match)) {
+					this.maximalMatches[m++] = match;
+				}
+			}
+		}
+		this.singleton = (sorted.length == 1);
+		this.extensible = extensible;
+	}
+
+	/**
+	 * Gets the encoded matches.  The returned array must not be modified.
+	 * @return The encoded matches, sorted by product identifier.
+	 */
+	public int[] getMatches() {
+		return matches;
+	}
+
+	/**
+	 * Gets the encoded maximal matches.  The returned array must not be
+	 * modified.
+	 * @return The encoded maximal matches, sorted by product identifier.
+	 * @see ProductMatch#isMaximal()
+	 */
+	public int[] getMaximalMatches() {
+		return maximalMatches;
+	}
+
+	/**
+	 * Gets the number of matches.
+	 * @return The number of matches.
+	 */
+	public int size() {
+		return matches.length;
+	}
+
+	/**
+	 * Gets a value indicating whether there is exactly one match.
+	 * @return A value indicating whether there is exactly one match.
+	 */
+	public boolean isSingleton() {
+		return singleton;
+	}
+
+	/**
+	 * Gets a value indicating whether a descendant of the node also has
+	 * matches.  If not, a match on this node cannot be superseded by a longer
+	 * match (see {@link TrieMatchEngine}).
+	 * @return A value indicating whether a descendant of the node also has
+	 * 		matches.
+	 */
+	public boolean isExtensible() {
+		return extensible;
+	}
+
+}
@@ -0,0 +1,250 @@
+/**
+ * 
+ */
+package ca.eandb.sortable;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+
+/**
+ * An object that reads a match log written by a {@link MatchLogWriter}.  The
+ * log is read into memory in its entirety, since the product table follows
+ * the listing records.  The records are then visited in order, as follows:
+ *
+ * <pre>
+ *   MatchLogReader log = new MatchLogReader(in);
+ *   while (log.next()) {
+ *     long offset = log.getOffset();
+ *     int outcome = log.getOutcome();
+ *     String product = log.getProductName(); // null unless matched
+ *     ...
+ *   }
+ * </pre>
+ *
+ * This class is not thread-safe.
+ *
+ * @author Brad Kimmel
+ */
+public final class MatchLogReader {
+
+	/** The contents of the log. */
+	private final byte[] buffer;
+
+	/** The position of the next unread record. */
+	private int pos;
+
+	/** The names of the products, indexed by identifier. */
+	private final String[] productNames;
+
+	/** The byte offset of the current listing. */
+	private long offset = 0;
+
+	/** The outcome code of the current listing. */
+	private int outcome = -1;
+
+	/** The identifier of the product matched by the current listing. */
+	private int productId = -1;
+
+	/**
+	 * Creates a new <code>MatchLogReader</code>.
+	 * @param in The <code>InputStream</code> to read the log from.  The
+	 * 		stream is read to the end, but is not closed.
+	 * @throws IOException If an error occurs while reading from
+	 * 		<code>in</code>, or if it does not contain a valid match log.
+	 */
+	public MatchLogReader(InputStream in) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] chunk = new byte[65536];
+		int count;
+		while ((count = in.read(chunk)) >= 0) {
+			bytes.write(chunk, 0, count);
+		}
+		this.buffer = bytes.toByteArray();
+
+		if (readInt() != MatchLogWriter.MAGIC) {
+			throw new IOException("Not a match log.");
+		}
+		int version = readInt();
+		if (version != MatchLogWriter.VERSION) {
+			throw new IOException("Unsupported match log version: " + version);
+		}
+		int start = pos;
+
+		/* Skip over the listing records to find the product table. */
+		while ((readVarLong() & 0x3) != MatchLogWriter.END) {
+			readVarLong();
+		}
+
+		productNames = new String[(int) readVarLong()];
+		for (int i = 0; i < productNames.length; i++) {
+			int length = (int) readVarLong();
+			if (pos + length > buffer.length) {
+				throw new EOFException("Truncated match log.");
+			}
+			productNames[i] = new String(buffer, pos, length, BinaryProductWriter.UTF8);
+			pos += length;
+		}
+
+		pos = start;
+	}
+
+	/**
+	 * Advances to the next listing record.
+	 * @return A value indicating whether there was another record.
+	 * @throws IOException If the log is corrupt.
+	 */
+	public boolean next() throws IOException {
+		if (outcome == MatchLogWriter.END) {
+			return false;
+		}
+		long value = readVarLong();
+		outcome = (int) (value & 0x3);
+		if (outcome == MatchLogWriter.END) {
+			productId = -1;
+			return false;
+		}
+		productId = outcome == MatchLogWriter.MATCHED ? (int) (value >>> 2) : -1;
+		offset += readVarLong();
+		return true;
+	}
+
+	/**
+	 * Gets the byte offset of the current listing within the listings file.
+	 * @return The byte offset of the current listing.
+	 */
+	public long getOffset() {
+		return offset;
+	}
+
+	/**
+	 * Gets the outcome of matching the current listing.
+	 * @return The outcome code ({@link MatchLogWriter#MATCHED},
+	 * 		{@link MatchLogWriter#NO_MANUFACTURER}, or
+	 * 		{@link MatchLogWriter#NO_MODEL}).
+	 */
+	public int getOutcome() {
+		return outcome;
+	}
+
+	/**
+	 * Gets the identifier, within this log, of the product matched by the
+	 * current listing.
+	 * @return The product identifier, or <code>-1</code> if the listing did
+	 * 		not match a product.
+	 * @see #getProductName(int)
+	 */
+	public int getProductId() {
+		return productId;
+	}
+
+	/**
+	 * Gets the name of the product matched by the current listing.
+	 * @return The product name, or <code>null</code> if the listing did not
+	 * 		match a product.
+	 */
+	public String getProductName() {
+		return productId >= 0 ? productNames[productId] : null;
+	}
+
+	/**
+	 * Gets the name of a product in the product table.
+	 * @param id The identifier of the product within this log.
+	 * @return The product name.
+	 */
+	public String getProductName(int id) {
+		return productNames[id];
+	}
+
+	/**
+	 * Gets the number of products in the product table.
+	 * @return The number of products in the product table.
+	 */
+	public int getProductCount() {
+		return productNames.length;
+	}
+
+	/**
+	 * Reads a big-endian 32-bit integer.
+	 * @return The integer that was read.
+	 * @throws IOException If the log is truncated.
+	 */
+	private int readInt() throws IOException {
+		if (pos + 4 > buffer.length) {
+			throw new EOFException("Truncated match log.");
+		}
+		int value = ((buffer[pos] & 0xFF) << 24) | ((buffer[pos + 1] & 0xFF) << 16)
+				| ((buffer[pos + 2] & 0xFF) << 8) | (buffer[pos + 3] & 0xFF);
+		pos += 4;
+		return value;
+	}
+
+	/**
+	 * Reads a variable-length quantity (see {@link MatchLogWriter}).
+	 * @return The value that was read.
+	 * @throws IOException If the log is truncated.
+	 */
+	private long readVarLong() throws IOException {
+		long value = 0;
+		for (int shift = 0; ; shift += 7) {
+			if (pos >= buffer.length) {
+				throw new EOFException("Truncated match log.");
+			}
+			int b = buffer[pos++];
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+	}
+
+	/**
+	 * Usage: ca.eandb.sortable.MatchLogReader <log_file>
+	 * Prints the contents of a match log, one listing per line, as
+	 * tab-separated values: the byte offset of the listing, the outcome
+	 * ("matched", "no_manufacturer", or "no_model"), and the name of the
+	 * matching product (if any).
+	 *
+	 * @param args The program arguments as specified above.
+	 */
+	public static void main(String[] args) {
+
+		if (args.length != 1) {
+			System.out.printf("Usage: %s <log_file>", MatchLogReader.class.getName());
+			System.out.println();
+			System.out.println("Prints the contents of a match log as tab-separated values.");
+			System.exit(1);
+		}
+
+		try {
+
+			InputStream in = new BufferedInputStream(new FileInputStream(args[0]));
+			MatchLogReader log = new MatchLogReader(in);
+			in.close();
+
+			String[] outcomes = { "matched", "no_manufacturer", "no_model" };
+			PrintStream out = System.out;
+			while (log.next()) {
+				String product = log.getProductName();
+				out.print(log.getOffset());
+				out.print('\t');
+				out.print(outcomes[log.getOutcome()]);
+				out.print('\t');
+				out.println(product != null ? product : "");
+			}
+			out.flush();
+
+		} catch (Exception e) {
+
+			// For now just print the error if one occurs.
+			e.printStackTrace();
+
+		}
+
+	}
+
+}
@@ -0,0 +1,158 @@
+/**
+ * 
+ */
+package ca.eandb.sortable;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the results of matching listings as a compact binary log, which may
+ * be read back using a {@link MatchLogReader}.  Rather than repeating the
+ * listings, the log records for each listing only its byte offset within the
+ * listings file, the outcome of matching it, and the identifier of the
+ * matching product, so that the results may be joined against the original
+ * listings file.  The format consists of:
+ *
+ *   - a header (magic number and version),
+ *   - one record per listing, in the order the listings were read, each
+ *     consisting of two variable-length quantities: the product identifier
+ *     shifted left by two bits, combined with the outcome code in the low two
+ *     bits (the identifier is zero unless the outcome is {@link #MATCHED}),
+ *     followed by the difference between the offset of the listing and that
+ *     of the previous listing (or zero, for the first listing),
+ *   - an end marker (a record with outcome code three), and
+ *   - the product table: the number of products, followed by the name of the
+ *     product with each identifier in turn (as a byte count and the UTF-8
+ *     encoded bytes).
+ *
+ * Product identifiers are assigned in the order in which the products are
+ * first matched.
+ *
+ * @author Brad Kimmel
+ */
+public final class MatchLogWriter {
+
+	/** The outcome code for a listing that matched exactly one product. */
+	public static final int MATCHED = 0;
+
+	/**
+	 * The outcome code for a listing whose manufacturer did not match any
+	 * product.
+	 */
+	public static final int NO_MANUFACTURER = 1;
+
+	/**
+	 * The outcome code for a listing whose manufacturer matched, but whose
+	 * title did not match exactly one of that manufacturer's products.
+	 */
+	public static final int NO_MODEL = 2;
+
+	/** The outcome code marking the end of the listing records. */
+	static final int END = 3;
+
+	/** The magic number identifying a match log. */
+	static final int MAGIC = 0x534C4F47; // "SLOG"
+
+	/** The version of the file format. */
+	static final int VERSION = 1;
+
+	/** The <code>DataOutputStream</code> to write to. */
+	private final DataOutputStream out;
+
+	/** The identifier assigned to each product, by name. */
+	private final Map<String, Integer> productIds = new HashMap<String, Integer>();
+
+	/** The names of the products, indexed by identifier. */
+	private final List<String> productNames = new ArrayList<String>();
+
+	/** The byte offset of the previous listing. */
+	private long previousOffset = 0;
+
+	/** The total number of listings. */
+	private int numListings = 0;
+
+	/** The number of listings with a unique product match. */
+	private int numMatches = 0;
+
+	/**
+	 * Creates a new <code>MatchLogWriter</code> and writes the header.
+	 * @param out The <code>OutputStream</code> to write to.
+	 * @throws IOException If an error occurs while writing the header.
+	 */
+	public MatchLogWriter(OutputStream out) throws IOException {
+		this.out = new DataOutputStream(out);
+		this.out.writeInt(MAGIC);
+		this.out.writeInt(VERSION);
+	}
+
+	/**
+	 * Records the result of matching a listing.  Listings must be written in
+	 * the order in which they appear in the listings file.
+	 * @param offset The byte offset of the listing within the listings file.
+	 * @param outcome The outcome code ({@link #MATCHED},
+	 * 		{@link #NO_MANUFACTURER}, or {@link #NO_MODEL}).
+	 * @param product The matching <code>Product</code>, or <code>null</code>
+	 * 		if the outcome is not {@link #MATCHED}.
+	 * @throws IOException If an error occurs while writing the record.
+	 */
+	public void write(long offset, int outcome, Product product) throws IOException {
+		int id = 0;
+		if (outcome == MATCHED) {
+			Integer value = productIds.get(product.getName());
+			if (value == null) {
+				value = productNames.size();
+				productIds.put(product.getName(), value);
+				productNames.add(product.getName());
+			}
+			id = value;
+			numMatches++;
+		}
+
+		writeVarLong(((long) id << 2) | outcome);
+		writeVarLong(offset - previousOffset);
+		previousOffset = offset;
+		numListings++;
+	}
+
+	/**
+	 * Writes the end marker and the product table, flushes the output, and
+	 * prints a summary to <code>System.err</code>.
+	 * @throws IOException If an error occurs while writing.
+	 */
+	public void close() throws IOException {
+		writeVarLong(END);
+		writeVarLong(productNames.size());
+		for (String name : productNames) {
+			byte[] bytes = name.getBytes(BinaryProductWriter.UTF8);
+			writeVarLong(bytes.length);
+			out.write(bytes);
+		}
+		out.flush();
+
+		double pctMatch = 100.0 * (double) numMatches / (double) numListings;
+		System.err.printf("Matched %d of %d listings (%4.1f%%).", numMatches, numListings, pctMatch);
+		System.err.println();
+	}
+
+	/**
+	 * Writes a non-negative value as a variable-length quantity (seven bits
+	 * per byte, least significant group first, with the high bit set on all
+	 * but the last byte).
+	 * @param value The value to write.
+	 * @throws IOException If an error occurs while writing.
+	 */
+	private void writeVarLong(long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+}
@@ -0,0 +1,242 @@
+/**
+ * 
+ */
+package ca.eandb.sortable;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An immutable <code>Set</code> of <code>ProductMatch</code>es backed by an
+ * array of encoded matches sorted by product identifier (see
+ * {@link ProductMatch#encode(int, boolean)}), as returned by the
+ * <code>MatchEngine</code>s in this package.  Passing such a set back to
+ * {@link MatchEngine#matchModel(CharSequence, Set)} avoids converting it to
+ * an array again.  This class also provides the operations on sorted arrays
+ * of encoded matches used by the engines.
+ *
+ * @author Brad Kimmel
+ */
+final class MatchSet extends AbstractSet<ProductMatch> {
+
+	/** An empty array of encoded matches. */
+	static final int[] EMPTY = new int[0];
+
+	/** The encoded matches, sorted by product identifier. */
+	private final int[] list;
+
+	/**
+	 * The number of steps of the step budget taken to find these matches,
+	 * which are carried over into matching the rest of the listing.
+	 */
+	private final int steps;
+
+	/**
+	 * Creates a new <code>MatchSet</code>.
+	 * @param list The encoded matches, sorted by product identifier.  The
+	 * 		array must not be modified after the set is created.
+	 * @param steps The number of steps of the step budget taken to find the
+	 * 		matches.
+	 */
+	public MatchSet(int[] list, int steps) {
+		this.list = list;
+		this.steps = steps;
+	}
+
+	/**
+	 * Gets the number of steps of the step budget taken to find the matches
+	 * in a <code>Set</code> of <code>ProductMatch</code>es.
+	 * @param set The <code>Set</code> of <code>ProductMatch</code>es.
+	 * @return The number of steps taken, or zero if <code>set</code> is not
+	 * 		a <code>MatchSet</code>.
+	 */
+	public static int getSteps(Set<ProductMatch> set) {
+		return set instanceof MatchSet ? ((MatchSet) set).steps : 0;
+	}
+
+	/**
+	 * Gets the encoded matches in a <code>Set</code> of
+	 * <code>ProductMatch</code>es.
+	 * @param set The <code>Set</code> of <code>ProductMatch</code>es.
+	 * @return The encoded matches, sorted by product identifier.  The
+	 * 		returned array must not be modified.
+	 */
+	public static int[] toList(Set<ProductMatch> set) {
+		if (set instanceof MatchSet) {
+			return ((MatchSet) set).list;
+		}
+		int[] list = new int[set.size()];
+		int n = 0;
+		for (ProductMatch match : set) {
+			list[n++] = match.getEncoded();
+		}
+		Arrays.sort(list);
+		return list;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.AbstractCollection#iterator()
+	 */
+	@Override
+	public Iterator<ProductMatch> iterator() {
+		return new Iterator<ProductMatch>() {
+			private int next = 0;
+			public boolean hasNext() {
+				return next < list.length;
+			}
+			public ProductMatch next() {
+				if (next >= list.length) {
+					throw new NoSuchElementException();
+				}
+				return new ProductMatch(list[next++]);
+			}
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.AbstractCollection#contains(java.lang.Object)
+	 */
+	@Override
+	public boolean contains(Object o) {
+		if (!(o instanceof ProductMatch)) {
+			return false;
+		}
+		return contains(list, ((ProductMatch) o).getProductId());
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.AbstractCollection#size()
+	 */
+	@Override
+	public int size() {
+		return list.length;
+	}
+
+	/**
+	 * Determines if a sorted array of encoded matches contains a match for
+	 * the specified product.
+	 * @param list The array to search.
+	 * @param id The product identifier to search for.
+	 * @return A value indicating whether <code>list</code> contains a match
+	 * 		for the product.
+	 */
+	public static boolean contains(int[] list, int id) {
+		int i = gallop(list, 0, id);
+		return i < list.length && ProductMatch.getProductId(list[i]) == id;
+	}
+
+	/**
+	 * Gets the matches associated with a trie node that remain after
+	 * applying a filter.
+	 * @param matches The <code>MatchList</code> associated with the node.
+	 * @param filter A sorted array of encoded matches whose products are to
+	 * 		be retained, or <code>null</code> to retain all products.
+	 * @return The entries of <code>matches</code> whose products appear in
+	 * 		<code>filter</code>.  If all of them do, the array returned by
+	 * 		{@link MatchList#getMatches()} is returned.
+	 */
+	public static int[] filter(MatchList matches, int[] filter) {
+		int[] list = matches.getMatches();
+		if (filter == null) {
+			return list;
+		} else if (matches.isSingleton()) {
+			return contains(filter, ProductMatch.getProductId(list[0])) ? list : EMPTY;
+		} else {
+			return intersect(list, filter);
+		}
+	}
+
+	/**
+	 * Intersects two sorted arrays of encoded matches.
+	 * @param a The first array.
+	 * @param b The second array.
+	 * @return The entries of <code>a</code> whose products also appear in
+	 * 		<code>b</code>.  If all of them do, <code>a</code> itself is
+	 * 		returned.
+	 */
+	public static int[] intersect(int[] a, int[] b) {
+		int[] result = new int[Math.min(a.length, b.length)];
+		int n = 0;
+		int i = 0, j = 0;
+		while (i < a.length && j < b.length) {
+			int x = ProductMatch.getProductId(a[i]);
+			int y = ProductMatch.getProductId(b[j]);
+			if (x == y) {
+				result[n++] = a[i++];
+				j++;
+			} else if (x < y) {
+				i = gallop(a, i + 1, y);
+			} else {
+				j = gallop(b, j + 1, x);
+			}
+		}
+		return n == a.length ? a : Arrays.copyOf(result, n);
+	}
+
+	/**
+	 * Finds the first entry of a sorted array of encoded matches, at or after
+	 * the specified position, for a product whose identifier is at least the
+	 * specified value.  The search probes positions at exponentially
+	 * increasing distances before falling back to binary search, so that
+	 * intersecting a short array with a long one takes time proportional to
+	 * the length of the short array times the logarithm of the long one.
+	 * @param list The array to search.
+	 * @param from The position at which to start searching.
+	 * @param id The product identifier to search for.
+	 * @return The position of the first such entry, or the length of the
+	 * 		array if there is none.
+	 */
+	public static int gallop(int[] list, int from, int id) {
+		int lo = from;
+		int hi = from;
+		int step = 1;
+		while (hi < list.length && ProductMatch.getProductId(list[hi]) < id) {
+			lo = hi + 1;
+			hi += step;
+			step <<= 1;
+		}
+		hi = Math.min(hi, list.length);
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (ProductMatch.getProductId(list[mid]) < id) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * Removes the matches that are not maximal from a sorted array of encoded
+	 * matches.
+	 * @param list The array of encoded matches.
+	 * @param source The <code>MatchList</code> from which the entries of
+	 * 		<code>list</code> were taken.  If <code>list</code> is the array
+	 * 		returned by its {@link MatchList#getMatches()} method, its
+	 * 		precomputed maximal matches are returned.
+	 * @return The maximal matches in <code>list</code>.
+	 * @see ProductMatch#isMaximal()
+	 */
+	public static int[] maximal(int[] list, MatchList source) {
+		if (source != null && list == source.getMatches()) {
+			return source.getMaximalMatches();
+		}
+
+		int n = 0;
+		int[] maximal = new int[list.length];
+		for (int match : list) {
+			if (ProductMatch.isMaximal(match)) {
+				maximal[n++] = match;
+			}
+		}
+		return Arrays.copyOf(maximal, n);
+	}
+
+}
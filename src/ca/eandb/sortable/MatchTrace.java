@@ -0,0 +1,147 @@
+/**
+ * 
+ */
+package ca.eandb.sortable;
+
+/**
+ * The trace of the matching of a single listing, built up by a
+ * {@link TrieMatchEngine} and recorded by a {@link MatchTracer}.
+ *
+ * @author Brad Kimmel
+ */
+final class MatchTrace {
+
+	/** The maximum number of products to list for each set of candidates. */
+	private static final int MAX_LISTED = 8;
+
+	/** The <code>ProductStore</code> holding the products. */
+	private final ProductStore products;
+
+	/** The text of the trace. */
+	private final StringBuilder text = new StringBuilder();
+
+	/**
+	 * Creates a new <code>MatchTrace</code>.
+	 * @param products The <code>ProductStore</code> holding the products.
+	 * @param title The title of the listing.
+	 * @param candidates The encoded matches for the products whose
+	 * 		manufacturer matches that of the listing.
+	 */
+	public MatchTrace(ProductStore products, CharSequence title, int[] candidates) {
+		this.products = products;
+		text.append("title: ").append(title).append('\n');
+		text.append("manufacturer candidates: ");
+		appendProducts(candidates);
+		text.append('\n');
+	}
+
+	/**
+	 * Records the tokens of the normalized title.
+	 * @param words The tokens.
+	 */
+	public void tokens(String[] words) {
+		text.append("tokens:");
+		for (String word : words) {
+			text.append(" [").append(word).append(']');
+		}
+		text.append('\n');
+	}
+
+	/**
+	 * Records that a trie node fired.
+	 * @param word The token at which the node was reached.
+	 * @param node The <code>TrieNode</code>.
+	 * @param matches The encoded matches for the node, after filtering by
+	 * 		manufacturer.
+	 */
+	public void fired(String word, TrieNode node, int[] matches) {
+		text.append("  at [").append(word).append("] node \"").append(label(node)).append("\": ");
+		appendProducts(matches);
+		text.append('\n');
+	}
+
+	/**
+	 * Records that the matches for a node were discarded because a
+	 * descendant also matched.
+	 * @param node The <code>TrieNode</code> whose matches were discarded.
+	 */
+	public void superseded(TrieNode node) {
+		text.append("    superseded node \"").append(label(node)).append("\"\n");
+	}
+
+	/**
+	 * Records a note about how the matching proceeded.
+	 * @param note The note.
+	 */
+	public void note(String note) {
+		text.append(note).append('\n');
+	}
+
+	/**
+	 * Records the rule used to resolve the candidates, and the result.
+	 * @param rule A description of the rule.
+	 * @param results The encoded matches remaining, or <code>null</code> if
+	 * 		there are none.
+	 */
+	public void finish(String rule, int[] results) {
+		text.append("rule: ").append(rule).append('\n');
+		text.append("result: ");
+		if (results != null && results.length == 1) {
+			text.append(products.getName(ProductMatch.getProductId(results[0])));
+		} else {
+			text.append("no match (");
+			appendProducts(results != null ? results : MatchSet.EMPTY);
+			text.append(')');
+		}
+		text.append('\n');
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return text.toString();
+	}
+
+	/**
+	 * Appends a list of products to the trace.  Products for which the match
+	 * is not maximal (see {@link ProductMatch#isMaximal(int)}) are marked
+	 * with an asterisk.
+	 * @param matches The encoded matches for the products.
+	 */
+	private void appendProducts(int[] matches) {
+		text.append(matches.length).append(matches.length == 1 ? " product" : " products");
+		for (int i = 0; i < matches.length && i < MAX_LISTED; i++) {
+			text.append(i == 0 ? ": " : ", ");
+			text.append(products.getName(ProductMatch.getProductId(matches[i])));
+			if (!ProductMatch.isMaximal(matches[i])) {
+				text.append('*');
+			}
+		}
+		if (matches.length > MAX_LISTED) {
+			text.append(", ...");
+		}
+	}
+
+	/**
+	 * Gets the string represented by a trie node, by finding the edge from
+	 * each ancestor to the next.
+	 * @param node The <code>TrieNode</code>.
+	 * @return The string represented by <code>node</code>.
+	 */
+	private static String label(TrieNode node) {
+		StringBuilder label = new StringBuilder();
+		for (TrieNode child = node, parent = node.getParent(); parent != null; child = parent, parent = parent.getParent()) {
+			for (int i = 0; i < LevenshteinTrieSearch.ALPHABET.length(); i++) {
+				char c = LevenshteinTrieSearch.ALPHABET.charAt(i);
+				if (parent.findChild(c) == child) {
+					label.append(c);
+					break;
+				}
+			}
+		}
+		return label.reverse().toString();
+	}
+
+}
@@ -0,0 +1,119 @@
+/**
+ * 
+ */
+package ca.eandb.sortable;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Records how a sample of listings were matched, to help explain why a
+ * listing matched the wrong product or failed to match.  For each sampled
+ * listing, a {@link TrieMatchEngine} records the tokens of the title, each
+ * trie node that fired and the candidate products it contributed, the
+ * matches discarded in favour of longer ones, the rule used to resolve the
+ * candidates, and the result.  A listing is sampled if its title matches a
+ * regular expression, or if it is one of every <code>n</code> listings.
+ *
+ * The traces are kept in a ring buffer holding only the most recent ones, so
+ * that tracing may be left on indefinitely in a long run without the log
+ * growing without bound.  The buffer is written out by
+ * {@link #write(Writer)}.
+ *
+ * When a <code>TrieMatchEngine</code> has no tracer, it does no tracing work
+ * at all beyond checking for one.
+ *
+ * @author Brad Kimmel
+ */
+public final class MatchTracer {
+
+	/** Trace one in this many listings, or zero to sample none this way. */
+	private final int sampleRate;
+
+	/**
+	 * The <code>Pattern</code> matching the titles of listings to trace, or
+	 * <code>null</code> if none.
+	 */
+	private final Pattern filter;
+
+	/** The number of listings considered for sampling. */
+	private final AtomicLong count = new AtomicLong();
+
+	/** The ring buffer of traces. */
+	private final String[] traces;
+
+	/** The total number of traces recorded. */
+	private long recorded = 0;
+
+	/**
+	 * Creates a new <code>MatchTracer</code>.
+	 * @param sampleRate Trace one in this many listings, or zero to sample
+	 * 		none this way.
+	 * @param filter The <code>Pattern</code> matching the titles of listings
+	 * 		to trace (anywhere within the title), or <code>null</code> if
+	 * 		none.
+	 * @param capacity The maximum number of traces to keep (at least one).
+	 * @throws IllegalArgumentException If <code>sampleRate</code> is negative
+	 * 		or <code>capacity</code> is less than one.
+	 */
+	public MatchTracer(int sampleRate, Pattern filter, int capacity) {
+		if (sampleRate < 0) {
+			throw new IllegalArgumentException("sampleRate must be non-negative.");
+		}
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be positive.");
+		}
+		this.sampleRate = sampleRate;
+		this.filter = filter;
+		this.traces = new String[capacity];
+	}
+
+	/**
+	 * Determines whether to trace the matching of a listing.
+	 * @param title The title of the listing.
+	 * @return A value indicating whether to trace the listing.
+	 */
+	boolean sample(CharSequence title) {
+		if (filter != null && filter.matcher(title).find()) {
+			return true;
+		}
+		return sampleRate > 0 && count.incrementAndGet() % sampleRate == 0;
+	}
+
+	/**
+	 * Adds a trace to the ring buffer, discarding the oldest trace if the
+	 * buffer is full.
+	 * @param trace The trace to add.
+	 */
+	synchronized void record(String trace) {
+		traces[(int) (recorded++ % traces.length)] = trace;
+	}
+
+	/**
+	 * Gets the total number of traces recorded, including those that have
+	 * since been discarded.
+	 * @return The total number of traces recorded.
+	 */
+	public synchronized long getRecordedCount() {
+		return recorded;
+	}
+
+	/**
+	 * Writes the traces in the ring buffer, from oldest to newest, separated
+	 * by blank lines.
+	 * @param out The <code>Writer</code> to write to.
+	 * @throws IOException If an error occurs while writing to
+	 * 		<code>out</code>.
+	 */
+	public synchronized void write(Writer out) throws IOException {
+		long first = Math.max(0, recorded - traces.length);
+		for (long i = first; i < recorded; i++) {
+			out.write(traces[(int) (i % traces.length)]);
+			out.write('\n');
+		}
+		out.flush();
+	}
+
+}
@@ -0,0 +1,382 @@
+/**
+ * 
+ */
+package ca.eandb.sortable;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+/**
+ * A buffer holding the normalized form of a string (see
+ * {@link StringUtil#normalize(CharSequence)}), along with the positions of
+ * the breaks between its words.  Since a normalized string consists only of
+ * lower-case ASCII letters, digits, and spaces, it is stored as bytes, and
+ * its words may be followed down a trie directly (see
+ * {@link TrieNode#findDescendant(byte[], int, int)}).
+ *
+ * Nearly all text is ASCII, so the text to be normalized is processed as
+ * UTF-8 eight bytes at a time, lower-casing and classifying each byte of a
+ * word in parallel using bit manipulation.  Only runs of non-ASCII characters
+ * are decomposed and have their accents removed.  Text that is already
+ * encoded as UTF-8 (e.g., a field of a listing read as bytes) may be
+ * normalized without ever being decoded to a <code>String</code>.
+ *
+ * A <code>NormalizedText</code> may be reused for any number of strings, so
+ * that normalizing a string need not allocate any objects.  This class is not
+ * thread-safe.
+ *
+ * @author Brad Kimmel
+ */
+public final class NormalizedText implements CharSequence {
+
+	/** The class of a character that is neither a letter nor a digit. */
+	private static final int SEPARATOR = 0;
+
+	/** The class of a (lower-case, unaccented) letter. */
+	private static final int LETTER = 1;
+
+	/** The class of a digit. */
+	private static final int DIGIT = 2;
+
+	/** The class used before the first character has been processed. */
+	private static final int START = 3;
+
+	/** Reads and writes eight bytes at a time in a byte array. */
+	private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(
+			long[].class, ByteOrder.LITTLE_ENDIAN);
+
+	/** A word with the value one in each byte. */
+	private static final long ONES = 0x0101010101010101L;
+
+	/** A word with the high bit set in each byte. */
+	private static final long HIGH = 0x8080808080808080L;
+
+	/** The <code>Pattern</code> matching accents, once decomposed. */
+	private static final Pattern ACCENTS = Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
+
+	/** The normalized characters, all of which are ASCII. */
+	private byte[] out = new byte[64];
+
+	/** The number of normalized characters. */
+	private int length = 0;
+
+	/** The class of the last character processed. */
+	private int last = START;
+
+	/** The positions of the word breaks. */
+	private int[] breaks = new int[16];
+
+	/** The number of word breaks. */
+	private int numBreaks = 0;
+
+	/**
+	 * Creates a new, empty <code>NormalizedText</code>.
+	 */
+	public NormalizedText() {
+		/* nothing to do. */
+	}
+
+	/**
+	 * Creates a new <code>NormalizedText</code>.
+	 * @param in The <code>CharSequence</code> to normalize.
+	 */
+	public NormalizedText(CharSequence in) {
+		set(in);
+	}
+
+	/**
+	 * Replaces the contents of this buffer with the normalized form of a
+	 * string.
+	 * @param in The <code>CharSequence</code> to normalize.
+	 * @return This <code>NormalizedText</code>.
+	 */
+	public NormalizedText set(CharSequence in) {
+		byte[] b = in.toString().getBytes(StandardCharsets.UTF_8);
+		return set(b, 0, b.length);
+	}
+
+	/**
+	 * Replaces the contents of this buffer with the normalized form of a
+	 * UTF-8 encoded string.
+	 * @param b The array containing the UTF-8 encoded string.
+	 * @param from The index of the first byte of the string.
+	 * @param to The index following the last byte of the string.
+	 * @return This <code>NormalizedText</code>.
+	 */
+	public NormalizedText set(byte[] b, int from, int to) {
+		length = 0;
+		last = START;
+		numBreaks = 0;
+		ensureCapacity(2 * (to - from) + 1);
+
+		int i = from;
+		while (i + 8 <= to) {
+			long w = (long) LONGS.get(b, i);
+			if ((w & HIGH) != 0) {
+				i = scan(b, i, i + 8, to);
+				continue;
+			}
+
+			/* Each byte is now known to be less than 0x80, so adding a
+			 * constant less than 0x80 to each byte cannot carry into the next
+			 * one.  The high bit of the sum tells whether the byte is at
+			 * least 0x80 minus that constant.
+			 */
+			long upper = (w + (0x80 - 'A') * ONES) & ~(w + (0x80 - 'Z' - 1) * ONES) & HIGH;
+			w |= upper >>> 2;	// 0x20 is the difference between cases
+			long letters = (w + (0x80 - 'a') * ONES) & ~(w + (0x80 - 'z' - 1) * ONES) & HIGH;
+			long digits = (w + (0x80 - '0') * ONES) & ~(w + (0x80 - '9' - 1) * ONES) & HIGH;
+
+			append(w, letters, digits);
+			i += 8;
+		}
+		scan(b, i, to, to);
+
+		return this;
+	}
+
+	/**
+	 * Normalizes part of a UTF-8 encoded string one character at a time.
+	 * @param b The array containing the UTF-8 encoded string.
+	 * @param from The index of the first byte to process.
+	 * @param to The index of the byte at which to stop.  If it falls within
+	 * 		a run of non-ASCII characters, the rest of the run is processed
+	 * 		as well.
+	 * @param end The index following the last byte of the string.
+	 * @return The index of the byte following the last one processed.
+	 */
+	private int scan(byte[] b, int from, int to, int end) {
+		int i = from;
+		while (i < to) {
+			int c = b[i];
+			if (c >= 0) {
+				if (c >= 'A' && c <= 'Z') {
+					c |= 0x20;
+				}
+				append(c, classify((char) c));
+				i++;
+			} else {
+				int j = i + 1;
+				while (j < end && b[j] < 0) {
+					j++;
+				}
+				appendUnicode(new String(b, i, j - i, StandardCharsets.UTF_8), end - j);
+				i = j;
+			}
+		}
+		return i;
+	}
+
+	/**
+	 * Determines the class of a lower-case character.
+	 * @param c The character.
+	 * @return The class of <code>c</code>.
+	 */
+	private static int classify(char c) {
+		return (c >= 'a' && c <= 'z') ? LETTER
+				: (c >= '0' && c <= '9') ? DIGIT
+				: SEPARATOR;
+	}
+
+	/**
+	 * Ensures that the buffer can hold the specified number of characters.
+	 * @param capacity The required capacity.
+	 */
+	private void ensureCapacity(int capacity) {
+		if (capacity > out.length) {
+			out = Arrays.copyOf(out, Math.max(capacity, 2 * out.length));
+		}
+	}
+
+	/**
+	 * Appends a word break.
+	 */
+	private void appendBreak() {
+		if (numBreaks == breaks.length) {
+			breaks = Arrays.copyOf(breaks, 2 * numBreaks);
+		}
+		breaks[numBreaks++] = length;
+		out[length++] = ' ';
+	}
+
+	/**
+	 * Processes a single character.  A run of separators is reduced to a
+	 * single word break, and a word break is added between a letter and a
+	 * digit that are next to one another.
+	 * @param c The (lower-case, unaccented) character.
+	 * @param cls The class of <code>c</code>.
+	 */
+	private void append(int c, int cls) {
+		if (cls == SEPARATOR) {
+			if (last != SEPARATOR) {
+				appendBreak();
+			}
+		} else {
+			if (last != cls && last != SEPARATOR && last != START) {
+				appendBreak();
+			}
+			out[length++] = (byte) c;
+		}
+		last = cls;
+	}
+
+	/**
+	 * Processes eight ASCII characters at once.
+	 * @param w The lower-cased characters, one per byte, with the first in
+	 * 		the lowest byte.
+	 * @param letters The high bit of each byte of <code>w</code> that holds
+	 * 		a letter.
+	 * @param digits The high bit of each byte of <code>w</code> that holds a
+	 * 		digit.
+	 */
+	private void append(long w, long letters, long digits) {
+		if ((letters | digits) == 0) {
+			// all separators.
+			if (last != SEPARATOR) {
+				appendBreak();
+			}
+			last = SEPARATOR;
+		} else if ((letters == HIGH && last != DIGIT) || (digits == HIGH && last != LETTER)) {
+			// a single run of letters or digits, continuing the current word
+			// if there is one.
+			LONGS.set(out, length, w);
+			length += 8;
+			last = letters == HIGH ? LETTER : DIGIT;
+		} else {
+			for (int shift = 0; shift < 64; shift += 8) {
+				int cls = ((letters >>> (shift + 7)) & 1) != 0 ? LETTER
+						: ((digits >>> (shift + 7)) & 1) != 0 ? DIGIT
+						: SEPARATOR;
+				append((int) (w >>> shift) & 0xff, cls);
+			}
+		}
+	}
+
+	/**
+	 * Processes a run of non-ASCII characters, which may decompose to letters
+	 * and accents, or be letters that need their case changed.
+	 * @param run The characters.
+	 * @param remaining The number of bytes following the run that are yet to
+	 * 		be processed.
+	 */
+	private void appendUnicode(String run, int remaining) {
+		String s = Normalizer.normalize(run, Normalizer.Form.NFD);
+		s = ACCENTS.matcher(s).replaceAll("");
+		s = s.toLowerCase();
+
+		ensureCapacity(length + 2 * (s.length() + remaining) + 1);
+		for (int i = 0, n = s.length(); i < n; i++) {
+			char c = s.charAt(i);
+			append(c, classify(c));
+		}
+	}
+
+	/**
+	 * Gets the number of words.  As for <code>toString().split(" ")</code>,
+	 * there is an empty word before a leading space and none after a
+	 * trailing space, and an empty string has a single empty word.
+	 * @return The number of words.
+	 */
+	public int getWordCount() {
+		if (length == 0) {
+			return 1;
+		}
+		int count = numBreaks + 1;
+		while (count > 0 && getWordStart(count - 1) == getWordEnd(count - 1)) {
+			count--;
+		}
+		return count;
+	}
+
+	/**
+	 * Gets the position of the start of a word.
+	 * @param i The index of the word.
+	 * @return The position of the first character of the word.
+	 */
+	public int getWordStart(int i) {
+		return i > 0 ? breaks[i - 1] + 1 : 0;
+	}
+
+	/**
+	 * Gets the position of the end of a word.
+	 * @param i The index of the word.
+	 * @return The position following the last character of the word.
+	 */
+	public int getWordEnd(int i) {
+		return i < numBreaks ? breaks[i] : length;
+	}
+
+	/**
+	 * Gets a word.
+	 * @param i The index of the word.
+	 * @return The word.
+	 */
+	public String getWord(int i) {
+		int start = getWordStart(i);
+		return new String(out, start, getWordEnd(i) - start, StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Gets the words.  This gives the same result as
+	 * <code>toString().split(" ")</code>.
+	 * @return The words.
+	 */
+	public String[] toWords() {
+		String[] words = new String[getWordCount()];
+		for (int i = 0; i < words.length; i++) {
+			words[i] = getWord(i);
+		}
+		return words;
+	}
+
+	/**
+	 * Gets the array holding the normalized characters.  The array belongs
+	 * to this buffer, and its contents are only valid until the buffer is
+	 * next modified.
+	 * @return The array holding the normalized characters.
+	 */
+	public byte[] getBytes() {
+		return out;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.CharSequence#length()
+	 */
+	@Override
+	public int length() {
+		return length;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.CharSequence#charAt(int)
+	 */
+	@Override
+	public char charAt(int index) {
+		if (index < 0 || index >= length) {
+			throw new IndexOutOfBoundsException();
+		}
+		return (char) out[index];
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.CharSequence#subSequence(int, int)
+	 */
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		return toString().subSequence(start, end);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return new String(out, 0, length, StandardCharsets.ISO_8859_1);
+	}
+
+}
@@ -0,0 +1,215 @@
+/**
+ * 
+ */
+package ca.eandb.sortable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Set;
+
+/**
+ * A pool of files in a directory, to which records may be appended in any
+ * order.  At most a fixed number of files are kept open at once, each with
+ * its own write buffer; when another file is needed, the least recently
+ * used one is flushed and closed, and it is reopened for appending if it is
+ * needed again.  The memory used therefore depends only on the size of the
+ * pool, not on the number of files or the amount written to them, and each
+ * file's contents reach the disk whenever its buffer fills or it is closed.
+ *
+ * The directory must be empty (or not yet exist) when the pool is created,
+ * so that every file in it afterwards was written by this pool, and files
+ * left over from earlier runs are not mistaken for part of the output.  Each
+ * file is truncated the first time it is opened by the pool.  This class is
+ * not thread-safe.
+ *
+ * @author Brad Kimmel
+ */
+public final class OutputFilePool {
+
+	/** An open file. */
+	private static final class Handle {
+
+		/** The <code>FileChannel</code> to write to. */
+		public final FileChannel channel;
+
+		/** The bytes waiting to be written. */
+		public final ByteBuffer buffer;
+
+		/**
+		 * Creates a new <code>Handle</code>.
+		 * @param channel The <code>FileChannel</code> to write to.
+		 * @param bufferSize The size of the write buffer, in bytes.
+		 */
+		public Handle(FileChannel channel, int bufferSize) {
+			this.channel = channel;
+			this.buffer = ByteBuffer.allocate(bufferSize);
+		}
+
+		/**
+		 * Writes any buffered bytes to the file.
+		 * @throws IOException If an error occurs while writing to the file.
+		 */
+		public void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			buffer.clear();
+		}
+
+	}
+
+	/** The directory containing the files. */
+	private final File dir;
+
+	/** The maximum number of files to keep open at once. */
+	private final int maxOpen;
+
+	/** The size of the write buffer for each open file, in bytes. */
+	private final int bufferSize;
+
+	/** The open files, from least to most recently used. */
+	private final LinkedHashMap<String, Handle> open = new LinkedHashMap<String, Handle>(16, 0.75f, true);
+
+	/** The names of the files that have been opened so far. */
+	private final Set<String> created = new HashSet<String>();
+
+	/** The number of times a file has been closed to make room for another. */
+	private long evictions = 0;
+
+	/**
+	 * Creates a new <code>OutputFilePool</code>.
+	 * @param dir The directory in which to write the files, which must be
+	 * 		empty (it is created if it does not exist).
+	 * @param maxOpen The maximum number of files to keep open at once.
+	 * @param bufferSize The size of the write buffer for each open file, in
+	 * 		bytes.
+	 * @throws IOException If the directory cannot be created or is not
+	 * 		empty.
+	 */
+	public OutputFilePool(File dir, int maxOpen, int bufferSize) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Cannot create directory: " + dir);
+		}
+		String[] existing = dir.list();
+		if (existing == null) {
+			throw new IOException("Cannot list directory: " + dir);
+		}
+		if (existing.length > 0) {
+			throw new IOException("Directory is not empty: " + dir);
+		}
+		this.dir = dir;
+		this.maxOpen = Math.max(maxOpen, 1);
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * Appends bytes to a file.
+	 * @param name The name of the file within the directory.
+	 * @param b The array containing the bytes to append.
+	 * @param off The index of the first byte to append.
+	 * @param len The number of bytes to append.
+	 * @throws IOException If an error occurs while opening or writing to a
+	 * 		file.
+	 */
+	public void append(String name, byte[] b, int off, int len) throws IOException {
+		Handle handle = open(name);
+		while (len > 0) {
+			if (!handle.buffer.hasRemaining()) {
+				handle.flush();
+			}
+			int n = Math.min(len, handle.buffer.remaining());
+			handle.buffer.put(b, off, n);
+			off += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * Gets the open file with the specified name, opening it (and closing the
+	 * least recently used file, if the pool is full) if required.
+	 * @param name The name of the file within the directory.
+	 * @return The <code>Handle</code> for the file.
+	 * @throws IOException If an error occurs while opening or closing a
+	 * 		file.
+	 */
+	private Handle open(String name) throws IOException {
+		Handle handle = open.get(name);
+		if (handle != null) {
+			return handle;
+		}
+
+		if (open.size() >= maxOpen) {
+			Iterator<Handle> eldest = open.values().iterator();
+			close(eldest.next());
+			eldest.remove();
+			evictions++;
+		}
+
+		FileChannel channel = FileChannel.open(new File(dir, name).toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				created.add(name) ? StandardOpenOption.TRUNCATE_EXISTING : StandardOpenOption.APPEND);
+		handle = new Handle(channel, bufferSize);
+		open.put(name, handle);
+		return handle;
+	}
+
+	/**
+	 * Flushes and closes a file.
+	 * @param handle The <code>Handle</code> for the file.
+	 * @throws IOException If an error occurs while writing to or closing the
+	 * 		file.
+	 */
+	private static void close(Handle handle) throws IOException {
+		try {
+			handle.flush();
+		} finally {
+			handle.channel.close();
+		}
+	}
+
+	/**
+	 * Gets the number of distinct files written to.
+	 * @return The number of distinct files written to.
+	 */
+	public int getFileCount() {
+		return created.size();
+	}
+
+	/**
+	 * Gets the number of times a file was closed to make room for another.
+	 * @return The number of times a file was closed to make room for another.
+	 */
+	public long getEvictionCount() {
+		return evictions;
+	}
+
+	/**
+	 * Flushes and closes all open files.
+	 * @throws IOException If an error occurs while writing to or closing a
+	 * 		file.
+	 */
+	public void close() throws IOException {
+		IOException failure = null;
+		for (Handle handle : open.values()) {
+			try {
+				close(handle);
+			} catch (IOException e) {
+				if (failure == null) {
+					failure = e;
+				}
+			}
+		}
+		open.clear();
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+}
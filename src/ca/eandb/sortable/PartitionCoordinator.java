@@ -0,0 +1,200 @@
+/**
+ * 
+ */
+package ca.eandb.sortable;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ca.eandb.sortable.json.JSONResultMerger;
+
+/**
+ * Matches a listings file by splitting it into partitions and running a
+ * {@link PartitionWorker} process on each partition.  The product tries are
+ * built once and written to a work directory, from which each worker loads
+ * them, and the partial results are then merged deterministically (see
+ * {@link JSONResultMerger}).  The number of partitions may exceed the number
+ * of workers, in which case each worker process handles one partition at a
+ * time until all partitions are done.
+ *
+ * Because the workers only communicate through the work directory, the work
+ * directory may be placed on a shared filesystem and workers run on other
+ * machines using the same command lines.
+ *
+ * @author Brad Kimmel
+ */
+public final class PartitionCoordinator {
+
+	/** The number of worker processes to run at once. */
+	private final int workers;
+
+	/** The number of partitions to split the listings into. */
+	private final int partitions;
+
+	/**
+	 * The directory in which to write the precompiled tries and partial
+	 * results, or <code>null</code> to use a temporary directory that is
+	 * deleted afterwards.
+	 */
+	private final File workDir;
+
+	/**
+	 * Creates a new <code>PartitionCoordinator</code>.
+	 * @param workers The number of worker processes to run at once.
+	 * @param partitions The number of partitions to split the listings into.
+	 * @param workDir The directory in which to write the precompiled tries and
+	 * 		partial results, or <code>null</code> to use a temporary directory
+	 * 		that is deleted afterwards.
+	 */
+	public PartitionCoordinator(int workers, int partitions, File workDir) {
+		this.workers = workers;
+		this.partitions = partitions;
+		this.workDir = workDir;
+	}
+
+	/**
+	 * Matches the listings in the specified file against the products in the
+	 * provided <code>ProductTrieBuilder</code>.
+	 * @param builder The <code>ProductTrieBuilder</code> containing the
+	 * 		products.
+	 * @param listings The file containing the listings.
+	 * @param out The <code>Writer</code> to write the merged results to.
+	 * @throws Exception If an error occurs while running the workers or
+	 * 		merging their results.
+	 */
+	public void run(ProductTrieBuilder builder, File listings, Writer out) throws Exception {
+
+		File dir = workDir;
+		if (dir == null) {
+			dir = File.createTempFile("sortable", "");
+			if (!dir.delete() || !dir.mkdir()) {
+				throw new IOException("Cannot create work directory: " + dir);
+			}
+		} else {
+			dir.mkdirs();
+		}
+
+		try {
+
+			File trie = new File(dir, "products.trie");
+			OutputStream trieOut = new BufferedOutputStream(new FileOutputStream(trie));
+			ProductTrieSerializer.write(trieOut, builder.getProducts(),
+					builder.getManufacturerRoot(), builder.getModelRoot());
+			trieOut.close();
+
+			long[] bounds = split(listings, partitions);
+			List<File> parts = new ArrayList<File>();
+			List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+			for (int i = 0; i < partitions; i++) {
+				File part = new File(dir, String.format("part-%05d.txt", i));
+				parts.add(part);
+				tasks.add(newTask(WorkerProcess.command(PartitionWorker.class,
+						trie.getAbsolutePath(), listings.getAbsolutePath(),
+						Long.toString(bounds[i]), Long.toString(bounds[i + 1]),
+						part.getAbsolutePath())));
+			}
+
+			ExecutorService executor = Executors.newFixedThreadPool(workers);
+			try {
+				for (Future<Object> result : executor.invokeAll(tasks)) {
+					try {
+						result.get();
+					} catch (ExecutionException e) {
+						if (e.getCause() instanceof Error) {
+							throw (Error) e.getCause();
+						}
+						throw (Exception) e.getCause();
+					}
+				}
+			} finally {
+				executor.shutdownNow();
+			}
+
+			new JSONResultMerger().merge(parts, out);
+
+		} finally {
+			if (workDir == null) {
+				for (File file : dir.listFiles()) {
+					file.delete();
+				}
+				dir.delete();
+			}
+		}
+
+	}
+
+	/**
+	 * Splits a file into partitions at line boundaries.
+	 * @param file The file to split.
+	 * @param n The number of partitions.
+	 * @return An array of <code>n + 1</code> offsets, such that partition
+	 * 		<code>i</code> consists of the bytes from offset
+	 * 		<code>bounds[i]</code> (inclusive) to <code>bounds[i + 1]</code>
+	 * 		(exclusive).  Some partitions may be empty.
+	 * @throws IOException If an error occurs while reading the file.
+	 */
+	static long[] split(File file, int n) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			long length = raf.length();
+			long[] bounds = new long[n + 1];
+			bounds[n] = length;
+			for (int i = 1; i < n; i++) {
+				long pos = Math.max(bounds[i - 1], length * i / n);
+				if (pos > 0 && pos < length) {
+
+					/* Advance to the start of the next line, unless we are
+					 * already at the start of a line.
+					 */
+					raf.seek(pos - 1);
+					int c;
+					do {
+						c = raf.read();
+					} while (c >= 0 && c != '\n');
+					pos = raf.getFilePointer();
+				}
+				bounds[i] = pos;
+			}
+			return bounds;
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Creates a task that runs a worker process to completion.  The output of
+	 * the process is copied to <code>System.err</code>, one line at a time.
+	 * @param command The command line for the worker process.
+	 * @return The <code>Callable</code> task.
+	 */
+	private static Callable<Object> newTask(final List<String> command) {
+		return new Callable<Object>() {
+			public Object call() throws Exception {
+				ProcessBuilder pb = new ProcessBuilder(command);
+				pb.redirectErrorStream(true);
+
+				Process process = pb.start();
+				WorkerProcess.copyToStderr(process.getInputStream());
+
+				int status = process.waitFor();
+				if (status != 0) {
+					throw new IOException("Worker process failed with exit code " + status);
+				}
+				return null;
+			}
+		};
+	}
+
+}
@@ -0,0 +1,177 @@
+/**
+ * 
+ */
+package ca.eandb.sortable;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+
+import ca.eandb.sortable.json.JSONListingReader;
+
+/**
+ * An application that matches one partition (a range of bytes) of a listings
+ * file against a precompiled product trie.  Instances of this application are
+ * normally launched by a {@link PartitionCoordinator}, but since they only
+ * communicate through files they may also be run on other machines that have
+ * access to the same (shared) filesystem.
+ *
+ * @author Brad Kimmel
+ */
+public final class PartitionWorker {
+
+	/**
+	 * Usage: ca.eandb.sortable.PartitionWorker <trie_file> <listings_file>
+	 *        <start> <end> <output_file>
+	 * Matches a partition of a listings file against a precompiled trie.
+	 *
+	 *   <trie_file>     - A file containing the precompiled product tries (see
+	 *                     {@link ProductTrieSerializer}).
+	 *   <listings_file> - A file containing a collection of listings formatted as
+	 *                     JSON objects, one per line.
+	 *   <start>         - The offset of the first byte of the partition, which
+	 *                     must be at the start of a line.
+	 *   <end>           - The offset one past the last byte of the partition,
+	 *                     which must be at the start of a line (or at the end of
+	 *                     the file).
+	 *   <output_file>   - A file to which to write the results.
+	 *
+	 * @param args The program arguments as specified above.
+	 */
+	public static void main(String[] args) {
+
+		if (args.length != 5) {
+			System.out.printf("Usage: %s <trie_file> <listings_file> <start> <end> <output_file>", PartitionWorker.class.getName());
+			System.out.println();
+			System.exit(1);
+		}
+
+		try {
+
+			InputStream trie = new BufferedInputStream(new FileInputStream(args[0]));
+			ProductStore products = new ProductStore();
+			TrieNode[] roots = ProductTrieSerializer.read(trie, products);
+			trie.close();
+
+			long start = Long.parseLong(args[2]);
+			long end = Long.parseLong(args[3]);
+			Reader reader = new InputStreamReader(new RangeInputStream(
+					new FileInputStream(args[1]), start, end));
+			Writer out = new FileWriter(args[4]);
+
+			JSONListingReader listingReader = new JSONListingReader(products, roots[0], roots[1]);
+			listingReader.read(reader, out);
+
+			reader.close();
+			out.close();
+
+			if (listingReader.getBudgetExceededCount() > 0) {
+				System.err.printf(
+						"Step budget exceeded %d times.",
+						listingReader.getBudgetExceededCount());
+				System.err.println();
+			}
+
+		} catch (Exception e) {
+
+			e.printStackTrace();
+			System.exit(1);
+
+		}
+
+	}
+
+	/**
+	 * An <code>InputStream</code> that reads a range of bytes from an
+	 * underlying <code>InputStream</code>.
+	 */
+	static final class RangeInputStream extends FilterInputStream {
+
+		/** The number of bytes remaining in the range. */
+		private long remaining;
+
+		/**
+		 * Creates a new <code>RangeInputStream</code>.
+		 * @param in The underlying <code>InputStream</code>.
+		 * @param start The offset of the first byte in the range.
+		 * @param end The offset one past the last byte in the range.
+		 * @throws IOException If an error occurs while skipping to
+		 * 		<code>start</code>.
+		 */
+		public RangeInputStream(InputStream in, long start, long end) throws IOException {
+			super(in);
+			for (long n = start; n > 0; ) {
+				long skipped = in.skip(n);
+				if (skipped <= 0) {
+					throw new IOException("Partition start is past the end of the file.");
+				}
+				n -= skipped;
+			}
+			this.remaining = end - start;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.io.FilterInputStream#read()
+		 */
+		@Override
+		public int read() throws IOException {
+			if (remaining <= 0) {
+				return -1;
+			}
+			int b = super.read();
+			if (b >= 0) {
+				remaining--;
+			}
+			return b;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.io.FilterInputStream#read(byte[], int, int)
+		 */
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (remaining <= 0) {
+				return -1;
+			}
+			int n = super.read(b, off, (int) Math.min(len, remaining));
+			if (n > 0) {
+				remaining -= n;
+			}
+			return n;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.io.FilterInputStream#skip(long)
+		 */
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(Math.min(n, remaining));
+			remaining -= skipped;
+			return skipped;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.io.FilterInputStream#available()
+		 */
+		@Override
+		public int available() throws IOException {
+			return (int) Math.min(super.available(), remaining);
+		}
+
+		/* (non-Javadoc)
+		 * @see java.io.FilterInputStream#markSupported()
+		 */
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+	}
+
+}
@@ -0,0 +1,304 @@
+/**
+ * 
+ */
+package ca.eandb.sortable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A <code>MatchEngine</code> that matches listings using posting lists rather
+ * than by walking a trie.  Each string stored in the tries built by a
+ * {@link ProductTrieBuilder} becomes a key in a hash table, which maps it to
+ * a sorted array of the products associated with it (a posting list).  The
+ * concatenations of consecutive words in a listing field are looked up
+ * directly, and the resulting posting lists are intersected using galloping
+ * (exponential) search, so that intersecting a short list with a long one
+ * (such as the products of a large manufacturer) takes time proportional to
+ * the length of the short list times the logarithm of the long one.
+ *
+ * The matching rules are the same as those of {@link TrieMatchEngine} (see
+ * comments there), with a trie node replaced by the string that leads to it.  Concatenations
+ * longer than the longest key are skipped, which takes the place of a trie
+ * walk stopping at a missing edge.  Where the result depends on the order in
+ * which the matching nodes are considered, this engine uses the order in which
+ * they were found.
+ *
+ * @author Brad Kimmel
+ */
+public final class PostingMatchEngine implements MatchEngine {
+
+	/**
+	 * The maximum number of lookups to perform while matching a listing, or
+	 * zero if there is no limit.  The lookups performed while matching the
+	 * manufacturer are carried over into matching the title, as in
+	 * {@link TrieMatchEngine}.
+	 */
+	private final int stepBudget = Integer.parseInt(
+			System.getProperty("ca.eandb.sortable.stepBudget", "0"));
+
+	/**
+	 * A value indicating what to do when the step budget is exhausted.  If
+	 * <code>true</code>, the listing is treated as not matching any product.
+	 * Otherwise, the remainder of the field is ignored and the matches found
+	 * so far are resolved as usual.
+	 *
+	 * @see #stepBudget
+	 */
+	private final boolean rejectOverBudget = System.getProperty(
+			"ca.eandb.sortable.budgetFallback", "truncate").equals("reject");
+
+	/** The number of times the step budget has been exhausted. */
+	private final AtomicLong budgetExceeded = new AtomicLong();
+
+	/**
+	 * The <code>ProductStore</code> holding the products referred to by the
+	 * posting lists.
+	 */
+	private final ProductStore products;
+
+	/** The posting lists for the manufacturer field. */
+	private final Postings manufacturerPostings;
+
+	/** The posting lists for the model name. */
+	private final Postings modelPostings;
+
+	/**
+	 * A table of posting lists.  Each posting list is the
+	 * <code>MatchList</code> of the trie node for its key, so its entries are
+	 * encoded matches (see {@link ProductMatch#encode(int, boolean)}) sorted
+	 * by product identifier.
+	 */
+	private static final class Postings {
+
+		/** The posting list for each key. */
+		public final Map<String, MatchList> lists = new HashMap<String, MatchList>();
+
+		/** The length of the longest key. */
+		public int maxKeyLength = 0;
+
+	}
+
+	/**
+	 * Creates a new <code>PostingMatchEngine</code> from the tries built by a
+	 * {@link ProductTrieBuilder}.
+	 * @param products The <code>ProductStore</code> holding the products
+	 * 		referred to by the tries.
+	 * @param manufacturerTrie The root <code>TrieNode</code> containing the
+	 * 		set of strings that match the "manufacturer" field of a
+	 * 		<code>Product</code>.
+	 * @param modelTrie The root <code>TrieNode</code> containing the set of
+	 * 		strings that match the model name of a <code>Product</code>.
+	 */
+	public PostingMatchEngine(ProductStore products, TrieNode manufacturerTrie,
+			TrieNode modelTrie) {
+		this.products = products;
+		manufacturerPostings = toPostings(manufacturerTrie);
+		modelPostings = toPostings(modelTrie);
+	}
+
+	/**
+	 * Creates the posting lists for the strings stored in a trie.
+	 * @param root The <code>TrieNode</code> at the root of the trie.  The
+	 * 		data associated with each node must be either <code>null</code> or
+	 * 		a <code>MatchList</code>.
+	 * @return The <code>Postings</code>.
+	 */
+	private static Postings toPostings(TrieNode root) {
+
+		final Map<TrieNode, List<TrieNode>> children = new HashMap<TrieNode, List<TrieNode>>();
+		final Map<TrieNode, Character> chars = new HashMap<TrieNode, Character>();
+		root.visitEdges(new TrieEdgeVisitor() {
+			public void visit(TrieNode parent, char c, TrieNode child) {
+				List<TrieNode> list = children.get(parent);
+				if (list == null) {
+					list = new ArrayList<TrieNode>();
+					children.put(parent, list);
+				}
+				list.add(child);
+				chars.put(child, c);
+			}
+		});
+
+		/* Visit the nodes in breadth-first order, so that the key for each
+		 * node's parent is known before the node is visited.
+		 */
+		Postings postings = new Postings();
+		Map<TrieNode, String> keys = new HashMap<TrieNode, String>();
+		List<TrieNode> queue = new ArrayList<TrieNode>();
+		keys.put(root, "");
+		queue.add(root);
+		for (int i = 0; i < queue.size(); i++) {
+			TrieNode node = queue.get(i);
+			String key = keys.get(node);
+			List<TrieNode> list = children.get(node);
+			if (list != null) {
+				for (TrieNode child : list) {
+					keys.put(child, key + chars.get(child));
+					queue.add(child);
+				}
+			}
+
+			MatchList matches = (MatchList) node.getData();
+			if (matches == null || matches.size() == 0) {
+				continue;
+			}
+
+			postings.lists.put(key, matches);
+			postings.maxKeyLength = Math.max(postings.maxKeyLength, key.length());
+		}
+
+		return postings;
+
+	}
+
+	/* (non-Javadoc)
+	 * @see ca.eandb.sortable.MatchEngine#matchManufacturer(java.lang.CharSequence)
+	 */
+	@Override
+	public Set<ProductMatch> matchManufacturer(CharSequence manufacturer) {
+		int[] steps = { 0 };
+		int[] results = match(manufacturerPostings, manufacturer, null, false, steps);
+		return results != null ? new MatchSet(results, steps[0]) : null;
+	}
+
+	/* (non-Javadoc)
+	 * @see ca.eandb.sortable.MatchEngine#matchModel(java.lang.CharSequence, java.util.Set)
+	 */
+	@Override
+	public Product matchModel(CharSequence title, Set<ProductMatch> manufacturerProducts) {
+		int[] filter = MatchSet.toList(manufacturerProducts);
+		int[] steps = { MatchSet.getSteps(manufacturerProducts) };
+		int[] results = match(modelPostings, title, filter, true, steps);
+		return results != null && results.length == 1
+				? products.get(ProductMatch.getProductId(results[0]))
+				: null;
+	}
+
+	/* (non-Javadoc)
+	 * @see ca.eandb.sortable.MatchEngine#getBudgetExceededCount()
+	 */
+	@Override
+	public long getBudgetExceededCount() {
+		return budgetExceeded.get();
+	}
+
+	/**
+	 * Gets the counter of the number of times the step budget has been
+	 * exhausted.  The counter may be kept after this engine is discarded, so
+	 * that matches still in progress on it are counted as they finish (see
+	 * {@link ReloadingMatchEngine}).
+	 * @return The counter.
+	 */
+	AtomicLong getBudgetExceededCounter() {
+		return budgetExceeded;
+	}
+
+	/**
+	 * Matches the specified string against the products in a table of
+	 * posting lists.
+	 * @param postings The <code>Postings</code> to match against.
+	 * @param s The <code>CharSequence</code> to match against.
+	 * @param filter A posting list used to filter the results, or
+	 * 		<code>null</code> if the results are not to be filtered.
+	 * @param useMaximalFlag A value indicating whether the matching should
+	 * 		return only maximal matches if there would otherwise be multiple
+	 * 		matching products.
+	 * @param steps A one-element array holding the number of lookups already
+	 * 		performed for the listing, which is updated with the lookups
+	 * 		performed here.
+	 * @return The posting list of the matching products, or <code>null</code>
+	 * 		if there are none.
+	 */
+	private int[] match(Postings postings, CharSequence s, int[] filter,
+			boolean useMaximalFlag, int[] steps) {
+
+		String[] words = StringUtil.normalizeWords(s);
+
+		/* Join the words, so that the concatenation of words i..j is the
+		 * substring from offsets[i] to offsets[j + 1].
+		 */
+		StringBuilder joined = new StringBuilder();
+		int[] offsets = new int[words.length + 1];
+		for (int i = 0; i < words.length; i++) {
+			offsets[i] = joined.length();
+			joined.append(words[i]);
+		}
+		offsets[words.length] = joined.length();
+		String text = joined.toString();
+
+		/* Look up the concatenations in the same order as the trie walk would
+		 * reach the corresponding nodes: by last word, then by first word.
+		 */
+		Map<String, int[]> matches = new LinkedHashMap<String, int[]>();
+		int first = 0;
+		walk: for (int j = 0; j < words.length; j++) {
+			while (offsets[j + 1] - offsets[first] > postings.maxKeyLength) {
+				first++;
+			}
+			for (int i = first; i <= j; i++) {
+				if (stepBudget > 0 && steps[0]++ >= stepBudget) {
+					if (steps[0] == stepBudget + 1) {	// count each listing once
+						budgetExceeded.incrementAndGet();
+					}
+					if (rejectOverBudget) {
+						return null;
+					}
+					break walk;
+				}
+
+				String key = text.substring(offsets[i], offsets[j + 1]);
+				MatchList posting = postings.lists.get(key);
+				if (posting == null) {
+					continue;
+				}
+				int[] list = MatchSet.filter(posting, filter);
+				if (list.length > 0) {
+					matches.put(key, list);
+
+					// remove matches for prefixes (ancestor nodes).
+					for (Iterator<String> iter = matches.keySet().iterator(); iter.hasNext(); ) {
+						String other = iter.next();
+						if (other.length() < key.length() && key.startsWith(other)) {
+							iter.remove();
+						}
+					}
+				}
+			}
+		}
+
+		/* Resolve the matches (see TrieMatchEngine). */
+		int[] results = null;
+		String seed = null;
+		boolean foundSingleton = false;
+		for (Map.Entry<String, int[]> entry : matches.entrySet()) {
+			int[] list = entry.getValue();
+			if (!foundSingleton && list.length == 1) {
+				foundSingleton = true;
+				results = list;
+				seed = entry.getKey();
+			} else if (foundSingleton) {
+				if (list.length == 1) { results = MatchSet.intersect(results, list); }
+			} else if (results == null) {
+				results = list;
+				seed = entry.getKey();
+			} else {
+				results = MatchSet.intersect(results, list);
+			}
+		}
+
+		if (useMaximalFlag && results != null && results.length > 1) {
+			results = MatchSet.maximal(results, postings.lists.get(seed));
+		}
+
+		return results;
+
+	}
+
+}
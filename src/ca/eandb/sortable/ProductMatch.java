@@ -6,29 +6,69 @@ package ca.eandb.sortable;
 /**
  * An object representing a product match along with some bookkeeping
  * information.  Two <code>ProductMatch</code> objects are considered equal to
- * one another if their underlying products are equal, regardless of the state
- * of any bookkeeping information.
- * 
+ * one another if they refer to the same product, regardless of the state of
+ * any bookkeeping information.
+ *
+ * The products are identified by their position in a {@link ProductStore}.
+ * Within the tries built by {@link ProductTrieBuilder}, a match is stored as
+ * a single <code>int</code> (see {@link #encode(int, boolean)}), with the
+ * matches for a node held in an <code>int[]</code>.  Instances of this class
+ * wrap such a value for use in collections.
+ *
  * @author Brad Kimmel
  */
 public final class ProductMatch {
-	
-	/** The matching <code>Product</code>. */
-	private final Product product;
-	
+
+	/**
+	 * The encoded match: the product identifier shifted left by one, with
+	 * the low bit set if the match is maximal.
+	 */
+	private final int match;
+
 	/**
-	 * A value indicating whether this match represents a maximal match.  A
-	 * match is considered maximal if there is no suffix which may be appended
-	 * to the match to create a longer match for the same product.
+	 * Creates a new <code>ProductMatch</code>.
+	 * @param match The encoded match (see {@link #encode(int, boolean)}).
 	 */
-	private boolean isMaximal = false;
-	
+	public ProductMatch(int match) {
+		this.match = match;
+	}
+
 	/**
 	 * Creates a new <code>ProductMatch</code>.
-	 * @param product The matching <code>Product</code>.
+	 * @param productId The identifier of the matching product.
+	 * @param isMaximal A value indicating whether this match represents a
+	 * 		maximal match.
+	 */
+	public ProductMatch(int productId, boolean isMaximal) {
+		this(encode(productId, isMaximal));
+	}
+
+	/**
+	 * Encodes a match as an <code>int</code>.
+	 * @param productId The identifier of the matching product.
+	 * @param isMaximal A value indicating whether the match is maximal.
+	 * @return The encoded match.
+	 */
+	public static int encode(int productId, boolean isMaximal) {
+		return (productId << 1) | (isMaximal ? 1 : 0);
+	}
+
+	/**
+	 * Gets the identifier of the product from an encoded match.
+	 * @param match The encoded match.
+	 * @return The identifier of the matching product.
+	 */
+	public static int getProductId(int match) {
+		return match >>> 1;
+	}
+
+	/**
+	 * Gets the maximal flag from an encoded match.
+	 * @param match The encoded match.
+	 * @return A value indicating whether the match is maximal.
 	 */
-	public ProductMatch(Product product) {
-		this.product = product;
+	public static boolean isMaximal(int match) {
+		return (match & 1) != 0;
 	}
 
 	/* (non-Javadoc)
@@ -36,7 +76,8 @@ public final class ProductMatch {
 	 */
 	@Override
 	public boolean equals(Object obj) {
-		return obj instanceof ProductMatch && product.equals(((ProductMatch) obj).product);
+		return obj instanceof ProductMatch
+				&& getProductId() == ((ProductMatch) obj).getProductId();
 	}
 
 	/* (non-Javadoc)
@@ -44,37 +85,35 @@ public final class ProductMatch {
 	 */
 	@Override
 	public int hashCode() {
-		return product.hashCode();
+		return getProductId();
 	}
 
 	/**
-	 * Gets a value indicating whether this match represents a maximal match. 
+	 * Gets a value indicating whether this match represents a maximal match.
 	 * A match is considered maximal if there is no suffix which may be
 	 * appended to the match to create a longer match for the same product.
 	 * @return A value indicating whether this match represents a maximal
 	 * 		match.
 	 */
 	public boolean isMaximal() {
-		return isMaximal;
+		return isMaximal(match);
 	}
 
 	/**
-	 * Sets the value indicating whether this match represents a maximal match.
-	 * A match is considered maximal if there is no suffix which may be
-	 * appended to the match to create a longer match for the same product.
-	 * @param isMaximal The value indicating whether this match represents a
-	 * 		maximal match.
+	 * Gets the identifier of the matching product.
+	 * @return The identifier of the matching product.
+	 * @see ProductStore#get(int)
 	 */
-	public void setMaximal(boolean isMaximal) {
-		this.isMaximal = isMaximal;
+	public int getProductId() {
+		return getProductId(match);
 	}
 
 	/**
-	 * Gets the matching <code>Product</code>.
-	 * @return The matching <code>Product</code>.
+	 * Gets the encoded match.
+	 * @return The encoded match (see {@link #encode(int, boolean)}).
 	 */
-	public Product getProduct() {
-		return product;
+	public int getEncoded() {
+		return match;
 	}
 
 }
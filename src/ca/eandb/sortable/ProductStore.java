@@ -0,0 +1,211 @@
+/**
+ * 
+ */
+package ca.eandb.sortable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A columnar store of <code>Product</code>s, which identifies each product by
+ * a dense <code>int</code> identifier (its position in the store).  Rather
+ * than keeping a <code>Product</code> object for each product, the fields are
+ * kept in parallel arrays.  The manufacturer, family, and announced date
+ * fields, whose values repeat across many products, are dictionary-encoded:
+ * each distinct value is stored once, and the column holds its code.
+ *
+ * A <code>Product</code> object is created for a product only when it is
+ * requested by {@link #get(int)} (typically, when a listing matches it), and
+ * is then cached so that repeated requests return the same object.  Products
+ * must all be added before the store is shared between threads, but
+ * {@link #get(int)} may then be called by multiple threads.
+ *
+ * @author Brad Kimmel
+ */
+public final class ProductStore implements ProductVisitor {
+
+	/**
+	 * A dictionary that assigns a code to each distinct <code>String</code>
+	 * value of a column.  <code>null</code> is encoded as <code>-1</code>.
+	 */
+	private static final class Dictionary {
+
+		/** The code assigned to each value. */
+		private final Map<String, Integer> codes = new HashMap<String, Integer>();
+
+		/** The values, indexed by code. */
+		private final List<String> values = new ArrayList<String>();
+
+		/**
+		 * Gets the code for a value, assigning a new code if required.
+		 * @param value The value to encode (may be <code>null</code>).
+		 * @return The code for <code>value</code>.
+		 */
+		public int encode(String value) {
+			if (value == null) {
+				return -1;
+			}
+			Integer code = codes.get(value);
+			if (code == null) {
+				code = values.size();
+				codes.put(value, code);
+				values.add(value);
+			}
+			return code;
+		}
+
+		/**
+		 * Gets the value for a code.
+		 * @param code The code to decode.
+		 * @return The value assigned the code <code>code</code>.
+		 */
+		public String decode(int code) {
+			return code >= 0 ? values.get(code) : null;
+		}
+
+	}
+
+	/** The initial capacity of the columns. */
+	private static final int INITIAL_CAPACITY = 256;
+
+	/** The product names. */
+	private String[] names = new String[INITIAL_CAPACITY];
+
+	/** The model names/numbers. */
+	private String[] models = new String[INITIAL_CAPACITY];
+
+	/** The codes of the manufacturer names. */
+	private int[] manufacturers = new int[INITIAL_CAPACITY];
+
+	/** The codes of the families of models. */
+	private int[] families = new int[INITIAL_CAPACITY];
+
+	/** The codes of the announced dates. */
+	private int[] announcedDates = new int[INITIAL_CAPACITY];
+
+	/** The <code>Product</code>s that have been requested so far. */
+	private Product[] cache = new Product[INITIAL_CAPACITY];
+
+	/** The dictionary of manufacturer names. */
+	private final Dictionary manufacturerDictionary = new Dictionary();
+
+	/** The dictionary of families of models. */
+	private final Dictionary familyDictionary = new Dictionary();
+
+	/** The dictionary of announced dates. */
+	private final Dictionary announcedDateDictionary = new Dictionary();
+
+	/** The number of products in the store. */
+	private int size = 0;
+
+	/* (non-Javadoc)
+	 * @see ca.eandb.sortable.ProductVisitor#visit(ca.eandb.sortable.Product)
+	 */
+	@Override
+	public void visit(Product product) {
+		add(product);
+	}
+
+	/**
+	 * Adds a product to the store.
+	 * @param product The <code>Product</code> to add.
+	 * @return The identifier assigned to the product.
+	 */
+	public int add(Product product) {
+		if (size == names.length) {
+			int capacity = 2 * size;
+			names = Arrays.copyOf(names, capacity);
+			models = Arrays.copyOf(models, capacity);
+			manufacturers = Arrays.copyOf(manufacturers, capacity);
+			families = Arrays.copyOf(families, capacity);
+			announcedDates = Arrays.copyOf(announcedDates, capacity);
+			cache = Arrays.copyOf(cache, capacity);
+		}
+
+		int id = size++;
+		names[id] = product.getName();
+		models[id] = product.getModel();
+		manufacturers[id] = manufacturerDictionary.encode(product.getManufacturer());
+		families[id] = familyDictionary.encode(product.getFamily());
+		announcedDates[id] = announcedDateDictionary.encode(product.getAnnouncedDate());
+		return id;
+	}
+
+	/**
+	 * Gets the number of products in the store.
+	 * @return The number of products in the store.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Gets a product.
+	 * @param id The identifier of the product.
+	 * @return The <code>Product</code>.  Repeated calls with the same
+	 * 		identifier return the same object.
+	 */
+	public Product get(int id) {
+		Product product = cache[id];
+		if (product == null) {
+			synchronized (this) {
+				product = cache[id];
+				if (product == null) {
+					product = new Product(getName(id), getManufacturer(id),
+							getModel(id), getFamily(id), getAnnouncedDate(id));
+					cache[id] = product;
+				}
+			}
+		}
+		return product;
+	}
+
+	/**
+	 * Gets the name of a product.
+	 * @param id The identifier of the product.
+	 * @return The product name.
+	 */
+	public String getName(int id) {
+		return names[id];
+	}
+
+	/**
+	 * Gets the name of the manufacturer of a product.
+	 * @param id The identifier of the product.
+	 * @return The name of the manufacturer.
+	 */
+	public String getManufacturer(int id) {
+		return manufacturerDictionary.decode(manufacturers[id]);
+	}
+
+	/**
+	 * Gets the model name/number of a product.
+	 * @param id The identifier of the product.
+	 * @return The model name/number.
+	 */
+	public String getModel(int id) {
+		return models[id];
+	}
+
+	/**
+	 * Gets the name of the family of models of a product.
+	 * @param id The identifier of the product.
+	 * @return The name of the family of models.
+	 */
+	public String getFamily(int id) {
+		return familyDictionary.decode(families[id]);
+	}
+
+	/**
+	 * Gets the date a product was announced.
+	 * @param id The identifier of the product.
+	 * @return The date the product was announced.
+	 */
+	public String getAnnouncedDate(int id) {
+		return announcedDateDictionary.decode(announcedDates[id]);
+	}
+
+}
@@ -0,0 +1,27 @@
+/**
+ * 
+ */
+package ca.eandb.sortable;
+
+import java.io.InputStream;
+
+/**
+ * Represents an object capable of producing <code>Product</code>s from a
+ * provided binary input source.
+ * @author Brad Kimmel
+ * @see ProductReader
+ */
+public interface ProductStreamReader {
+	
+	/**
+	 * Reads the <code>Product</code>s from the provided source and enumerates
+	 * them to the provided <code>ProductVisitor</code>.
+	 * @param in The <code>InputStream</code> to read the
+	 * 		<code>Product</code>s from.
+	 * @param visitor The <code>ProductVisitor</code> to use to enumerate the
+	 * 		<code>Product</code>s.
+	 * @throws Exception If an error occurs while reading.
+	 */
+	void read(InputStream in, ProductVisitor visitor) throws Exception;
+
+}
@@ -3,7 +3,13 @@
  */
 package ca.eandb.sortable;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 import ca.eandb.sortable.Product.Field;
@@ -13,7 +19,9 @@ import ca.eandb.sortable.Product.Field;
  * manufacturer for each of the <code>Product</code>s provided.  After all
  * <code>Product</code>s have been added, each <code>TrieNode</code>
  * corresponding to a match for one or more products will have a
- * <code>LinkedList</code> of <code>Product</code>s in its data field.  The
+ * {@link MatchList} of encoded <code>ProductMatch</code>es in its data field
+ * (see {@link ProductMatch#encode(int, boolean)}), referring to the products
+ * by their identifiers in the builder's {@link ProductStore}.  The
  * strings to be associated with a given product include the concatenations of
  * all sequences of consecutive words within:
  * 
@@ -24,9 +32,17 @@ import ca.eandb.sortable.Product.Field;
  *    - the "family" field concatenated with the "model" field.
  *    
  * except for certain strings which are judged not likely to be proper matches
- * (see comments in {@link #processField(TrieNode, Product, Field, String)}
+ * (see comments in {@link #processField(TrieNode, int, Field, String, Map)}
  * below).
  * 
+ * A builder may be created that allows products to be added by several
+ * threads at once (e.g., by several <code>ProductReader</code>s each reading
+ * a partition of a catalog).  Its tries are concurrent (see
+ * {@link TrieNode#TrieNode(boolean)}), and the list of matches for each node
+ * is only modified while holding the lock on that node.  The identifiers of
+ * the products then depend on the order in which they happen to be added.
+ * The tries must not be retrieved until all products have been added.
+ * 
  * @see TrieNode#getData()
  * @author Brad Kimmel
  */
@@ -39,10 +55,53 @@ public final class ProductTrieBuilder implements ProductVisitor {
 	private static final Pattern ALL_LETTERS = Pattern.compile("[a-z]*");
 	
 	/** The <code>TrieNode</code> at the root of the model name trie. */
-	private final TrieNode modelRoot = new TrieNode();
+	private final TrieNode modelRoot;
 	
 	/** The <code>TrieNode</code> at the root of the manufacturer trie. */
-	private final TrieNode manufacturerRoot = new TrieNode();
+	private final TrieNode manufacturerRoot;
+
+	/** The <code>ProductStore</code> holding the products added so far. */
+	private final ProductStore products = new ProductStore();
+
+	/**
+	 * A value indicating whether products have been added since the match
+	 * lists were last finished.
+	 * @see #finish(TrieNode)
+	 */
+	private volatile boolean dirty = false;
+
+	/**
+	 * The list of matches associated with a node while the trie is being
+	 * built.  These are replaced by <code>MatchList</code>s before the tries
+	 * are handed out.
+	 */
+	private static final class PendingMatches {
+
+		/** The encoded matches. */
+		public int[] matches = new int[4];
+
+		/** The number of matches in the list. */
+		public int size = 0;
+
+	}
+
+	/**
+	 * Creates a new <code>ProductTrieBuilder</code>, to which products may
+	 * only be added by one thread at a time.
+	 */
+	public ProductTrieBuilder() {
+		this(false);
+	}
+
+	/**
+	 * Creates a new <code>ProductTrieBuilder</code>.
+	 * @param concurrent A value indicating whether products may be added by
+	 * 		multiple threads at once.
+	 */
+	public ProductTrieBuilder(boolean concurrent) {
+		this.modelRoot = new TrieNode(concurrent);
+		this.manufacturerRoot = new TrieNode(concurrent);
+	}
 
 	/*(non-Javadoc)
 	 * @see ca.eandb.sortable.ProductVisitor#visit(ca.eandb.sortable.Product)
@@ -58,8 +117,11 @@ public final class ProductTrieBuilder implements ProductVisitor {
 	 */
 	public void addProduct(Product product) {
 		
+		int id = addToStore(product);
+		Map<TrieNode, Integer> added = new HashMap<TrieNode, Integer>();
+
 		/* Add the manufacturer string to a separate trie. */
-		processField(manufacturerRoot, product, Field.MANUFACTURER, product.getManufacturer());
+		processField(manufacturerRoot, id, Field.MANUFACTURER, product.getManufacturer(), added);
 		
 		/* Some product entries have the family, while others what have what
 		 * looks to be the "family" as part of the model.  Still others may
@@ -71,42 +133,70 @@ public final class ProductTrieBuilder implements ProductVisitor {
 		 * which strings *might* be matches for a given product -- so there's
 		 * no harm in adding "too much" information here.
 		 */
-		processField(modelRoot, product, Field.MODEL, product.getName());
-		processField(modelRoot, product, Field.MODEL, product.getModel());
+		processField(modelRoot, id, Field.MODEL, product.getName(), added);
+		processField(modelRoot, id, Field.MODEL, product.getModel(), added);
 		if (product.getFamily() != null) {
-			processField(modelRoot, product, Field.MODEL, product.getFamily() + " " + product.getModel());
+			processField(modelRoot, id, Field.MODEL, product.getFamily() + " " + product.getModel(), added);
 		}
 		
 	}
 	
+	/**
+	 * Adds the specified product to the manufacturer trie only.  This may be
+	 * used to build a trie for identifying manufacturers without the memory
+	 * required for the model name trie.
+	 * @param product The <code>Product</code> to add.
+	 */
+	public void addManufacturer(Product product) {
+		int id = addToStore(product);
+		processField(manufacturerRoot, id, Field.MANUFACTURER,
+				product.getManufacturer(), new HashMap<TrieNode, Integer>());
+	}
+	
+	/**
+	 * Adds a product to the <code>ProductStore</code>.
+	 * @param product The <code>Product</code> to add.
+	 * @return The identifier assigned to <code>product</code>.
+	 */
+	private int addToStore(Product product) {
+		synchronized (products) {
+			dirty = true;
+			return products.add(product);
+		}
+	}
+	
 	/**
 	 * Inserts substrings of the provided string that are to be considered as
 	 * matches into the trie and associate the specified product with the nodes
 	 * corresponding to the ends of those substrings. 
 	 * @param root The root <code>TrieNode</code> of the trie to insert into.
-	 * @param product The <code>Product</code> to associate with the substrings
-	 * 		of <code>value</code>.
+	 * @param product The identifier of the product to associate with the
+	 * 		substrings of <code>value</code>.
 	 * @param field The <code>Product.Field</code> associated with this string
 	 * 		(affects the rules used to judge whether a substring is considered
 	 * 		to be a match).
 	 * @param value The <code>String</code> whose substrings to insert into the
 	 * 		trie.
+	 * @param added The position of the match for <code>product</code> in
+	 * 		the list of matches for each node that it has been associated
+	 * 		with so far.
 	 */
-	private void processField(TrieNode root, Product product, Field field, String value) {		
+	private void processField(TrieNode root, int product, Field field, String value,
+			Map<TrieNode, Integer> added) {		
 		
 		/* Split the string into its component words and insert the concatenation
 		 * of every consecutive subsequence of those words into the trie, subject
 		 * to some additional rules described below.
 		 */
-		value = StringUtil.normalize(value);
-		String[] words = value.split(" ");
+		String[] words = StringUtil.normalizeWords(value);
 		for (int i = 0; i < words.length; i++) {
 			
 			int totalLength = 0;		// total length of word chain from i..j
 			boolean anyNumbers = false;	// any numbers in the word chain?
 			boolean anyLetters = false;	// any letters in the word chain?
 			TrieNode node = root;		// node at tip of word chain
-			ProductMatch ancMatch = null;
+			TrieNode ancestor = null;	// node with ancestor's match
+			int ancIndex = -1;			// position of ancestor's match
 			
 			for (int j = i; j < words.length; j++) {
 				
@@ -156,42 +246,126 @@ public final class ProductTrieBuilder implements ProductVisitor {
 					}
 				}
 			
-				// Get the product list associated with the node.
-				@SuppressWarnings("unchecked")
-				LinkedList<ProductMatch> products = (LinkedList<ProductMatch>) node.getData();
-				
-				/* create a new list at this node if needed. */
-				if (products == null) {
-					products = new LinkedList<ProductMatch>();
-					node.setData(products);
-				}
-
 				/* Associate the product with the current trie node if it not
-				 * already.  We need only examine the last node in the list
-				 * since we are processing one product fully before moving on
-				 * to the next one.
+				 * already.  Other products may be added to the same node by
+				 * other threads in the meantime, so we keep track of which
+				 * nodes this product has been added to (and where in their
+				 * lists) rather than examining the node's list.
 				 */
-				if (products.isEmpty() || product != products.getLast().getProduct()) {
-					ProductMatch match = new ProductMatch(product);
-					match.setMaximal(true);
-					products.addLast(match);
+				if (!added.containsKey(node)) {
+					int index;
+					synchronized (node) {
+						PendingMatches matches = getPendingMatches(node);
+						if (matches.size == matches.matches.length) {
+							matches.matches = Arrays.copyOf(matches.matches, 2 * matches.size);
+						}
+						index = matches.size++;
+						matches.matches[index] = ProductMatch.encode(product, true);
+					}
+					added.put(node, index);
 					
 					// ancestor is no longer maximal					
-					if (ancMatch != null) {
-						ancMatch.setMaximal(false);
+					if (ancestor != null) {
+						synchronized (ancestor) {
+							((PendingMatches) ancestor.getData()).matches[ancIndex] = ProductMatch.encode(product, false);
+						}
 					}
-					ancMatch = match;
+					ancestor = node;
+					ancIndex = index;
 				}
 			}
 		}
 
 	}
 	
+	/**
+	 * Gets the list of matches associated with a node, creating it if
+	 * required.  The caller must hold the lock on the node.
+	 * @param node The <code>TrieNode</code>.
+	 * @return The <code>PendingMatches</code> associated with
+	 * 		<code>node</code>.
+	 */
+	private static PendingMatches getPendingMatches(TrieNode node) {
+		Object data = node.getData();
+		if (data instanceof PendingMatches) {
+			return (PendingMatches) data;
+		}
+
+		/* Either there are no matches yet, or the matches were finished and
+		 * more products have since been added.
+		 */
+		PendingMatches matches = new PendingMatches();
+		if (data != null) {
+			int[] finished = ((MatchList) data).getMatches();
+			matches.matches = Arrays.copyOf(finished, Math.max(finished.length, 4));
+			matches.size = finished.length;
+		}
+		node.setData(matches);
+		return matches;
+	}
+
+	/**
+	 * Replaces the <code>PendingMatches</code> in the tries with
+	 * <code>MatchList</code>s, if products have been added since this was
+	 * last done.
+	 */
+	private void finish() {
+		if (dirty) {
+			finish(manufacturerRoot);
+			finish(modelRoot);
+			dirty = false;
+		}
+	}
+
+	/**
+	 * Replaces the <code>PendingMatches</code> in a trie with
+	 * <code>MatchList</code>s, which sort the matches and precompute the
+	 * maximal matches for each node so that this need not be done each time
+	 * a node is matched.
+	 * @param root The <code>TrieNode</code> at the root of the trie.
+	 */
+	private static void finish(TrieNode root) {
+
+		/* Find the nodes with matches and their ancestors. */
+		final List<TrieNode> nodes = new ArrayList<TrieNode>();
+		root.visitEdges(new TrieEdgeVisitor() {
+			public void visit(TrieNode parent, char c, TrieNode child) {
+				if (child.getData() != null) {
+					nodes.add(child);
+				}
+			}
+		});
+		Set<TrieNode> extensible = new HashSet<TrieNode>();
+		for (TrieNode node : nodes) {
+			TrieNode anc = node.getParent();
+			while (anc != null && extensible.add(anc)) {
+				anc = anc.getParent();
+			}
+		}
+
+		/* The flags of existing MatchLists may have changed if products were
+		 * added since they were created, so rebuild those as well.
+		 */
+		for (TrieNode node : nodes) {
+			Object data = node.getData();
+			boolean isExtensible = extensible.contains(node);
+			if (data instanceof PendingMatches) {
+				PendingMatches matches = (PendingMatches) data;
+				node.setData(new MatchList(
+						Arrays.copyOf(matches.matches, matches.size), isExtensible));
+			} else if (((MatchList) data).isExtensible() != isExtensible) {
+				node.setData(new MatchList(((MatchList) data).getMatches(), isExtensible));
+			}
+		}
+
+	}
+
 	/**
 	 * Gets the <code>TrieNode</code> at the root of the manufacturer trie. 
 	 * @return The <code>TrieNode</code> at the root of the manufacturer trie.
 	 */
 	public TrieNode getManufacturerRoot() {
+		finish();
 		return manufacturerRoot;
 	}
 	
@@ -200,7 +374,17 @@ public final class ProductTrieBuilder implements ProductVisitor {
 	 * @return The <code>TrieNode</code> at the root of the model name trie.
 	 */
 	public TrieNode getModelRoot() {
+		finish();
 		return modelRoot;
 	}
 
+	/**
+	 * Gets the <code>ProductStore</code> holding the products that have been
+	 * added.  The identifiers in the tries refer to this store.
+	 * @return The <code>ProductStore</code>.
+	 */
+	public ProductStore getProducts() {
+		return products;
+	}
+
 }
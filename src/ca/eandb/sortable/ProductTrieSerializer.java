@@ -0,0 +1,256 @@
+/**
+ * 
+ */
+package ca.eandb.sortable;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and writes precompiled product tries (as created by
+ * {@link ProductTrieBuilder}) in a compact binary format, so that the tries
+ * need only be built once and may then be shared by several processes.  The
+ * format consists of:
+ *
+ *   - a header (magic number and version),
+ *   - the products in the {@link ProductStore} referred to by the tries, in
+ *     order of their identifiers, and
+ *   - for each trie, the number of nodes followed by the nodes themselves in
+ *     breadth-first order.  Each node other than the root is identified by
+ *     the index of its parent and the <code>char</code> on the edge from its
+ *     parent, and is followed by the list of encoded matches stored at that
+ *     node (see {@link ProductMatch#encode(int, boolean)}).
+ *
+ * @author Brad Kimmel
+ */
+public final class ProductTrieSerializer {
+
+	/** The magic number identifying a precompiled product trie file. */
+	private static final int MAGIC = 0x534F5254; // "SORT"
+
+	/** The version of the file format. */
+	private static final int VERSION = 2;
+
+	/**
+	 * Writes the specified tries to a stream.
+	 * @param out The <code>OutputStream</code> to write to.
+	 * @param products The <code>ProductStore</code> holding the products
+	 * 		referred to by the tries.
+	 * @param roots The <code>TrieNode</code>s at the roots of the tries to
+	 * 		write.  The data associated with each node must be either
+	 * 		<code>null</code> or a <code>MatchList</code>.
+	 * @throws IOException If an error occurs while writing to
+	 * 		<code>out</code>.
+	 */
+	public static void write(OutputStream out, ProductStore products,
+			TrieNode... roots) throws IOException {
+
+		DataOutputStream data = new DataOutputStream(out);
+
+		/* Put the nodes of each trie in breadth-first order, so that each
+		 * node is written after its parent.
+		 */
+		List<List<TrieNode>> tries = new ArrayList<List<TrieNode>>();
+		List<Map<TrieNode, Character>> edges = new ArrayList<Map<TrieNode, Character>>();
+
+		for (TrieNode root : roots) {
+			Map<TrieNode, Character> chars = new HashMap<TrieNode, Character>();
+			List<TrieNode> nodes = breadthFirst(root, chars);
+			tries.add(nodes);
+			edges.add(chars);
+		}
+
+		data.writeInt(MAGIC);
+		data.writeInt(VERSION);
+
+		data.writeInt(products.size());
+		for (int id = 0; id < products.size(); id++) {
+			writeString(data, products.getName(id));
+			writeString(data, products.getManufacturer(id));
+			writeString(data, products.getModel(id));
+			writeString(data, products.getFamily(id));
+			writeString(data, products.getAnnouncedDate(id));
+		}
+
+		data.writeInt(tries.size());
+		for (int t = 0; t < tries.size(); t++) {
+			List<TrieNode> nodes = tries.get(t);
+			Map<TrieNode, Character> chars = edges.get(t);
+			Map<TrieNode, Integer> index = new HashMap<TrieNode, Integer>();
+
+			data.writeInt(nodes.size());
+			for (TrieNode node : nodes) {
+				index.put(node, index.size());
+				if (!node.isRoot()) {
+					data.writeInt(index.get(node.getParent()));
+					data.writeChar(chars.get(node));
+				}
+
+				MatchList matches = (MatchList) node.getData();
+				data.writeInt(matches != null ? matches.size() : 0);
+				if (matches != null) {
+					for (int match : matches.getMatches()) {
+						data.writeInt(match);
+					}
+				}
+			}
+		}
+
+		data.flush();
+
+	}
+
+	/**
+	 * Reads tries previously written using
+	 * {@link #write(OutputStream, ProductStore, TrieNode...)}.
+	 * @param in The <code>InputStream</code> to read from.
+	 * @param products The <code>ProductStore</code> to add the products
+	 * 		referred to by the tries to.  If the store is not empty, the
+	 * 		identifiers in the tries are adjusted accordingly.
+	 * @return The <code>TrieNode</code>s at the roots of the tries, in the
+	 * 		order in which they were written.
+	 * @throws IOException If an error occurs while reading from
+	 * 		<code>in</code>, or if <code>in</code> does not contain a
+	 * 		precompiled product trie.
+	 */
+	public static TrieNode[] read(InputStream in, ProductStore products) throws IOException {
+
+		DataInputStream data = new DataInputStream(in);
+
+		if (data.readInt() != MAGIC) {
+			throw new IOException("Not a precompiled product trie.");
+		}
+		int version = data.readInt();
+		if (version != VERSION) {
+			throw new IOException("Unsupported precompiled product trie version: " + version);
+		}
+
+		int base = products.size();
+		int count = data.readInt();
+		for (int i = 0; i < count; i++) {
+			products.add(new Product(
+					readString(data),
+					readString(data),
+					readString(data),
+					readString(data),
+					readString(data)));
+		}
+
+		TrieNode[] roots = new TrieNode[data.readInt()];
+		for (int t = 0; t < roots.length; t++) {
+			TrieNode[] nodes = new TrieNode[data.readInt()];
+			int[] parents = new int[nodes.length];
+			int[][] matches = new int[nodes.length][];
+			for (int i = 0; i < nodes.length; i++) {
+				if (i == 0) {
+					nodes[i] = new TrieNode();
+				} else {
+					parents[i] = data.readInt();
+					nodes[i] = nodes[parents[i]].insert(data.readChar());
+				}
+
+				int n = data.readInt();
+				if (n > 0) {
+					matches[i] = new int[n];
+					for (int j = 0; j < n; j++) {
+						int match = data.readInt();
+						matches[i][j] = ProductMatch.encode(
+								base + ProductMatch.getProductId(match),
+								ProductMatch.isMaximal(match));
+					}
+				}
+			}
+
+			/* Since each node follows its parent, visiting the nodes in
+			 * reverse order visits each node after all of its descendants.
+			 */
+			boolean[] extensible = new boolean[nodes.length];
+			for (int i = nodes.length - 1; i > 0; i--) {
+				if (matches[i] != null || extensible[i]) {
+					extensible[parents[i]] = true;
+				}
+			}
+			for (int i = 0; i < nodes.length; i++) {
+				if (matches[i] != null) {
+					nodes[i].setData(new MatchList(matches[i], extensible[i]));
+				}
+			}
+			roots[t] = nodes[0];
+		}
+
+		return roots;
+
+	}
+
+	/**
+	 * Lists the nodes of a trie in breadth-first order.
+	 * @param root The <code>TrieNode</code> at the root of the trie.
+	 * @param chars A <code>Map</code> to populate with the <code>char</code>
+	 * 		on the edge leading to each node.
+	 * @return The <code>List</code> of <code>TrieNode</code>s in the trie,
+	 * 		starting with <code>root</code>.
+	 */
+	private static List<TrieNode> breadthFirst(TrieNode root,
+			final Map<TrieNode, Character> chars) {
+
+		final Map<TrieNode, List<TrieNode>> children = new HashMap<TrieNode, List<TrieNode>>();
+		root.visitEdges(new TrieEdgeVisitor() {
+			public void visit(TrieNode parent, char c, TrieNode child) {
+				List<TrieNode> list = children.get(parent);
+				if (list == null) {
+					list = new ArrayList<TrieNode>();
+					children.put(parent, list);
+				}
+				list.add(child);
+				chars.put(child, c);
+			}
+		});
+
+		List<TrieNode> nodes = new ArrayList<TrieNode>();
+		nodes.add(root);
+		for (int i = 0; i < nodes.size(); i++) {
+			List<TrieNode> list = children.get(nodes.get(i));
+			if (list != null) {
+				nodes.addAll(list);
+			}
+		}
+		return nodes;
+
+	}
+
+	/**
+	 * Writes a (possibly <code>null</code>) <code>String</code>.
+	 * @param out The <code>DataOutputStream</code> to write to.
+	 * @param s The <code>String</code> to write.
+	 * @throws IOException If an error occurs while writing to
+	 * 		<code>out</code>.
+	 */
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		out.writeBoolean(s != null);
+		if (s != null) {
+			out.writeUTF(s);
+		}
+	}
+
+	/**
+	 * Reads a (possibly <code>null</code>) <code>String</code>.
+	 * @param in The <code>DataInputStream</code> to read from.
+	 * @return The <code>String</code> that was read.
+	 * @throws IOException If an error occurs while reading from
+	 * 		<code>in</code>.
+	 */
+	private static String readString(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	/** Private constructor. */
+	private ProductTrieSerializer() {}
+
+}
@@ -0,0 +1,300 @@
+/**
+ * 
+ */
+package ca.eandb.sortable;
+
+import java.io.File;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A <code>MatchEngine</code> that watches a product catalog file and, when it
+ * changes, builds new tries from it on a background thread and swaps them in
+ * without pausing matching.
+ *
+ * Each listing is matched entirely against one snapshot of the catalog: the
+ * <code>Set</code> returned by {@link #matchManufacturer(CharSequence)}
+ * remembers the engine that produced it, and
+ * {@link #matchModel(CharSequence, Set)} completes the match using that same
+ * engine (the product identifiers in the set are only meaningful to it).  A
+ * listing in flight when the catalog is swapped therefore finishes against
+ * the old snapshot, while listings started afterwards use the new one.  No
+ * reference to the old snapshot is kept once it is replaced, so it is
+ * reclaimed by the garbage collector as soon as the last such listing
+ * completes.
+ *
+ * The catalog file is polled for changes to its modification time or length.
+ * A change is acted upon only once the file has remained unchanged for a full
+ * polling interval, so that a file that is still being written is not read.
+ * If the new catalog cannot be read, the error is reported and the current
+ * snapshot remains in use until the file changes again.  Each snapshot is
+ * built by a {@link Loader}, so that it is built the same way as the engine
+ * created at startup.
+ *
+ * @author Brad Kimmel
+ */
+public final class ReloadingMatchEngine implements MatchEngine {
+
+	/**
+	 * Builds the <code>MatchEngine</code> for a snapshot of the product
+	 * catalog.
+	 */
+	public static interface Loader {
+
+		/**
+		 * Reads a product catalog and builds a <code>MatchEngine</code> for
+		 * it.
+		 * @param catalog The product catalog file.
+		 * @return The new <code>MatchEngine</code>.
+		 * @throws Exception If the catalog cannot be read.
+		 */
+		MatchEngine load(File catalog) throws Exception;
+
+	}
+
+	/**
+	 * A <code>Set</code> of matches paired with the engine that produced it.
+	 */
+	private static final class PinnedSet extends AbstractSet<ProductMatch> {
+
+		/** The <code>MatchEngine</code> that produced the matches. */
+		public final MatchEngine engine;
+
+		/** The matches. */
+		public final Set<ProductMatch> matches;
+
+		/**
+		 * Creates a new <code>PinnedSet</code>.
+		 * @param engine The <code>MatchEngine</code> that produced the
+		 * 		matches.
+		 * @param matches The matches.
+		 */
+		public PinnedSet(MatchEngine engine, Set<ProductMatch> matches) {
+			this.engine = engine;
+			this.matches = matches;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.AbstractCollection#iterator()
+		 */
+		@Override
+		public Iterator<ProductMatch> iterator() {
+			return matches.iterator();
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.AbstractCollection#size()
+		 */
+		@Override
+		public int size() {
+			return matches.size();
+		}
+
+	}
+
+	/** The product catalog file to watch. */
+	private final File catalog;
+
+	/** The <code>Loader</code> used to build each new snapshot. */
+	private final Loader loader;
+
+	/** The <code>MatchEngine</code> for the current snapshot. */
+	private volatile MatchEngine engine;
+
+	/**
+	 * The counters of the number of times the work budget was exhausted by
+	 * the engines of snapshots that have been replaced.  The counters
+	 * themselves are kept, rather than their values at the time of the swap,
+	 * so that listings still being matched against a replaced snapshot are
+	 * counted as they finish.  The engines are not kept, so that they may
+	 * still be reclaimed.
+	 */
+	private final List<AtomicLong> retiredBudgetExceeded = new CopyOnWriteArrayList<AtomicLong>();
+
+	/**
+	 * The number of times the work budget was exhausted by the engines of
+	 * replaced snapshots that do not expose their counters, sampled when
+	 * they were replaced.
+	 */
+	private final AtomicLong retiredBudgetExceededSampled = new AtomicLong();
+
+	/**
+	 * The <code>MatchTracer</code> to give to each new trie engine, or
+	 * <code>null</code> if tracing is disabled.
+	 */
+	private volatile MatchTracer tracer = null;
+
+	/** The thread that polls the catalog file. */
+	private final Thread watcher;
+
+	/**
+	 * Creates a new <code>ReloadingMatchEngine</code> and starts watching the
+	 * catalog file.
+	 * @param catalog The product catalog file to watch.
+	 * @param loader The <code>Loader</code> used to build each new
+	 * 		snapshot.
+	 * @param initial The <code>MatchEngine</code> for the catalog as it is
+	 * 		now.
+	 * @param interval The number of milliseconds between checks for changes
+	 * 		to the catalog file.
+	 */
+	public ReloadingMatchEngine(File catalog, Loader loader,
+			MatchEngine initial, final long interval) {
+		this.catalog = catalog;
+		this.loader = loader;
+		this.engine = initial;
+		this.watcher = new Thread(new Runnable() {
+			public void run() {
+				try {
+					watch(interval);
+				} catch (InterruptedException e) {
+					/* nothing to do. */
+				}
+			}
+		}, "catalog-reloader");
+		this.watcher.setDaemon(true);
+		this.watcher.start();
+	}
+
+	/**
+	 * Stops watching the catalog file.  The current snapshot remains in use.
+	 */
+	public void close() {
+		watcher.interrupt();
+	}
+
+	/* (non-Javadoc)
+	 * @see ca.eandb.sortable.MatchEngine#matchManufacturer(java.lang.CharSequence)
+	 */
+	@Override
+	public Set<ProductMatch> matchManufacturer(CharSequence manufacturer) {
+		MatchEngine current = engine;
+		Set<ProductMatch> matches = current.matchManufacturer(manufacturer);
+		return matches != null ? new PinnedSet(current, matches) : null;
+	}
+
+	/* (non-Javadoc)
+	 * @see ca.eandb.sortable.MatchEngine#matchModel(java.lang.CharSequence, java.util.Set)
+	 */
+	@Override
+	public Product matchModel(CharSequence title, Set<ProductMatch> manufacturerProducts) {
+		if (manufacturerProducts instanceof PinnedSet) {
+			PinnedSet pinned = (PinnedSet) manufacturerProducts;
+			return pinned.engine.matchModel(title, pinned.matches);
+		}
+		return engine.matchModel(title, manufacturerProducts);
+	}
+
+	/* (non-Javadoc)
+	 * @see ca.eandb.sortable.MatchEngine#getBudgetExceededCount()
+	 */
+	@Override
+	public long getBudgetExceededCount() {
+		long count = retiredBudgetExceededSampled.get() + engine.getBudgetExceededCount();
+		for (AtomicLong retired : retiredBudgetExceeded) {
+			count += retired.get();
+		}
+		return count;
+	}
+
+	/**
+	 * Polls the catalog file for changes until interrupted, reloading it
+	 * whenever it changes.
+	 * @param interval The number of milliseconds between checks.
+	 * @throws InterruptedException If the thread is interrupted.
+	 */
+	private void watch(long interval) throws InterruptedException {
+		long loadedModified = catalog.lastModified();
+		long loadedLength = catalog.length();
+		long pendingModified = loadedModified;
+		long pendingLength = loadedLength;
+
+		while (true) {
+			Thread.sleep(interval);
+
+			long modified = catalog.lastModified();
+			long length = catalog.length();
+			if (modified == loadedModified && length == loadedLength) {
+				continue;
+			}
+
+			/* Wait until the file stops changing before reading it. */
+			if (modified != pendingModified || length != pendingLength) {
+				pendingModified = modified;
+				pendingLength = length;
+				continue;
+			}
+
+			reload();
+			loadedModified = modified;
+			loadedLength = length;
+		}
+	}
+
+	/**
+	 * Sets the <code>MatchTracer</code> used to trace the matching of a
+	 * sample of listings, by the current snapshot and by each snapshot
+	 * swapped in afterwards, if they match using tries.  This must be called
+	 * before matching begins.
+	 * @param tracer The <code>MatchTracer</code> to use, or <code>null</code>
+	 * 		to disable tracing.
+	 * @see TrieMatchEngine#setTracer(MatchTracer)
+	 */
+	public void setTracer(MatchTracer tracer) {
+		this.tracer = tracer;
+		MatchEngine current = engine;
+		if (current instanceof TrieMatchEngine) {
+			((TrieMatchEngine) current).setTracer(tracer);
+		}
+	}
+
+	/**
+	 * Builds a new snapshot from the catalog file and swaps it in.  If the
+	 * catalog cannot be read, the error is reported and the current snapshot
+	 * is kept.
+	 */
+	private void reload() {
+		try {
+			long start = System.currentTimeMillis();
+
+			MatchEngine next = loader.load(catalog);
+
+			if (tracer != null && next instanceof TrieMatchEngine) {
+				((TrieMatchEngine) next).setTracer(tracer);
+			}
+
+			MatchEngine previous = engine;
+			engine = next;
+			retire(previous);
+
+			long end = System.currentTimeMillis();
+			System.err.printf(
+					"Reloaded product catalog in %dms.",
+					end - start);
+			System.err.println();
+		} catch (Exception e) {
+			System.err.printf("Failed to reload product catalog: %s", e);
+			System.err.println();
+		}
+	}
+
+	/**
+	 * Keeps the work budget counter of the engine of a snapshot that has
+	 * been replaced.
+	 * @param previous The <code>MatchEngine</code> that was replaced.
+	 */
+	private void retire(MatchEngine previous) {
+		if (previous instanceof TrieMatchEngine) {
+			retiredBudgetExceeded.add(((TrieMatchEngine) previous).getBudgetExceededCounter());
+		} else if (previous instanceof PostingMatchEngine) {
+			retiredBudgetExceeded.add(((PostingMatchEngine) previous).getBudgetExceededCounter());
+		} else {
+			retiredBudgetExceededSampled.addAndGet(previous.getBudgetExceededCount());
+		}
+	}
+
+}
@@ -0,0 +1,150 @@
+/**
+ * 
+ */
+package ca.eandb.sortable;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.util.List;
+
+/**
+ * An application that measures how the matcher scales with the size of its
+ * input and the number of threads used.  For each size in a sweep, a
+ * synthetic catalog and collection of listings are generated (see
+ * {@link SyntheticData}), and the full program is run on them with the
+ * listings matched by a pipeline (see
+ * {@link ca.eandb.sortable.json.PipelinedListingReader}) using each number of
+ * matcher threads in turn.  Each run takes place in a separate process (see
+ * {@link ScalabilityProbe}), which reports its elapsed time, peak heap usage,
+ * and time spent in garbage collection.  Everything runs locally; no network
+ * access is required.
+ *
+ * The sweep is controlled by the following properties:
+ *
+ *   - <code>ca.eandb.sortable.sweep.sizes</code> - a comma-separated list of
+ *     sizes, each given as the number of products and the number of listings
+ *     separated by a colon (default: 1000:20000,10000:200000,100000:2000000),
+ *   - <code>ca.eandb.sortable.sweep.threads</code> - a comma-separated list
+ *     of numbers of matcher threads (default: 1,2,4), and
+ *   - <code>ca.eandb.sortable.sweep.jvmArgs</code> - a space-separated list
+ *     of arguments to pass to the JVM of each run (e.g., "-Xmx8g").
+ *
+ * The <code>ca.eandb.sortable.synth.*</code> properties control the other
+ * characteristics of the generated data, and all other
+ * <code>ca.eandb.sortable.*</code> properties are passed on to each run.  The
+ * results are printed to <code>System.out</code> as tab-separated values,
+ * one line per run.
+ *
+ * @author Brad Kimmel
+ */
+public final class ScalabilityDriver {
+
+	/**
+	 * Usage: ca.eandb.sortable.ScalabilityDriver <work_dir>
+	 * Measures throughput, peak heap usage, and garbage collection time for a
+	 * sweep of input sizes and thread counts.
+	 *
+	 *   <work_dir> - The directory in which to write the generated data and
+	 *                the results of each run.
+	 *
+	 * @param args The program arguments as specified above.
+	 */
+	public static void main(String[] args) {
+
+		if (args.length != 1) {
+			System.out.printf("Usage: %s <work_dir>", ScalabilityDriver.class.getName());
+			System.out.println();
+			System.exit(1);
+		}
+
+		try {
+
+			File workDir = new File(args[0]);
+			workDir.mkdirs();
+
+			String[] sizes = System.getProperty("ca.eandb.sortable.sweep.sizes",
+					"1000:20000,10000:200000,100000:2000000").split(",");
+			String[] threads = System.getProperty("ca.eandb.sortable.sweep.threads", "1,2,4").split(",");
+			String jvmArgs = System.getProperty("ca.eandb.sortable.sweep.jvmArgs", "").trim();
+
+			System.out.println("products\tlistings\tthreads\telapsed_ms\tlistings_per_sec\tpeak_heap_mb\tgc_ms\tgc_count");
+
+			for (String size : sizes) {
+				String[] parts = size.trim().split(":");
+				long numProducts = Long.parseLong(parts[0]);
+				long numListings = Long.parseLong(parts[1]);
+
+				File products = new File(workDir, String.format("products-%d.txt", numProducts));
+				File listings = new File(workDir, String.format("listings-%d-%d.txt", numProducts, numListings));
+				File output = new File(workDir, "results.txt");
+
+				SyntheticData data = new SyntheticData(numProducts, numListings);
+				long start = System.currentTimeMillis();
+				data.writeProducts(products);
+				data.writeListings(listings);
+				long end = System.currentTimeMillis();
+
+				System.err.printf(
+						"Time required to generate %d products and %d listings: %dms",
+						numProducts, numListings, end - start);
+				System.err.println();
+
+				for (String t : threads) {
+					int numThreads = Integer.parseInt(t.trim());
+					List<String> command = WorkerProcess.command(ScalabilityProbe.class,
+							products.getPath(), listings.getPath(), output.getPath());
+
+					// Add the JVM arguments and the pipeline settings for
+					// this run ahead of the main class, overriding those
+					// passed on from this process.
+					int main = command.indexOf(ScalabilityProbe.class.getName());
+					if (jvmArgs.length() > 0) {
+						for (String arg : jvmArgs.split("\\s+")) {
+							command.add(main++, arg);
+						}
+					}
+					command.add(main++, "-Dca.eandb.sortable.pipeline=true");
+					command.add(main++, "-Dca.eandb.sortable.matcherThreads=" + numThreads);
+
+					ProcessBuilder builder = new ProcessBuilder(command);
+					Process process = builder.start();
+					WorkerProcess.startCopyToStderr(process.getErrorStream());
+
+					BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+					String report = null;
+					String line;
+					while ((line = reader.readLine()) != null) {
+						report = line;
+					}
+					int status = process.waitFor();
+					if (status != 0 || report == null) {
+						System.err.printf("Run with %d threads failed (exit status %d).", numThreads, status);
+						System.err.println();
+						continue;
+					}
+
+					String[] fields = report.split("\t");
+					long elapsed = Long.parseLong(fields[0]);
+					long peakHeap = Long.parseLong(fields[1]);
+					System.out.printf("%d\t%d\t%d\t%d\t%.0f\t%.1f\t%s\t%s",
+							numProducts, numListings, numThreads, elapsed,
+							1000.0 * (double) numListings / (double) Math.max(elapsed, 1),
+							(double) peakHeap / (1024.0 * 1024.0),
+							fields[2], fields[3]);
+					System.out.println();
+				}
+
+				output.delete();
+			}
+
+		} catch (Exception e) {
+
+			// For now just print the error if one occurs.
+			e.printStackTrace();
+
+		}
+
+	}
+
+}
@@ -0,0 +1,76 @@
+/**
+ * 
+ */
+package ca.eandb.sortable;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+/**
+ * An application that runs {@link SortableChallenge} and then reports the
+ * resources it used, for use by {@link ScalabilityDriver}.  It is run in a
+ * separate process for each measurement, so that the measurements are not
+ * affected by one another.  The report is printed to <code>System.out</code>
+ * as a single line of tab-separated values: the elapsed time in
+ * milliseconds, the peak heap usage in bytes (the sum of the peak usage of
+ * each heap memory pool), the time spent in garbage collection in
+ * milliseconds, and the number of garbage collections.  If the run fails,
+ * nothing is reported and the process exits with a non-zero status.
+ *
+ * @author Brad Kimmel
+ */
+public final class ScalabilityProbe {
+
+	/**
+	 * Usage: ca.eandb.sortable.ScalabilityProbe <products_file>
+	 *        <listings_file> <output_file>
+	 * Runs SortableChallenge with the given arguments and reports the
+	 * resources used.
+	 *
+	 * @param args The program arguments as specified above.
+	 */
+	public static void main(String[] args) {
+
+		if (args.length != 3) {
+			System.out.printf("Usage: %s <products_file> <listings_file> <output_file>", ScalabilityProbe.class.getName());
+			System.out.println();
+			System.exit(1);
+		}
+
+		long start = System.currentTimeMillis();
+		try {
+
+			SortableChallenge.run(args);
+
+		} catch (Exception e) {
+
+			// Report the failure through the exit status, so that the run is
+			// not mistaken for a successful measurement.
+			e.printStackTrace();
+			System.exit(1);
+
+		}
+		long end = System.currentTimeMillis();
+
+		long peakHeap = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				peakHeap += pool.getPeakUsage().getUsed();
+			}
+		}
+
+		long gcTime = 0;
+		long gcCount = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			gcTime += Math.max(gc.getCollectionTime(), 0);
+			gcCount += Math.max(gc.getCollectionCount(), 0);
+		}
+
+		System.out.printf("%d\t%d\t%d\t%d", end - start, peakHeap, gcTime, gcCount);
+		System.out.println();
+
+	}
+
+}
@@ -0,0 +1,63 @@
+/**
+ * 
+ */
+package ca.eandb.sortable;
+
+/**
+ * A <code>ProductVisitor</code> that passes on only those
+ * <code>Product</code>s belonging to a particular shard of the catalog.
+ * Products are assigned to shards according to their (normalized)
+ * manufacturer, so that all of the products from a given manufacturer belong
+ * to the same shard.
+ * 
+ * @author Brad Kimmel
+ */
+public final class ShardFilter implements ProductVisitor {
+	
+	/** The <code>ProductVisitor</code> to pass matching products on to. */
+	private final ProductVisitor inner;
+	
+	/** The index of the shard to accept products for. */
+	private final int shard;
+	
+	/** The total number of shards. */
+	private final int shards;
+
+	/**
+	 * Creates a new <code>ShardFilter</code>.
+	 * @param inner The <code>ProductVisitor</code> to pass matching products
+	 * 		on to.
+	 * @param shard The index of the shard to accept products for.
+	 * @param shards The total number of shards.
+	 */
+	public ShardFilter(ProductVisitor inner, int shard, int shards) {
+		this.inner = inner;
+		this.shard = shard;
+		this.shards = shards;
+	}
+
+	/* (non-Javadoc)
+	 * @see ca.eandb.sortable.ProductVisitor#visit(ca.eandb.sortable.Product)
+	 */
+	@Override
+	public void visit(Product product) {
+		if (shardOf(product.getManufacturer(), shards) == shard) {
+			inner.visit(product);
+		}
+	}
+	
+	/**
+	 * Determines which shard a manufacturer belongs to.  The result depends
+	 * only on the normalized manufacturer name, so it is the same in every
+	 * process.
+	 * @param manufacturer The name of the manufacturer.
+	 * @param shards The total number of shards.
+	 * @return The index of the shard, between <code>0</code> (inclusive) and
+	 * 		<code>shards</code> (exclusive).
+	 */
+	public static int shardOf(String manufacturer, int shards) {
+		int hash = StringUtil.normalize(manufacturer).hashCode();
+		return (hash & 0x7fffffff) % shards;
+	}
+
+}
@@ -0,0 +1,92 @@
+/**
+ * 
+ */
+package ca.eandb.sortable;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+
+import ca.eandb.sortable.json.JSONListingReader;
+import ca.eandb.sortable.json.JSONProductReader;
+
+/**
+ * An application that matches listings against one shard of the product
+ * catalog (see {@link ShardFilter}).  Instances of this application are
+ * launched by a {@link ca.eandb.sortable.json.ShardRouter}, which sends it
+ * listings on stdin, one per line.  For each listing, one line is written to
+ * stdout: the matching product as a JSON object, or an empty line if the
+ * listing does not match exactly one product in this shard.
+ * 
+ * @author Brad Kimmel
+ */
+public final class ShardWorker {
+
+	/**
+	 * Usage: ca.eandb.sortable.ShardWorker <products_file> <shard> <shards>
+	 * Matches listings read from stdin against one shard of the products.
+	 *
+	 *   <products_file> - A file containing a list of products formatted as JSON
+	 *                     objects, one per line.
+	 *   <shard>         - The index of the shard (starting at 0).
+	 *   <shards>        - The total number of shards.
+	 *                     
+	 * @param args The program arguments as specified above.
+	 */
+	public static void main(String[] args) {
+		
+		if (args.length != 3) {
+			System.out.printf("Usage: %s <products_file> <shard> <shards>", ShardWorker.class.getName());
+			System.out.println();
+			System.exit(1);
+		}
+		
+		try {
+			
+			int shard = Integer.parseInt(args[1]);
+			int shards = Integer.parseInt(args[2]);
+			
+			ProductTrieBuilder builder = new ProductTrieBuilder();
+			Catalogs.read(new File(args[0]), new ShardFilter(builder, shard, shards));
+			
+			JSONListingReader listingReader = new JSONListingReader(
+					builder.getProducts(), builder.getManufacturerRoot(),
+					builder.getModelRoot());
+			BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+			PrintWriter out = new PrintWriter(System.out);
+			JSONParser parser = new JSONParser();
+
+			while (true) {
+				String line = in.readLine();
+				if (line == null) {
+					break;
+				}
+				
+				Product product = listingReader.match((JSONObject) parser.parse(line));
+				if (product != null) {
+					JSONProductReader.toJSON(product).writeJSONString(out);
+				}
+				out.println();
+				
+				// Don't hold on to results while waiting for more input.
+				if (!in.ready()) {
+					out.flush();
+				}
+			}
+			
+			out.flush();
+			
+		} catch (Exception e) {
+			
+			e.printStackTrace();
+			System.exit(1);
+			
+		}
+		
+	}
+
+}
@@ -3,15 +3,31 @@
  */
 package ca.eandb.sortable;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.Reader;
 import java.io.Writer;
+import java.util.regex.Pattern;
 
+import org.json.simple.parser.ParseException;
+
+import ca.eandb.sortable.json.ByteListingReader;
 import ca.eandb.sortable.json.JSONListingReader;
-import ca.eandb.sortable.json.JSONProductReader;
+import ca.eandb.sortable.json.MatcherWarmup;
+import ca.eandb.sortable.json.PipelinedListingReader;
+import ca.eandb.sortable.json.ShardRouter;
+import ca.eandb.sortable.json.TrieLayoutOptimizer;
 
 /**
  * An application that matches product listings to a collection of known
@@ -48,49 +64,401 @@ public final class SortableChallenge {
 
 		try {
 			
-			// Read the products from the products file and build the data
-			// structures necessary to process the listings.
-			JSONProductReader productReader = new JSONProductReader();
-			Reader reader = new FileReader(args[0]);
-			ProductTrieBuilder builder = new ProductTrieBuilder();
+			run(args);
+			
+		} catch (Exception e) {
+
+			// For now just print the error if one occurs.
+			e.printStackTrace();
+			
+		}
+		
+	}
+	
+	/**
+	 * Matches listings against a collection of products, as described for
+	 * {@link #main(String[])}, but propagates any error that occurs rather
+	 * than printing it.
+	 * @param args The program arguments (see {@link #main(String[])}).
+	 * @throws Exception If an error occurs while reading the products or
+	 * 		listings, or while writing the results.
+	 */
+	public static void run(String[] args) throws Exception {
+		
+		// If requested, shard the products among several worker processes
+		// by manufacturer, rather than building the tries here.
+		int shards = Integer.parseInt(System.getProperty("ca.eandb.sortable.shards", "0"));
+		if (shards > 0) {
+			String unsupported = getUnsupportedShardOption();
+			if (unsupported != null) {
+				System.err.printf("ca.eandb.sortable.%s is not supported with shards.", unsupported);
+				System.err.println();
+				System.exit(1);
+			}
+			
+			Reader reader = args.length > 1 && !args[1].equals("-") ? 
+				new FileReader(args[1]) : 
+				new InputStreamReader(System.in);
+			Writer out = args.length > 2 && !args[2].equals("-") ?
+				new FileWriter(args[2]) : 
+				new PrintWriter(System.out);
+			ShardRouter router = new ShardRouter(new File(args[0]), shards);
 			
 			long start = System.currentTimeMillis();
-			productReader.read(reader, builder);
+			router.read(reader, out);
 			long end = System.currentTimeMillis();
 			
 			System.err.printf(
-					"Time required to build product data structures: %dms",
+					"Time required to analyse listings: %dms",
 					end - start);
 			System.err.println();
+			return;
+		}
+		
+		// Read the products from the products file and build the data
+		// structures necessary to process the listings.  If requested,
+		// read partitions of the file into the tries concurrently.
+		final int buildThreads = Integer.parseInt(System.getProperty("ca.eandb.sortable.buildThreads", "1"));
+		ProductTrieBuilder builder = new ProductTrieBuilder(buildThreads > 1);
+		
+		long start = System.currentTimeMillis();
+		Catalogs.read(new File(args[0]), builder, buildThreads);
+		long end = System.currentTimeMillis();
+		
+		System.err.printf(
+				"Time required to build product data structures: %dms",
+				end - start);
+		System.err.println();
+		
+		Writer out = args.length > 2 && !args[2].equals("-") ?
+			new FileWriter(args[2]) : 
+			new PrintWriter(System.out);
 			
-			// Read the listings, match them against the products, and print
-			// the results.
-			reader = args.length > 1 && !args[1].equals("-") ? 
-				new FileReader(args[1]) : 
-				new InputStreamReader(System.in);
-			JSONListingReader listingReader = new JSONListingReader(
-					builder.getManufacturerRoot(), builder.getModelRoot());
+		// If requested, split the listings among several worker
+		// processes.
+		int workers = Integer.parseInt(System.getProperty("ca.eandb.sortable.workers", "0"));
+		if (workers > 0) {
+			if (args.length < 2 || args[1].equals("-")) {
+				System.err.println("A listings file is required when using worker processes.");
+				System.exit(1);
+			}
+			String unsupported = getUnsupportedWorkerOption();
+			if (unsupported != null) {
+				System.err.printf("ca.eandb.sortable.%s is not supported with worker processes.", unsupported);
+				System.err.println();
+				System.exit(1);
+			}
+			
+			int partitions = Integer.parseInt(System.getProperty(
+					"ca.eandb.sortable.partitions", Integer.toString(workers)));
+			String workDir = System.getProperty("ca.eandb.sortable.workDir");
+			PartitionCoordinator coordinator = new PartitionCoordinator(
+					workers, partitions, workDir != null ? new File(workDir) : null);
 			
-			Writer out = args.length > 2 && !args[2].equals("-") ?
-				new FileWriter(args[2]) : 
-				new PrintWriter(System.out);
-				
 			start = System.currentTimeMillis();
-			listingReader.read(reader, out);
+			coordinator.run(builder, new File(args[1]), out);
 			end = System.currentTimeMillis();
 			
 			System.err.printf(
 					"Time required to analyse listings: %dms",
 					end - start);
 			System.err.println();
+			return;
+		}
+		
+		// Read the listings, match them against the products, and print
+		// the results.
+		Reader reader = args.length > 1 && !args[1].equals("-") ? 
+			new FileReader(args[1]) : 
+			new InputStreamReader(System.in);
+		
+		// If requested, read the listings as UTF-8 bytes and match them
+		// without decoding them to strings.  The words of each listing
+		// are followed directly down frozen tries.  Fuzzy matching also
+		// uses frozen tries, so that it can enumerate the children of each
+		// node rather than probing for every possible character.
+		boolean byteMode = Boolean.parseBoolean(System.getProperty("ca.eandb.sortable.byteMode", "false"));
+		boolean fuzzy = Integer.parseInt(System.getProperty("ca.eandb.sortable.fuzzyDistance", "0")) > 0;
+		final boolean freeze = byteMode || fuzzy;
+		
+		// Select the engine used to match listings against the tries.
+		final String engine = System.getProperty("ca.eandb.sortable.engine", "trie");
+		if (fuzzy && engine.equals("postings")) {
+			System.err.println("Fuzzy matching is not supported by the postings engine.");
+			System.exit(1);
+		}
+		MatchEngine matchEngine = createEngine(builder, engine, freeze);
+		
+		// If requested, watch the products file and swap in new tries
+		// whenever it changes.
+		long reloadInterval = Long.parseLong(System.getProperty("ca.eandb.sortable.reloadInterval", "0"));
+		ReloadingMatchEngine reloadingEngine = null;
+		if (reloadInterval > 0) {
+			ReloadingMatchEngine.Loader loader = new ReloadingMatchEngine.Loader() {
+				public MatchEngine load(File catalog) throws Exception {
+					ProductTrieBuilder builder = new ProductTrieBuilder(buildThreads > 1);
+					Catalogs.read(catalog, builder, buildThreads);
+					return createEngine(builder, engine, freeze);
+				}
+			};
+			reloadingEngine = new ReloadingMatchEngine(new File(args[0]), loader, matchEngine, reloadInterval);
+			matchEngine = reloadingEngine;
+		}
+		if (byteMode && !(matchEngine instanceof TrieMatchEngine)) {
+			System.err.println("Byte mode requires the trie engine without reloading; reading listings as text.");
+			byteMode = false;
+		}
+		
+		// If requested, match a built-in training set of listings a
+		// number of times so that the matcher has been compiled before
+		// the real listings are read.
+		int warmup = Integer.parseInt(System.getProperty("ca.eandb.sortable.warmup", "0"));
+		if (warmup > 0) {
+			start = System.currentTimeMillis();
+			MatcherWarmup.run(matchEngine, warmup);
+			end = System.currentTimeMillis();
 			
-		} catch (Exception e) {
-
-			// For now just print the error if one occurs.
-			e.printStackTrace();
+			System.err.printf(
+					"Time required to warm up matcher: %dms",
+					end - start);
+			System.err.println();
+		}
+		
+		// Exclude the listings matched during warm-up from the number of
+		// times the step budget is reported to have been exceeded.
+		long warmupBudgetExceeded = matchEngine.getBudgetExceededCount();
+		
+		// If requested, trace how a sample of the listings are matched.
+		String traceLog = System.getProperty("ca.eandb.sortable.traceLog");
+		MatchTracer tracer = null;
+		if (traceLog != null) {
+			String traceMatch = System.getProperty("ca.eandb.sortable.traceMatch");
+			tracer = new MatchTracer(
+					Integer.parseInt(System.getProperty("ca.eandb.sortable.traceSample", "0")),
+					traceMatch != null ? Pattern.compile(traceMatch, Pattern.CASE_INSENSITIVE) : null,
+					Integer.parseInt(System.getProperty("ca.eandb.sortable.traceCapacity", "1000")));
+			if (matchEngine instanceof TrieMatchEngine) {
+				((TrieMatchEngine) matchEngine).setTracer(tracer);
+			} else if (reloadingEngine != null) {
+				reloadingEngine.setTracer(tracer);
+			} else {
+				System.err.println("Tracing is only supported by the trie engine.");
+			}
+		}
+		JSONListingReader listingReader = new JSONListingReader(matchEngine);
+		
+		// If requested, write an index of the listings so that they may
+		// later be rematched incrementally when the products change.
+		String listingIndex = System.getProperty("ca.eandb.sortable.listingIndex");
+		
+		start = System.currentTimeMillis();
+		if (listingIndex != null) {
+			if (args.length < 2 || args[1].equals("-")) {
+				System.err.println("A listings file is required when writing a listing index.");
+				System.exit(1);
+			}
+			reader.close();
+			
+			ListingIndex index = new ListingIndex(ListingIndex.depth(builder.getModelRoot()));
+			listingReader.read(new BufferedInputStream(new FileInputStream(args[1])), out, index);
+			
+			OutputStream indexOut = new BufferedOutputStream(new FileOutputStream(listingIndex));
+			index.write(indexOut);
+			indexOut.close();
+		} else if (Boolean.parseBoolean(System.getProperty("ca.eandb.sortable.matchLog", "false"))) {
+			// Write a compact binary log in place of the JSON results.
+			InputStream in = System.in;
+			if (args.length > 1 && !args[1].equals("-")) {
+				reader.close();
+				in = new BufferedInputStream(new FileInputStream(args[1]));
+			}
+			boolean toFile = args.length > 2 && !args[2].equals("-");
+			if (toFile) {
+				out.close();
+			}
+			OutputStream logOut = new BufferedOutputStream(toFile ?
+				new FileOutputStream(args[2]) :
+				System.out);
+			if (byteMode) {
+				new ByteListingReader((TrieMatchEngine) matchEngine).read(in, new MatchLogWriter(logOut));
+			} else {
+				listingReader.read(in, new MatchLogWriter(logOut));
+			}
+			if (toFile) {
+				logOut.close();
+			}
+		} else if (byteMode) {
+			InputStream in = System.in;
+			if (args.length > 1 && !args[1].equals("-")) {
+				reader.close();
+				in = new FileInputStream(args[1]);
+			}
+			new ByteListingReader((TrieMatchEngine) matchEngine).read(in, out);
+			if (in != System.in) {
+				in.close();
+			}
+		} else if (Boolean.parseBoolean(System.getProperty("ca.eandb.sortable.pipeline", "false"))) {
+			new PipelinedListingReader(listingReader).read(reader, out);
+		} else {
+			listingReader.read(reader, out);
+		}
+		end = System.currentTimeMillis();
+		
+		if (reloadingEngine != null) {
+			reloadingEngine.close();
+		}
+		
+		if (tracer != null) {
+			Writer traceOut = new BufferedWriter(new FileWriter(traceLog));
+			tracer.write(traceOut);
+			traceOut.close();
 			
+			System.err.printf(
+					"Traced %d listings.",
+					tracer.getRecordedCount());
+			System.err.println();
 		}
 		
+		System.err.printf(
+				"Time required to analyse listings: %dms",
+				end - start);
+		System.err.println();
+		
+		long budgetExceeded = listingReader.getBudgetExceededCount() - warmupBudgetExceeded;
+		if (budgetExceeded > 0) {
+			System.err.printf(
+					"Step budget exceeded %d times.",
+					budgetExceeded);
+			System.err.println();
+		}
+		
+	}
+	
+	/**
+	 * Creates the <code>MatchEngine</code> for the products read into a
+	 * <code>ProductTrieBuilder</code>.  If a sample of listings is given by
+	 * <code>ca.eandb.sortable.layoutSample</code>, it is used to optimize the
+	 * layout of the tries.  This is used both at startup and whenever the
+	 * catalog is reloaded, so that each snapshot is built the same way.
+	 * @param builder The <code>ProductTrieBuilder</code> containing the
+	 * 		products.
+	 * @param engine The name of the kind of engine to create ("trie" or
+	 * 		"postings").
+	 * @param freeze A value indicating whether the tries must be frozen.
+	 * @return The new <code>MatchEngine</code>.
+	 * @throws IOException If an error occurs while reading the layout sample.
+	 * @throws ParseException If a listing in the layout sample does not
+	 * 		represent a valid JSON object.
+	 */
+	private static MatchEngine createEngine(ProductTrieBuilder builder,
+			String engine, boolean freeze) throws IOException, ParseException {
+		TrieNode manufacturerRoot = builder.getManufacturerRoot();
+		TrieNode modelRoot = builder.getModelRoot();
+		ProductStore products = builder.getProducts();
+		
+		// If a sample of listings is provided, use it to optimize the
+		// layout of the tries.
+		String layoutSample = System.getProperty("ca.eandb.sortable.layoutSample");
+		if (layoutSample != null) {
+			Reader sample = new FileReader(layoutSample);
+			
+			long start = System.currentTimeMillis();
+			TrieNode[] roots = TrieLayoutOptimizer.optimize(products, manufacturerRoot, modelRoot, sample);
+			long end = System.currentTimeMillis();
+			sample.close();
+			
+			manufacturerRoot = roots[0];
+			modelRoot = roots[1];
+			
+			System.err.printf(
+					"Time required to optimize trie layout: %dms",
+					end - start);
+			System.err.println();
+		}
+		
+		if (freeze && !manufacturerRoot.isFrozen()) {
+			manufacturerRoot = manufacturerRoot.freeze(null);
+			modelRoot = modelRoot.freeze(null);
+		}
+		
+		return engine.equals("postings")
+				? new PostingMatchEngine(products, manufacturerRoot, modelRoot)
+				: new TrieMatchEngine(products, manufacturerRoot, modelRoot);
+	}
+	
+	/**
+	 * Finds an option that has been set but that the worker processes would
+	 * ignore (or, in the case of <code>productDir</code>, that the workers
+	 * cannot share).  Worker processes match their partitions with the trie
+	 * engine and write only JSON results, so options that select another
+	 * engine, another output, or another way of reading the listings are not
+	 * supported.  Nor is deduplication, since each worker would only detect
+	 * the duplicates within its own partition.
+	 * @return The name of the option (without the
+	 * 		<code>ca.eandb.sortable.</code> prefix), or <code>null</code> if
+	 * 		there is none.
+	 */
+	private static String getUnsupportedWorkerOption() {
+		if (!System.getProperty("ca.eandb.sortable.engine", "trie").equals("trie")) {
+			return "engine";
+		}
+		String[] flags = { "matchLog", "byteMode", "pipeline" };
+		for (String flag : flags) {
+			if (Boolean.parseBoolean(System.getProperty("ca.eandb.sortable." + flag, "false"))) {
+				return flag;
+			}
+		}
+		String[] paths = { "productDir", "layoutSample", "traceLog", "listingIndex" };
+		for (String path : paths) {
+			if (System.getProperty("ca.eandb.sortable." + path) != null) {
+				return path;
+			}
+		}
+		if (Long.parseLong(System.getProperty("ca.eandb.sortable.reloadInterval", "0")) > 0) {
+			return "reloadInterval";
+		}
+		if (!System.getProperty("ca.eandb.sortable.dedup", "off").equals("off")) {
+			return "dedup";
+		}
+		return null;
+	}
+	
+	/**
+	 * Finds an option that has been set but that sharding would ignore.  The
+	 * main process only routes listings and writes JSON results, and the
+	 * shard workers match with the trie engine, so options that select
+	 * another engine, another output, or another way of reading or matching
+	 * the listings are not supported.
+	 * @return The name of the option (without the
+	 * 		<code>ca.eandb.sortable.</code> prefix), or <code>null</code> if
+	 * 		there is none.
+	 */
+	private static String getUnsupportedShardOption() {
+		if (!System.getProperty("ca.eandb.sortable.engine", "trie").equals("trie")) {
+			return "engine";
+		}
+		String[] flags = { "matchLog", "byteMode", "pipeline" };
+		for (String flag : flags) {
+			if (Boolean.parseBoolean(System.getProperty("ca.eandb.sortable." + flag, "false"))) {
+				return flag;
+			}
+		}
+		String[] paths = { "layoutSample", "traceLog", "listingIndex" };
+		for (String path : paths) {
+			if (System.getProperty("ca.eandb.sortable." + path) != null) {
+				return path;
+			}
+		}
+		String[] counts = { "reloadInterval", "workers", "warmup" };
+		for (String count : counts) {
+			if (Long.parseLong(System.getProperty("ca.eandb.sortable." + count, "0")) > 0) {
+				return count;
+			}
+		}
+		if (!System.getProperty("ca.eandb.sortable.dedup", "off").equals("off")) {
+			return "dedup";
+		}
+		return null;
 	}
 	
 	/** Print the usage information for this application. */
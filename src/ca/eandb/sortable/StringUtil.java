@@ -3,47 +3,39 @@
  */
 package ca.eandb.sortable;
 
-import java.text.Normalizer;
-
 /**
  * String-related utility methods.
  * @author Brad Kimmel
  */
 public final class StringUtil {
-	
+
 	/**
 	 * Normalizes a string by removing features that should not be considered
 	 * as differentiating between two strings (such as accents and case).
-	 * @param s The <code>String</code> to normalize.
-	 * @return A canonical representation of <code>String</code>.
+	 * Only letters and digits are kept, with each run of other characters
+	 * reduced to a single word break (space).  A word break is also added
+	 * between each letter and digit that are next to one another, since
+	 * model numbers composed of letters and numbers may be written with or
+	 * without intervening characters.
+	 * @param in The <code>CharSequence</code> to normalize.
+	 * @return A canonical representation of <code>in</code>.
+	 * @see NormalizedText
 	 */
-	public static String normalize(String s) {
-		
-		s = Normalizer.normalize(s, Normalizer.Form.NFD);
-		
-		// remove accents
-		s = s.replaceAll("\\p{InCombiningDiacriticalMarks}+", "");
-		
-		// make everything lower-case to make all comparisons case-insensitive. 
-		s = s.toLowerCase();
-		
-		/* only consider alphanumeric characters -- remove all others.  This
-		 * also has the effect of reducing all word breaks to a single space.
-		 */
-		s = s.replaceAll("[^a-z0-9]+", " ");
-		
-		/* add word break at letter-number boundaries.  Model numbers composed
-		 * of letters and numbers should be treated as being composed of
-		 * separate words, since in some listings they may be written with
-		 * or without intervening characters.
-		 */		  
-		s = s.replaceAll("([a-z])([0-9])", "$1 $2");				
-		s = s.replaceAll("([0-9])([a-z])", "$1 $2");
-		
-		return s;
-		
+	public static String normalize(CharSequence in) {
+		return new NormalizedText(in).toString();
 	}
-	
+
+	/**
+	 * Normalizes a string (see {@link #normalize(CharSequence)}) and splits
+	 * it into words.  This gives the same result as
+	 * <code>normalize(in).split(" ")</code>.
+	 * @param in The <code>CharSequence</code> to normalize.
+	 * @return The words of the canonical representation of <code>in</code>.
+	 */
+	public static String[] normalizeWords(CharSequence in) {
+		return new NormalizedText(in).toWords();
+	}
+
 	/** Private constructor. */
 	private StringUtil() {}
 
@@ -0,0 +1,360 @@
+/**
+ * 
+ */
+package ca.eandb.sortable;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Random;
+
+import org.json.simple.JSONValue;
+
+/**
+ * An application that generates a synthetic product catalog and a collection
+ * of listings, for measuring how the matcher scales to inputs much larger
+ * than the challenge data.  The generator is controlled by the following
+ * properties:
+ *
+ *   - <code>ca.eandb.sortable.synth.products</code> - the number of products
+ *     (default: 1000),
+ *   - <code>ca.eandb.sortable.synth.listings</code> - the number of listings
+ *     (default: 20000),
+ *   - <code>ca.eandb.sortable.synth.manufacturers</code> - the number of
+ *     manufacturers (default: 20),
+ *   - <code>ca.eandb.sortable.synth.skew</code> - the exponent of the Zipf
+ *     distribution from which the manufacturer of each product is drawn, so
+ *     that a few manufacturers have most of the products (default: 1.0; zero
+ *     for a uniform distribution),
+ *   - <code>ca.eandb.sortable.synth.duplicateRate</code> - the fraction of
+ *     listings that repeat a recent listing exactly (default: 0.05),
+ *   - <code>ca.eandb.sortable.synth.titleWords</code> - the mean number of
+ *     words in a listing title besides those naming the product, drawn from
+ *     a geometric distribution (default: 4),
+ *   - <code>ca.eandb.sortable.synth.matchRate</code> - the fraction of
+ *     listings (other than duplicates) describing a product in the catalog;
+ *     the rest describe unknown models or accessories (default: 0.9), and
+ *   - <code>ca.eandb.sortable.synth.seed</code> - the seed for the random
+ *     number generator (default: 1).
+ *
+ * Each product is generated from its index alone, so neither the catalog nor
+ * the listings need be held in memory, and the output for a given set of
+ * properties is always the same.
+ *
+ * @author Brad Kimmel
+ */
+public final class SyntheticData {
+
+	/** The names of the first few manufacturers. */
+	private static final String[] MANUFACTURERS = {
+		"Canon", "Nikon", "Sony", "Samsung", "Panasonic", "Olympus", "Fujifilm",
+		"Kodak", "Pentax", "Casio", "Leica", "Sigma", "Ricoh", "Konica Minolta"
+	};
+
+	/** The families of models. */
+	private static final String[] FAMILIES = {
+		"PowerShot", "Coolpix", "Cyber-shot", "Lumix", "EasyShare", "Optio",
+		"Finepix", "Exilim", "EOS", "Alpha", "Stylus", "IXUS", "WB", "Pen"
+	};
+
+	/** The prefixes of model numbers. */
+	private static final String[] MODEL_PREFIXES = {
+		"DSC-", "DMC-", "SX", "S", "T", "WG-", "X", "TZ", "FZ", "HX", "D", "ES"
+	};
+
+	/** The words that may appear in a title besides the product name. */
+	private static final String[] FILLER = {
+		"Digital", "Camera", "Black", "Silver", "Red", "Noir", "Rouge", "Kit",
+		"Bundle", "Zoom", "Lens", "HD", "Waterproof", "3x", "5x", "10x", "14MP",
+		"16MP", "12.1", "Megapixel", "LCD", "with", "and", "Case", "Card", "New"
+	};
+
+	/** The accessories that may be described by a listing. */
+	private static final String[] ACCESSORIES = {
+		"Battery", "Charger", "Case", "Strap", "Lens Cap", "Memory Card",
+		"Screen Protector", "Tripod"
+	};
+
+	/** The number of products. */
+	private final long numProducts;
+
+	/** The number of listings. */
+	private final long numListings;
+
+	/** The number of manufacturers. */
+	private final int numManufacturers = Integer.parseInt(
+			System.getProperty("ca.eandb.sortable.synth.manufacturers", "20"));
+
+	/** The exponent of the Zipf distribution of manufacturers. */
+	private final double skew = Double.parseDouble(
+			System.getProperty("ca.eandb.sortable.synth.skew", "1.0"));
+
+	/** The fraction of listings that repeat a recent listing. */
+	private final double duplicateRate = Double.parseDouble(
+			System.getProperty("ca.eandb.sortable.synth.duplicateRate", "0.05"));
+
+	/** The mean number of filler words in a listing title. */
+	private final double titleWords = Double.parseDouble(
+			System.getProperty("ca.eandb.sortable.synth.titleWords", "4"));
+
+	/** The fraction of listings describing a product in the catalog. */
+	private final double matchRate = Double.parseDouble(
+			System.getProperty("ca.eandb.sortable.synth.matchRate", "0.9"));
+
+	/** The seed for the random number generator. */
+	private final long seed = Long.parseLong(
+			System.getProperty("ca.eandb.sortable.synth.seed", "1"));
+
+	/**
+	 * The cumulative probabilities of the manufacturers, under the Zipf
+	 * distribution.
+	 */
+	private final double[] manufacturerCdf;
+
+	/**
+	 * Creates a new <code>SyntheticData</code> generator, whose numbers of
+	 * products and listings are given by the
+	 * <code>ca.eandb.sortable.synth.products</code> and
+	 * <code>ca.eandb.sortable.synth.listings</code> properties.
+	 */
+	public SyntheticData() {
+		this(Long.parseLong(System.getProperty("ca.eandb.sortable.synth.products", "1000")),
+				Long.parseLong(System.getProperty("ca.eandb.sortable.synth.listings", "20000")));
+	}
+
+	/**
+	 * Creates a new <code>SyntheticData</code> generator.
+	 * @param numProducts The number of products.
+	 * @param numListings The number of listings.
+	 */
+	public SyntheticData(long numProducts, long numListings) {
+		this.numProducts = numProducts;
+		this.numListings = numListings;
+		manufacturerCdf = new double[numManufacturers];
+		double total = 0.0;
+		for (int i = 0; i < numManufacturers; i++) {
+			total += 1.0 / Math.pow(i + 1, skew);
+			manufacturerCdf[i] = total;
+		}
+		for (int i = 0; i < numManufacturers; i++) {
+			manufacturerCdf[i] /= total;
+		}
+	}
+
+	/**
+	 * Usage: ca.eandb.sortable.SyntheticData <products_file> <listings_file>
+	 * Generates a synthetic product catalog and collection of listings.
+	 *
+	 *   <products_file> - The file to write the products to, formatted as JSON
+	 *                     objects, one per line.
+	 *   <listings_file> - The file to write the listings to, formatted as JSON
+	 *                     objects, one per line.
+	 *
+	 * @param args The program arguments as specified above.
+	 */
+	public static void main(String[] args) {
+
+		if (args.length != 2) {
+			System.out.printf("Usage: %s <products_file> <listings_file>", SyntheticData.class.getName());
+			System.out.println();
+			System.exit(1);
+		}
+
+		try {
+
+			SyntheticData data = new SyntheticData();
+
+			long start = System.currentTimeMillis();
+			data.writeProducts(new File(args[0]));
+			data.writeListings(new File(args[1]));
+			long end = System.currentTimeMillis();
+
+			System.err.printf(
+					"Time required to generate %d products and %d listings: %dms",
+					data.numProducts, data.numListings, end - start);
+			System.err.println();
+
+		} catch (Exception e) {
+
+			// For now just print the error if one occurs.
+			e.printStackTrace();
+
+		}
+
+	}
+
+	/**
+	 * Writes the product catalog.
+	 * @param file The file to write the products to.
+	 * @throws IOException If an error occurs while writing to the file.
+	 */
+	public void writeProducts(File file) throws IOException {
+		Writer out = open(file);
+		for (long id = 0; id < numProducts; id++) {
+			Product product = product(id);
+			out.write("{\"product_name\": \"");
+			out.write(JSONValue.escape(product.getName()));
+			out.write("\", \"manufacturer\": \"");
+			out.write(JSONValue.escape(product.getManufacturer()));
+			out.write("\", \"model\": \"");
+			out.write(JSONValue.escape(product.getModel()));
+			if (product.getFamily() != null) {
+				out.write("\", \"family\": \"");
+				out.write(JSONValue.escape(product.getFamily()));
+			}
+			out.write("\", \"announced-date\": \"");
+			out.write(product.getAnnouncedDate());
+			out.write("\"}\n");
+		}
+		out.close();
+	}
+
+	/**
+	 * Writes the listings.
+	 * @param file The file to write the listings to.
+	 * @throws IOException If an error occurs while writing to the file.
+	 */
+	public void writeListings(File file) throws IOException {
+		Random rand = new Random(seed);
+		String[] recent = new String[1024];
+		long generated = 0;
+
+		Writer out = open(file);
+		for (long i = 0; i < numListings; i++) {
+			String line;
+			if (generated > 0 && rand.nextDouble() < duplicateRate) {
+				line = recent[rand.nextInt((int) Math.min(generated, recent.length))];
+			} else {
+				line = listing(rand);
+				recent[(int) (generated++ % recent.length)] = line;
+			}
+			out.write(line);
+			out.write('\n');
+		}
+		out.close();
+	}
+
+	/**
+	 * Generates a listing.
+	 * @param rand The <code>Random</code> number generator to use.
+	 * @return The listing, as a JSON object.
+	 */
+	private String listing(Random rand) {
+		Product product;
+		String accessory = null;
+		double kind = rand.nextDouble();
+		if (kind < matchRate) {
+			product = product(nextLong(rand, numProducts));
+		} else {
+			// an unknown model, or an accessory for a known one
+			product = product(numProducts + nextLong(rand, numProducts));
+			if (rand.nextBoolean()) {
+				product = product(nextLong(rand, numProducts));
+				accessory = ACCESSORIES[rand.nextInt(ACCESSORIES.length)];
+			}
+		}
+
+		StringBuilder title = new StringBuilder();
+		if (accessory != null) {
+			title.append(accessory).append(" for ");
+		}
+		if (rand.nextDouble() < 0.9) {
+			title.append(product.getManufacturer()).append(' ');
+		}
+		if (product.getFamily() != null && rand.nextDouble() < 0.7) {
+			title.append(product.getFamily()).append(' ');
+		}
+
+		// vary how the model number is written
+		String model = product.getModel();
+		switch (rand.nextInt(4)) {
+		case 0:
+			model = model.replace("-", "");
+			break;
+		case 1:
+			model = model.replace('-', ' ');
+			break;
+		default:
+			break;
+		}
+		title.append(model);
+
+		int words = (int) Math.floor(Math.log(1.0 - rand.nextDouble()) / Math.log(titleWords / (titleWords + 1.0)));
+		for (int i = 0; i < words; i++) {
+			title.append(' ').append(FILLER[rand.nextInt(FILLER.length)]);
+		}
+
+		String manufacturer = product.getManufacturer();
+		switch (rand.nextInt(4)) {
+		case 0:
+			manufacturer = manufacturer.toUpperCase() + " Inc.";
+			break;
+		case 1:
+			manufacturer = manufacturer + " Canada";
+			break;
+		default:
+			break;
+		}
+
+		return String.format(
+				"{\"title\": \"%s\", \"manufacturer\": \"%s\", \"currency\": \"CAD\", \"price\": \"%d.%02d\"}",
+				JSONValue.escape(title.toString()), JSONValue.escape(manufacturer),
+				10 + rand.nextInt(990), rand.nextInt(100));
+	}
+
+	/**
+	 * Generates a product from its index.  Products with indices at or beyond
+	 * the number of products are not written to the catalog, and are used
+	 * for listings describing unknown models.
+	 * @param id The index of the product.
+	 * @return The <code>Product</code>.
+	 */
+	private Product product(long id) {
+		Random rand = new Random(seed * 0x5DEECE66DL + id);
+
+		double u = rand.nextDouble();
+		int m = 0;
+		while (m < numManufacturers - 1 && manufacturerCdf[m] < u) {
+			m++;
+		}
+		String manufacturer = m < MANUFACTURERS.length ? MANUFACTURERS[m] : "Brand" + m;
+
+		String family = rand.nextDouble() < 0.7 ? FAMILIES[rand.nextInt(FAMILIES.length)] : null;
+
+		// the index makes the model number unique
+		String model = MODEL_PREFIXES[rand.nextInt(MODEL_PREFIXES.length)] + (100 + id);
+		if (rand.nextDouble() < 0.2) {
+			model += (char) ('a' + rand.nextInt(26));
+		}
+
+		String name = manufacturer + "_" + (family != null ? family + "_" : "") + model;
+		String announced = String.format("20%02d-%02d-01T19:00:00.000-05:00",
+				rand.nextInt(12), 1 + rand.nextInt(12));
+		return new Product(name.replace(' ', '_'), manufacturer, model, family, announced);
+	}
+
+	/**
+	 * Draws a uniformly distributed value.
+	 * @param rand The <code>Random</code> number generator to use.
+	 * @param n The upper bound (exclusive).
+	 * @return A value between zero (inclusive) and <code>n</code>
+	 * 		(exclusive).
+	 */
+	private static long nextLong(Random rand, long n) {
+		return (long) (rand.nextDouble() * n);
+	}
+
+	/**
+	 * Opens a file for writing as UTF-8.
+	 * @param file The file to open.
+	 * @return The <code>Writer</code> to use to write to the file.
+	 * @throws IOException If the file cannot be opened.
+	 */
+	private static Writer open(File file) throws IOException {
+		return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), BinaryProductWriter.UTF8));
+	}
+
+}
@@ -0,0 +1,21 @@
+/**
+ * 
+ */
+package ca.eandb.sortable;
+
+/**
+ * A visitor object for iterating through the edges of a trie.
+ * @author Brad Kimmel
+ * @see TrieNode#visitEdges(TrieEdgeVisitor)
+ */
+public interface TrieEdgeVisitor {
+
+	/**
+	 * Visits a parent-child edge in a trie.
+	 * @param parent The parent <code>TrieNode</code>.
+	 * @param c The <code>char</code> identifying the child.
+	 * @param child The child <code>TrieNode</code>.
+	 */
+	void visit(TrieNode parent, char c, TrieNode child);
+	
+}
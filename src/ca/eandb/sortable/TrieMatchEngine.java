@@ -0,0 +1,676 @@
+/**
+ * 
+ */
+package ca.eandb.sortable;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A <code>MatchEngine</code> that matches listings by walking the tries built
+ * by a {@link ProductTrieBuilder}.  See comments in
+ * {@link #match(TrieNode, NormalizedText, int[], boolean, int[], MatchTrace)} for
+ * details on how the matching is performed.
+ * @author Brad Kimmel
+ */
+public final class TrieMatchEngine implements MatchEngine {
+	
+	/**
+	 * The <code>ProductStore</code> holding the products referred to by the
+	 * tries.
+	 */
+	private final ProductStore products;
+
+	/**
+	 * The root <code>TrieNode</code> containing the set of strings that match
+	 * the "manufacturer" field of a <code>Product</code>.
+	 * 
+	 * @see ca.eandb.sortable.ProductTrieBuilder
+	 */
+	private final TrieNode manufacturerTrie;
+	
+	/**
+	 * The root <code>TrieNode</code> containing the set of strings that match
+	 * the model name of a <code>Product</code>.  This could be the substrings
+	 * of the "product_name" field, the "model" field, or the concatenation of
+	 * the "family" and "model" fields (if the "family" field is present).  See
+	 * {@link ca.eandb.sortable.ProductTrieBuilder} for details.
+	 * 
+	 * @see ca.eandb.sortable.ProductTrieBuilder
+	 */
+	private final TrieNode modelTrie;
+	
+	/**
+	 * The maximum number of trie steps (attempts to advance a cursor by one
+	 * word) to take while matching a listing, or zero if there is no limit.
+	 * Since a cursor is kept for every starting word, the number of steps may
+	 * grow quadratically with the number of words in a listing title.  The
+	 * steps taken while matching the manufacturer are carried over into
+	 * matching the title, through the <code>MatchSet</code> returned by
+	 * {@link #matchManufacturer(CharSequence)}.
+	 */
+	private final int stepBudget = Integer.parseInt(
+			System.getProperty("ca.eandb.sortable.stepBudget", "0"));
+
+	/**
+	 * A value indicating what to do when the step budget is exhausted.  If
+	 * <code>true</code>, the listing is treated as not matching any product.
+	 * Otherwise, the remainder of the field is ignored and the matches found
+	 * so far are resolved as usual.
+	 *
+	 * @see #stepBudget
+	 */
+	private final boolean rejectOverBudget = System.getProperty(
+			"ca.eandb.sortable.budgetFallback", "truncate").equals("reject");
+
+	/** The number of times the step budget has been exhausted. */
+	private final AtomicLong budgetExceeded = new AtomicLong();
+
+	/**
+	 * A value indicating whether to stop walking the trie as soon as the
+	 * result of matching a field can no longer change (see comments in
+	 * {@link #match(TrieNode, NormalizedText, int[], boolean, int[], MatchTrace)}).
+	 */
+	private final boolean earlyTermination;
+
+	/**
+	 * The maximum edit distance for the fuzzy pass made over the model trie
+	 * when no node matches the title exactly, or zero to disable the fuzzy
+	 * pass (see {@link #matchFuzzy(TrieNode, String[], int[], Map)}).
+	 */
+	private final int fuzzyDistance = Integer.parseInt(
+			System.getProperty("ca.eandb.sortable.fuzzyDistance", "0"));
+
+	/**
+	 * The maximum number of trie nodes to expand during the fuzzy pass for a
+	 * single listing.  If the limit is reached, the fuzzy pass finds no
+	 * matches.
+	 */
+	private final int fuzzyMaxStates = Integer.parseInt(
+			System.getProperty("ca.eandb.sortable.fuzzyMaxStates", "20000"));
+
+	/**
+	 * The <code>TrieProfile</code> in which to record visits to trie nodes, or
+	 * <code>null</code> if visits are not to be recorded.
+	 */
+	private final TrieProfile profile;
+
+	/**
+	 * The <code>MatchTracer</code> used to trace the matching of a sample of
+	 * listings, or <code>null</code> if tracing is disabled.
+	 */
+	private MatchTracer tracer = null;
+
+	/**
+	 * Creates a new <code>TrieMatchEngine</code>. 
+	 * @param products The <code>ProductStore</code> holding the products
+	 * 		referred to by the tries.
+	 * @param manufacturerTrie The root <code>TrieNode</code> containing the
+	 * 		set of strings that match the "manufacturer" field of a
+	 * 		<code>Product</code>.
+	 * @param modelTrie The root <code>TrieNode</code> containing the set of
+	 * 		strings that match the model name of a <code>Product</code>.
+	 */
+	public TrieMatchEngine(ProductStore products, TrieNode manufacturerTrie,
+			TrieNode modelTrie) {
+		this(products, manufacturerTrie, modelTrie, null);
+	}
+
+	/**
+	 * Creates a new <code>TrieMatchEngine</code> that records visits to the
+	 * nodes of the tries.  Such an engine is not safe for use by multiple
+	 * threads.
+	 * @param products The <code>ProductStore</code> holding the products
+	 * 		referred to by the tries.
+	 * @param manufacturerTrie The root <code>TrieNode</code> containing the
+	 * 		set of strings that match the "manufacturer" field of a
+	 * 		<code>Product</code>.
+	 * @param modelTrie The root <code>TrieNode</code> containing the set of
+	 * 		strings that match the model name of a <code>Product</code>.
+	 * @param profile The <code>TrieProfile</code> in which to record visits
+	 * 		to trie nodes (may be <code>null</code>).
+	 */
+	public TrieMatchEngine(ProductStore products, TrieNode manufacturerTrie,
+			TrieNode modelTrie, TrieProfile profile) {
+		this(products, manufacturerTrie, modelTrie, profile, Boolean.parseBoolean(
+				System.getProperty("ca.eandb.sortable.earlyTermination", "false")));
+	}
+
+	/**
+	 * Creates a new <code>TrieMatchEngine</code>.  If <code>profile</code> is
+	 * not <code>null</code>, the engine is not safe for use by multiple
+	 * threads.
+	 * @param products The <code>ProductStore</code> holding the products
+	 * 		referred to by the tries.
+	 * @param manufacturerTrie The root <code>TrieNode</code> containing the
+	 * 		set of strings that match the "manufacturer" field of a
+	 * 		<code>Product</code>.
+	 * @param modelTrie The root <code>TrieNode</code> containing the set of
+	 * 		strings that match the model name of a <code>Product</code>.
+	 * @param profile The <code>TrieProfile</code> in which to record visits
+	 * 		to trie nodes (may be <code>null</code>).
+	 * @param earlyTermination A value indicating whether to stop walking the
+	 * 		trie as soon as the result of matching a field can no longer
+	 * 		change.
+	 */
+	public TrieMatchEngine(ProductStore products, TrieNode manufacturerTrie,
+			TrieNode modelTrie, TrieProfile profile, boolean earlyTermination) {
+		this.products = products;
+		this.manufacturerTrie = manufacturerTrie;
+		this.modelTrie = modelTrie;
+		this.profile = profile;
+		this.earlyTermination = earlyTermination;
+	}
+
+	/* (non-Javadoc)
+	 * @see ca.eandb.sortable.MatchEngine#matchManufacturer(java.lang.CharSequence)
+	 */
+	@Override
+	public Set<ProductMatch> matchManufacturer(CharSequence manufacturer) {
+		return matchManufacturer(new NormalizedText(manufacturer));
+	}
+
+	/**
+	 * Finds the <code>Product</code>s whose manufacturer matches that of a
+	 * listing, given the normalized "manufacturer" field of the listing.
+	 * @param manufacturer The normalized "manufacturer" field of the
+	 * 		listing.
+	 * @return A <code>Set</code> containing the matching
+	 * 		<code>Product</code>s, or <code>null</code> if there are none.
+	 * @see #matchManufacturer(CharSequence)
+	 */
+	public Set<ProductMatch> matchManufacturer(NormalizedText manufacturer) {
+		int[] steps = { 0 };
+		int[] results = match(manufacturerTrie, manufacturer, null, false, steps, null);
+		return results != null ? new MatchSet(results, steps[0]) : null;
+	}
+
+	/* (non-Javadoc)
+	 * @see ca.eandb.sortable.MatchEngine#matchModel(java.lang.CharSequence, java.util.Set)
+	 */
+	@Override
+	public Product matchModel(CharSequence title, Set<ProductMatch> manufacturerProducts) {
+		return matchModel(title, new NormalizedText(title), manufacturerProducts);
+	}
+
+	/**
+	 * Matches a listing with at most one of the <code>Product</code>s whose
+	 * manufacturer matches that of the listing, given the normalized title
+	 * of the listing.  If the listing is traced, the trace shows the
+	 * normalized title.
+	 * @param title The normalized title of the listing.
+	 * @param manufacturerProducts The <code>Set</code> of
+	 * 		<code>Product</code>s whose manufacturer matches that of the
+	 * 		listing (see {@link #matchManufacturer(NormalizedText)}).
+	 * @return The matching <code>Product</code>, or <code>null</code> if the
+	 * 		listing does not match exactly one <code>Product</code>.
+	 * @see #matchModel(CharSequence, Set)
+	 */
+	public Product matchModel(NormalizedText title, Set<ProductMatch> manufacturerProducts) {
+		return matchModel(title, title, manufacturerProducts);
+	}
+
+	/**
+	 * Matches a listing with at most one of the <code>Product</code>s whose
+	 * manufacturer matches that of the listing, tracing the matching if the
+	 * listing is sampled.
+	 * @param title The title of the listing.
+	 * @param text The normalized title of the listing.
+	 * @param manufacturerProducts The <code>Set</code> of
+	 * 		<code>Product</code>s whose manufacturer matches that of the
+	 * 		listing.
+	 * @return The matching <code>Product</code>, or <code>null</code> if the
+	 * 		listing does not match exactly one <code>Product</code>.
+	 */
+	private Product matchModel(CharSequence title, NormalizedText text,
+			Set<ProductMatch> manufacturerProducts) {
+		int[] filter = MatchSet.toList(manufacturerProducts);
+		int[] steps = { MatchSet.getSteps(manufacturerProducts) };
+		if (tracer != null && tracer.sample(title)) {
+			MatchTrace trace = new MatchTrace(products, title, filter);
+			Product product = matchOne(modelTrie, text, filter, true, steps, trace);
+			tracer.record(trace.toString());
+			return product;
+		}
+		return matchOne(modelTrie, text, filter, true, steps, null);
+	}
+
+	/**
+	 * Sets the <code>MatchTracer</code> used to trace the matching of the
+	 * model names of a sample of listings.  This must be called before
+	 * matching begins.
+	 * @param tracer The <code>MatchTracer</code> to use, or <code>null</code>
+	 * 		to disable tracing.
+	 */
+	public void setTracer(MatchTracer tracer) {
+		this.tracer = tracer;
+	}
+
+	/**
+	 * Gets the number of times the step budget has been exhausted while
+	 * matching listings.
+	 * @return The number of times the step budget has been exhausted.
+	 * @see #stepBudget
+	 */
+	@Override
+	public long getBudgetExceededCount() {
+		return budgetExceeded.get();
+	}
+
+	/**
+	 * Gets the counter of the number of times the step budget has been
+	 * exhausted.  The counter may be kept after this engine is discarded, so
+	 * that matches still in progress on it are counted as they finish (see
+	 * {@link ReloadingMatchEngine}).
+	 * @return The counter.
+	 */
+	AtomicLong getBudgetExceededCounter() {
+		return budgetExceeded;
+	}
+
+	/**
+	 * Matches the specified string against the <code>Product</code>s stored in
+	 * the specified trie.
+	 * @param root The <code>TrieNode</code> at the root of the trie to use to
+	 * 		match against.
+	 * @param text The <code>NormalizedText</code> to match against.
+	 * @param filter A sorted array of encoded matches used to filter the
+	 * 		results (see {@link MatchSet}).  If present, the specified trie
+	 * 		will be treated as if it only contained products in this array.
+	 * @param useMaximalFlag A value indicating whether the matching should
+	 * 		return only maximal matches if there would otherwise be multiple
+	 * 		matching products.
+	 * @param steps A one-element array holding the number of steps of the
+	 * 		step budget already taken for the listing, which is updated with
+	 * 		the steps taken here.
+	 * @param trace The <code>MatchTrace</code> in which to record how the
+	 * 		matching proceeds, or <code>null</code> if the matching is not
+	 * 		being traced.
+	 * @return A sorted array of the encoded matches for all of the products
+	 * 		that match, or <code>null</code> if there are none.
+	 */
+	private int[] match(TrieNode root, NormalizedText text, int[] filter,
+			boolean useMaximalFlag, int[] steps, MatchTrace trace) {
+		
+		if (trace != null) {
+			trace.tokens(text.toWords());
+		}
+		
+		/* Attempt to match all of the sequences of consecutive words against
+		 * against the provided trie.  For example, if the text is "The quick
+		 * brown fox", we want to consider the following for possible matches:
+		 * 
+		 *   - "The", "quick", "brown", "fox"
+		 *   - "Thequick", "quickbrown", "brownfox"
+		 *   - "Thequickbrown", "quickbrownfox"
+		 *   - "Thequickbrownfox"
+		 * 
+		 * The reason for this logic is so that we can match against listings
+		 * where the model number is split into multiple words in the listing,
+		 * but not in the product data, or vice versa -- or to allow for the
+		 * listing to contain only a partial model number (for example,
+		 * "Panasonic FP 7" instead of "Panasonic DMC-FP7").
+		 * 
+		 * To accomplish this, we keep track of a queue of positions (cursors)
+		 * within the trie.  We iterate through the list of words, and for each
+		 * word, we attempt to match that word using each cursor (as well as
+		 * the root node, which is added as a cursor each time through the
+		 * loop).  If we find a descendant matching the word, then we:
+		 * 
+		 *   1) Check to see if the descendant has products associated with it.
+		 *      If there are, we keep track of the set of products associated
+		 *      with this node in a map (matches).  If a filter was provided,
+		 *      it is employed here.  The products associated with each node
+		 *      are kept in a MatchList, sorted by product, so that the filter
+		 *      may be applied by merging sorted arrays.
+		 *   2) Add the descendant to the queue as a new cursor.
+		 *   
+		 * We also only want to consider longest matches.  That is, if a
+		 * substring of a match also matches, we want to ignore the matches for
+		 * the substring.  The reason for this rule is so that for pairs of 
+		 * products whose model name differs from another only by the addition
+		 * of more characters, if those characters are present, we do not want
+		 * to report a match against the other product.  For example, consider
+		 * 
+		 *   Pentax WG-1
+		 *   Pentax WG-1 GPS
+		 *   
+		 * If a listing contained the words "WG-1 GPS", without this rule both
+		 * products would match this listing, resulting in the algorithm
+		 * reporting no certain match.
+		 * 
+		 * We accomplish this by removing the matches for all ancestors
+		 * when inserting a new matching node into the map.  Because we are
+		 * adding matches in breadth-first order, we can do this within the
+		 * loop rather than as a separate tree-traversal at the end.  The
+		 * matching nodes are kept in the order in which they were found, so
+		 * that the resolution below does not depend on the (identity) hash
+		 * codes of the nodes, and the results are the same from run to run.
+		 * 
+		 * If a step budget is set, we stop once that many cursors have been
+		 * advanced for the listing (counting those advanced while matching
+		 * the manufacturer), so that a pathological title (e.g., a long list
+		 * of keywords) cannot take quadratic time.  A listing whose
+		 * manufacturer used up the budget is counted only once.
+		 * 
+		 * If early termination is enabled, we also stop as soon as the result
+		 * can no longer change.  A match on a node none of whose descendants
+		 * have matches (see MatchList.isExtensible()) can never be removed
+		 * from the map, since the node is not an ancestor of any other
+		 * matching node.  Once two such nodes each match a single product,
+		 * and the products differ, the resolution below must return no
+		 * products (see rule 1), whatever else we find.  Note that stopping
+		 * here means the step budget may not be exhausted where it otherwise
+		 * would have been, but the result is the same either way.
+		 */
+		Queue<TrieNode> cursors = new LinkedList<TrieNode>();
+		Map<TrieNode, int[]> matches = new LinkedHashMap<TrieNode, int[]>();
+		int fixedSingleton = -1;	// product of first unremovable singleton
+		
+		byte[] chars = text.getBytes();
+		walk: for (int w = 0, numWords = text.getWordCount(); w < numWords; w++) {
+			int start = text.getWordStart(w);
+			int end = text.getWordEnd(w);
+			cursors.add(root);
+			
+			/* Loop through all the cursors *currently* in the queue (not the
+			 * ones that will be added to the queue in the course of processing
+			 * the current word).
+			 */
+			for (int i = 0, n = cursors.size(); i < n; i++) {
+				if (stepBudget > 0 && steps[0]++ >= stepBudget) {
+					if (steps[0] == stepBudget + 1) {
+						budgetExceeded.incrementAndGet();
+					}
+					if (rejectOverBudget) {
+						if (trace != null) {
+							trace.finish("step budget exceeded, listing rejected", null);
+						}
+						return null;
+					}
+					if (trace != null) {
+						trace.note("step budget exceeded at [" + text.getWord(w) + "], remaining words ignored");
+					}
+					break walk;
+				}
+				
+				TrieNode node = cursors.remove();
+				node = profile != null
+						? profile.findDescendant(node, chars, start, end)
+						: node.findDescendant(chars, start, end);
+				if (node != null) {
+					if (node.getData() != null) {	// we have some matches.
+
+						// apply the filter
+						MatchList list = (MatchList) node.getData();
+						int[] products = MatchSet.filter(list, filter);
+						
+						// is this an unremovable match for a single product?
+						if (earlyTermination && products.length == 1 && !list.isExtensible()) {
+							int product = ProductMatch.getProductId(products[0]);
+							if (fixedSingleton < 0) {
+								fixedSingleton = product;
+							} else if (product != fixedSingleton) {
+								if (trace != null) {
+									trace.fired(text.getWord(w), node, products);
+									trace.finish("early termination on conflicting unremovable singletons", MatchSet.EMPTY);
+								}
+								return MatchSet.EMPTY;	// conflicting singletons
+							}
+						}
+
+						// do we still have matches after applying filter?
+						if (products.length > 0) {
+							matches.put(node, products);
+							if (trace != null) {
+								trace.fired(text.getWord(w), node, products);
+							}
+							
+							// remove matches for ancestor nodes.
+							for (TrieNode anc = node.getParent(); anc != null; anc = anc.getParent()) {
+								if (matches.remove(anc) != null && trace != null) {
+									trace.superseded(anc);
+								}
+							}
+						}
+					}
+					
+					// add cursor for descendant node
+					cursors.add(node);
+				}
+			}
+		}
+		
+		/* If nothing at all matched the title of a listing (i.e., there is a
+		 * filter, so this is the model trie), the model may be misspelled in
+		 * the listing (e.g., "DSC-W31O" for "DSC-W310").  If enabled, make a
+		 * second pass allowing a few edits.
+		 */
+		if (matches.isEmpty() && filter != null && fuzzyDistance > 0) {
+			matchFuzzy(root, text.toWords(), filter, matches);
+			if (trace != null) {
+				trace.note("fuzzy pass:");
+				for (Map.Entry<TrieNode, int[]> entry : matches.entrySet()) {
+					trace.fired("~", entry.getKey(), entry.getValue());
+				}
+			}
+		}
+		
+		/* Now that we have a collection of possible matches, we must resolve
+		 * them to a minimal set of matches (ideally only one).  The following
+		 * possibilities should be considered:
+		 * 
+		 *   1) There may be conflicting matches against multiple products.
+		 *      That is, one trie node matches against exactly one product, and
+		 *      another node matches against exactly one different product.
+		 *      More generally, two trie nodes may match but the intersection
+		 *      of the sets of matching products is empty.
+		 *      
+		 *      If this occurs, it is likely because the listing refers to an
+		 *      accessory (such as a battery, case, etc) that may be used for
+		 *      multiple products.  For example:
+		 *      
+		 *      "Battery pack to be used with Canon EOS 5D, 7D, or T2i cameras"
+		 *      
+		 *      Notice that a listing like this one would not be caught by the
+		 *      "for/pour" rule in the preprocessing stage.
+		 *      
+		 *   2) Depending on the word separation for the model number in the
+		 *      product database vs the listings, and whether a family name is
+		 *      included or not may cause quirks in the matching.  For example,
+		 *      consider the following products:
+		 *      
+		 *       (a) "Canon EOS Rebel T1i"
+		 *       (b) "Canon EOS Rebel T2i"
+		 *       (c) "Canon Rebel T3i"
+		 *       
+		 *      Here, "EOS" probably should be included in (c), but it is not.
+		 *      If the listing says "Canon EOS Rebel T3i", then EOS will match
+		 *      against (a), (b), (and probably others), but "Rebel T3i" will
+		 *      result in a unique match (c).  Even though the resulting
+		 *      intersection of matching sets will be empty, we want the latter
+		 *      match to take precedence because it is a unique match.
+		 *      
+		 *  The following rules are therefore used to resolve the matches:
+		 *  
+		 *   1) If there are any nodes which match against only one product,
+		 *      then we return that product as long as ALL such nodes match
+		 *      against the same product.
+		 *   2) If all matching nodes match against multiple products, then we
+		 *      return a set containing only those products which are matched
+		 *      by every node.  Note that, because we have eliminated matching
+		 *      nodes that were ancestors of other matching nodes, conflicts
+		 *      between such pairs of nodes do not affect the results.  We only
+		 *      consider maximal matches.
+		 */
+		int[] results = null;
+		TrieNode seed = null;	// node whose matches results are drawn from
+		boolean foundSingleton = false;
+		for (Map.Entry<TrieNode, int[]> entry : matches.entrySet()) {
+			int[] products = entry.getValue();
+			if (!foundSingleton && products.length == 1) {
+				foundSingleton = true;
+				results = products;
+				seed = entry.getKey();
+			} else {
+				if (foundSingleton) {
+					// if we've already found a singleton, only consider other
+					// singletons from here on.
+					if (products.length == 1) { results = MatchSet.intersect(results, products); }
+				} else { // !foundSingleton
+					if (results == null) {
+						results = products;
+						seed = entry.getKey();
+					} else {
+						results = MatchSet.intersect(results, products);
+					}
+				}
+			}
+		}
+
+		/* If there are still multiple matching products, eliminate all those
+		 * matches which are not maximal (i.e., for which there is some suffix
+		 * that could be appended to the match to make a longer match).  This
+		 * is to handle the possibility that every string that matches one
+		 * product also matches another.  For example, consider:
+		 * 
+		 *   (a) Pentax WG-1
+		 *   (b) Pentax WG-1 GPS
+		 * 
+		 * There is no string that matches (a) that would not also match (b).
+		 * Consider the following listing:
+		 * 
+		 *   "PENTAX Optio WG-1 14 MP Rugged Waterproof Digital Camera"
+		 *   
+		 * Without any further consideration, this would match both (a) and (b)
+		 * and thus the program would report no unique match.  The logic we are
+		 * using here is that "WG-1" constitutes a maximal match for (a), but
+		 * there is something that *could* be appended to that substring to
+		 * create a longer match for (b).  In this case, we accept (a) and
+		 * reject (b).
+		 * 
+		 * The maximal flags are those of the node the results were drawn
+		 * from.  If no products were removed from that node's matches by the
+		 * filter or the intersections above, its precomputed list of maximal
+		 * matches is used as is.
+		 */
+		String rule = null;
+		if (trace != null) {
+			rule = matches.isEmpty() ? "no matching nodes"
+					: foundSingleton ? "intersection of single-product nodes"
+					: "intersection of all matching nodes";
+		}
+
+		if (useMaximalFlag && results != null && results.length > 1) {
+			results = MatchSet.maximal(results, (MatchList) seed.getData());
+			if (trace != null) {
+				rule += ", then maximal matches only";
+			}
+		}
+
+		if (trace != null) {
+			trace.finish(rule, results);
+		}
+		
+		return results;
+
+	}
+	
+	/**
+	 * Finds the trie nodes that match the specified words approximately.
+	 * For each starting word, the concatenation of that word and those
+	 * following it is searched for in the trie using a
+	 * {@link LevenshteinTrieSearch}, which finds the nodes whose strings are
+	 * within {@link #fuzzyDistance} edits of the concatenation of some
+	 * sequence of consecutive words, skipping whole subtrees that cannot
+	 * match.  Only the nodes with the fewest edits are kept, and, as for the
+	 * exact walk, the matches of their ancestors are discarded.
+	 * @param root The <code>TrieNode</code> at the root of the trie to use to
+	 * 		match against.
+	 * @param words The normalized words to match.
+	 * @param filter A sorted array of encoded matches used to filter the
+	 * 		results (see {@link MatchSet}).
+	 * @param matches The <code>Map</code> to which to add the matching nodes
+	 * 		and their filtered matches.
+	 */
+	private void matchFuzzy(TrieNode root, String[] words, int[] filter,
+			Map<TrieNode, int[]> matches) {
+		
+		int length = 0;
+		for (String word : words) {
+			length += word.length();
+		}
+		
+		LevenshteinTrieSearch search = new LevenshteinTrieSearch(fuzzyDistance, fuzzyMaxStates);
+		Map<TrieNode, Integer> hits = new LinkedHashMap<TrieNode, Integer>();
+		boolean[] boundaries = new boolean[length + 1];
+		for (int i = 0; i < words.length; i++) {
+			if (words[i].isEmpty()) {
+				continue;
+			}
+			String query = LevenshteinTrieSearch.buildQuery(words, i, boundaries);
+			if (!search.search(root, query, boundaries, hits)) {
+				return;	// too expensive, give up
+			}
+		}
+		
+		int best = fuzzyDistance + 1;
+		for (Map.Entry<TrieNode, Integer> hit : hits.entrySet()) {
+			int distance = hit.getValue();
+			if (distance > best) {
+				continue;
+			}
+			
+			int[] products = MatchSet.filter((MatchList) hit.getKey().getData(), filter);
+			if (products.length > 0) {
+				if (distance < best) {
+					best = distance;
+					matches.clear();
+				}
+				matches.put(hit.getKey(), products);
+			}
+		}
+		
+		// remove matches for ancestor nodes.
+		for (TrieNode node : matches.keySet().toArray(new TrieNode[matches.size()])) {
+			for (TrieNode anc = node.getParent(); anc != null; anc = anc.getParent()) {
+				matches.remove(anc);
+			}
+		}
+		
+	}
+	
+	/**
+	 * Matches the specified string with at most one <code>Product</code>.
+	 * @param root The <code>TrieNode</code> at the root of the trie to use to
+	 * 		match against.
+	 * @param text The <code>NormalizedText</code> to match against.
+	 * @param filter A sorted array of encoded matches used to filter the
+	 * 		results (see {@link MatchSet}).  If present, the specified trie
+	 * 		will be treated as if it only contained products in this array.
+	 * @param useMaximalFlag A value indicating whether the matching should
+	 * 		return only maximal matches if there would otherwise be multiple
+	 * 		matching products.
+	 * @param steps A one-element array holding the number of steps of the
+	 * 		step budget already taken for the listing.
+	 * @param trace The <code>MatchTrace</code> in which to record how the
+	 * 		matching proceeds, or <code>null</code> if the matching is not
+	 * 		being traced.
+	 * @return The matching <code>Product</code>, if there is exactly one, or
+	 * 		<code>null</code> if zero or more than one <code>Product</code>
+	 * 		matches.
+	 */
+	private Product matchOne(TrieNode root, NormalizedText text, int[] filter,
+			boolean useMaximalFlag, int[] steps, MatchTrace trace) {
+		int[] matches = match(root, text, filter, useMaximalFlag, steps, trace);
+		if (matches != null && matches.length == 1) {
+			return products.get(ProductMatch.getProductId(matches[0]));
+		}
+		return null;
+	}
+
+}
@@ -1,7 +1,13 @@
 package ca.eandb.sortable;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 /**
@@ -31,11 +37,33 @@ public final class TrieNode {
 	 * A <code>Map</code> used to lookup the children of a particular node.
 	 * This map will be shared by all the <code>TrieNode</code>s for a given
 	 * trie.  The key type for this map is the (node, character) pair that
-	 * uniquely identifies the parent-child edge.
+	 * uniquely identifies the parent-child edge.  This is <code>null</code>
+	 * if the trie is frozen.
 	 * 
 	 * @see ChildRef
+	 * @see #freeze(TrieProfile)
+	 * @see #TrieNode(boolean)
 	 */
 	private final Map<ChildRef, TrieNode> children;
+	
+	/**
+	 * The <code>char</code>s identifying the children of this node, if the
+	 * trie is frozen.  The children are ordered from most to least frequently
+	 * visited, so that the hottest children are probed first.
+	 */
+	private char[] frozenKeys;
+	
+	/**
+	 * The children of this node, if the trie is frozen, in the same order as
+	 * {@link #frozenKeys}.
+	 */
+	private TrieNode[] frozenChildren;
+	
+	/** An empty array of keys, shared by frozen leaf nodes. */
+	private static final char[] NO_KEYS = new char[0];
+	
+	/** An empty array of children, shared by frozen leaf nodes. */
+	private static final TrieNode[] NO_CHILDREN = new TrieNode[0];
 
 	/** The parent <code>TrieNode</code> of this node. */
 	private final TrieNode parent;
@@ -97,11 +125,64 @@ public final class TrieNode {
 		}
 	}
 	
+	/**
+	 * A node waiting to be copied while freezing a trie.
+	 * 
+	 * @see TrieNode#freeze(TrieProfile)
+	 */
+	private static final class Pending {
+		
+		/** The <code>TrieNode</code> to copy. */
+		public final TrieNode node;
+		
+		/** The copy of the parent of <code>node</code>. */
+		public final TrieNode parentCopy;
+		
+		/** The index of <code>node</code> among its parent's children. */
+		public final int slot;
+		
+		/** The order in which this node was reached. */
+		public final long sequence;
+		
+		/**
+		 * Creates a new <code>Pending</code> node.
+		 * @param node The <code>TrieNode</code> to copy.
+		 * @param parentCopy The copy of the parent of <code>node</code>.
+		 * @param slot The index of <code>node</code> among its parent's
+		 * 		children.
+		 * @param sequence The order in which this node was reached.
+		 */
+		public Pending(TrieNode node, TrieNode parentCopy, int slot, long sequence) {
+			this.node = node;
+			this.parentCopy = parentCopy;
+			this.slot = slot;
+			this.sequence = sequence;
+		}
+		
+	}
+	
 	/**
 	 * Creates a new root <code>TrieNode</code>.  
 	 */
 	public TrieNode() {
-		this.children = new HashMap<ChildRef, TrieNode>();
+		this(false);
+	}
+	
+	/**
+	 * Creates a new root <code>TrieNode</code>, optionally allowing nodes to
+	 * be inserted into the trie by multiple threads at once.  The children of
+	 * a concurrent trie are kept in a <code>ConcurrentHashMap</code>, so that
+	 * inserting a node does not lock the trie (or even the parent node), and
+	 * two threads inserting the same child both get the same node.  The data
+	 * associated with each node is not synchronized, so threads that modify
+	 * it must synchronize on the node.
+	 * @param concurrent A value indicating whether multiple threads may insert
+	 * 		into the trie at once.
+	 */
+	public TrieNode(boolean concurrent) {
+		this.children = concurrent
+				? new ConcurrentHashMap<ChildRef, TrieNode>()
+				: new HashMap<ChildRef, TrieNode>();
 		this.parent = null;
 	}
 	
@@ -118,6 +199,20 @@ public final class TrieNode {
 		
 	}
 	
+	/**
+	 * Creates a new frozen <code>TrieNode</code>.
+	 * @param parent The parent <code>TrieNode</code> of the new node, or
+	 * 		<code>null</code> if the new node is to be the root.
+	 * @param keys The <code>char</code>s identifying the children of the new
+	 * 		node.
+	 */
+	private TrieNode(TrieNode parent, char[] keys) {
+		this.children = null;
+		this.parent = parent;
+		this.frozenKeys = keys;
+		this.frozenChildren = keys.length > 0 ? new TrieNode[keys.length] : NO_CHILDREN;
+	}
+	
 	/**
 	 * Creates a new <code>TrieNode</code> which is to be the child of this
 	 * <code>TrieNode</code>.
@@ -134,6 +229,14 @@ public final class TrieNode {
 	 * 		if no such child exists.
 	 */
 	public TrieNode findChild(char c) {
+		if (frozenKeys != null) {
+			for (int i = 0; i < frozenKeys.length; i++) {
+				if (frozenKeys[i] == c) {
+					return frozenChildren[i];
+				}
+			}
+			return null;
+		}
 		ChildRef ref = new ChildRef(this, c);
 		return children.get(ref);
 	}
@@ -152,6 +255,23 @@ public final class TrieNode {
 		return node;
 	}
 	
+	/**
+	 * Finds a descendant of this <code>TrieNode</code>, following a path
+	 * given as ASCII bytes (e.g., a word of a {@link NormalizedText}).
+	 * @param s The array holding the bytes identifying the path to follow.
+	 * @param from The index of the first byte of the path.
+	 * @param to The index following the last byte of the path.
+	 * @return The specified descendant <code>TrieNode</code>, or
+	 * 		<code>null</code> if no such descendant exists.
+	 */
+	public TrieNode findDescendant(byte[] s, int from, int to) {
+		TrieNode node = this;
+		for (int i = from; i < to && node != null; i++) {
+			node = node.findChild((char) s[i]);
+		}
+		return node;
+	}
+	
 	/**
 	 * Inserts a child <code>TrieNode</code> into the trie.
 	 * @param c The <code>char</code> identifying the new child.
@@ -161,10 +281,20 @@ public final class TrieNode {
 	public TrieNode insert(char c) {
 		TrieNode child = findChild(c);
 		if (child == null) {
+			if (isFrozen()) {
+				throw new UnsupportedOperationException("Trie is frozen.");
+			}
+
 			ChildRef ref = new ChildRef(this, c);
 
+			/* Another thread may have inserted the same child since we
+			 * looked, in which case we use its node rather than ours.
+			 */
 			child = newChild();
-			children.put(ref, child);
+			TrieNode existing = children.putIfAbsent(ref, child);
+			if (existing != null) {
+				child = existing;
+			}
 		}
 		return child;	
 	}
@@ -184,6 +314,177 @@ public final class TrieNode {
 		return node;
 	}
 	
+	/**
+	 * Enumerates all of the parent-child edges in the trie containing this
+	 * <code>TrieNode</code> (not only those below this node).  The edges are
+	 * visited in no particular order.
+	 * @param visitor The <code>TrieEdgeVisitor</code> to enumerate the edges
+	 * 		to.
+	 */
+	public void visitEdges(TrieEdgeVisitor visitor) {
+		if (isFrozen()) {
+			TrieNode root = this;
+			while (!root.isRoot()) {
+				root = root.parent;
+			}
+			
+			List<TrieNode> stack = new ArrayList<TrieNode>();
+			stack.add(root);
+			while (!stack.isEmpty()) {
+				TrieNode node = stack.remove(stack.size() - 1);
+				for (int i = 0; i < node.frozenKeys.length; i++) {
+					visitor.visit(node, node.frozenKeys[i], node.frozenChildren[i]);
+					stack.add(node.frozenChildren[i]);
+				}
+			}
+		} else {
+			for (Map.Entry<ChildRef, TrieNode> entry : children.entrySet()) {
+				ChildRef ref = entry.getKey();
+				visitor.visit(ref.parent, ref.character, entry.getValue());
+			}
+		}
+	}
+	
+	/**
+	 * Creates a frozen copy of the trie rooted at this node.  A frozen trie
+	 * cannot be modified, but looking up children is cheaper: each node keeps
+	 * its own small array of children, which is scanned in order, rather than
+	 * looking them up in the map shared by the whole trie.  The data
+	 * associated with each node is shared with the copy.
+	 * 
+	 * If a <code>TrieProfile</code> is provided, the copy is laid out according
+	 * to how often each node was visited: the children of each node are
+	 * ordered from most to least frequently visited, and the nodes are created
+	 * in order of decreasing visit count (subject to each node being created
+	 * after its parent), so that the hottest nodes are allocated close
+	 * together on the heap.  Otherwise, the nodes are created in breadth-first
+	 * order and children are ordered by <code>char</code>.
+	 * 
+	 * @param profile The <code>TrieProfile</code> recording how often each
+	 * 		node was visited (may be <code>null</code>).
+	 * @return The root of the frozen copy of this trie.
+	 */
+	public TrieNode freeze(final TrieProfile profile) {
+		
+		/* Group the edges by parent. */
+		final Map<TrieNode, List<TrieNode>> childLists = new HashMap<TrieNode, List<TrieNode>>();
+		final Map<TrieNode, Character> keys = new HashMap<TrieNode, Character>();
+		visitEdges(new TrieEdgeVisitor() {
+			public void visit(TrieNode parent, char c, TrieNode child) {
+				List<TrieNode> list = childLists.get(parent);
+				if (list == null) {
+					list = new ArrayList<TrieNode>();
+					childLists.put(parent, list);
+				}
+				list.add(child);
+				keys.put(child, c);
+			}
+		});
+		
+		/* Order children from hottest to coldest (ties broken by char). */
+		final Comparator<TrieNode> hottestFirst = new Comparator<TrieNode>() {
+			public int compare(TrieNode a, TrieNode b) {
+				int hitsA = profile != null ? profile.getHits(a) : 0;
+				int hitsB = profile != null ? profile.getHits(b) : 0;
+				if (hitsA != hitsB) {
+					return hitsA > hitsB ? -1 : 1;
+				}
+				return keys.get(a).compareTo(keys.get(b));
+			}
+		};
+		
+		/* Create the copies of the nodes, hottest first.  Each entry in the
+		 * frontier is a node whose parent has been copied, along with its
+		 * position in the parent's array of children.  Ties are broken in
+		 * first-in, first-out order, so without a profile this is a
+		 * breadth-first traversal.
+		 */
+		PriorityQueue<Pending> frontier = new PriorityQueue<Pending>(11, new Comparator<Pending>() {
+			public int compare(Pending a, Pending b) {
+				int hitsA = profile != null ? profile.getHits(a.node) : 0;
+				int hitsB = profile != null ? profile.getHits(b.node) : 0;
+				if (hitsA != hitsB) {
+					return hitsA > hitsB ? -1 : 1;
+				}
+				return a.sequence < b.sequence ? -1 : (a.sequence > b.sequence ? 1 : 0);
+			}
+		});
+		
+		long sequence = 0;
+		TrieNode root = null;
+		frontier.add(new Pending(this, null, -1, sequence++));
+		while (!frontier.isEmpty()) {
+			Pending pending = frontier.remove();
+			
+			List<TrieNode> list = childLists.get(pending.node);
+			char[] childKeys = NO_KEYS;
+			if (list != null) {
+				Collections.sort(list, hottestFirst);
+				childKeys = new char[list.size()];
+				for (int i = 0; i < childKeys.length; i++) {
+					childKeys[i] = keys.get(list.get(i));
+				}
+			}
+			
+			TrieNode copy = new TrieNode(pending.parentCopy, childKeys);
+			copy.data = pending.node.data;
+			if (pending.parentCopy != null) {
+				pending.parentCopy.frozenChildren[pending.slot] = copy;
+			} else {
+				root = copy;
+			}
+			
+			if (list != null) {
+				for (int i = 0; i < childKeys.length; i++) {
+					frontier.add(new Pending(list.get(i), copy, i, sequence++));
+				}
+			}
+		}
+		
+		return root;
+		
+	}
+	
+	/**
+	 * Gets the number of children of this node, if the trie is frozen.
+	 * @return The number of children of this node.
+	 * @see #isFrozen()
+	 */
+	int getFrozenChildCount() {
+		return frozenKeys.length;
+	}
+	
+	/**
+	 * Gets the <code>char</code> identifying a child of this node, if the trie
+	 * is frozen.
+	 * @param i The position of the child (from zero to
+	 * 		{@link #getFrozenChildCount()} - 1).
+	 * @return The <code>char</code> identifying the child.
+	 */
+	char getFrozenKey(int i) {
+		return frozenKeys[i];
+	}
+	
+	/**
+	 * Gets a child of this node, if the trie is frozen.
+	 * @param i The position of the child (from zero to
+	 * 		{@link #getFrozenChildCount()} - 1).
+	 * @return The child <code>TrieNode</code>.
+	 */
+	TrieNode getFrozenChild(int i) {
+		return frozenChildren[i];
+	}
+	
+	/**
+	 * Determines if this <code>TrieNode</code> belongs to a frozen trie.
+	 * @return A value indicating if this <code>TrieNode</code> belongs to a
+	 * 		frozen trie.
+	 * @see #freeze(TrieProfile)
+	 */
+	public boolean isFrozen() {
+		return children == null;
+	}
+	
 	/**
 	 * Determines if this <code>TrieNode</code> is the root of a trie. 
 	 * @return A value indicating if this <code>TrieNode</code> is the root of
@@ -0,0 +1,87 @@
+/**
+ * 
+ */
+package ca.eandb.sortable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Records how often each node of one or more tries is visited while matching
+ * a sample of listings, for use in laying out a frozen trie (see
+ * {@link TrieNode#freeze(TrieProfile)}).  Since each node has exactly one
+ * incoming edge, the number of visits to a node is also the number of times
+ * the edge leading to it was followed.  This class is not thread-safe.
+ * 
+ * @author Brad Kimmel
+ */
+public final class TrieProfile {
+	
+	/** The number of times each node has been visited. */
+	private final Map<TrieNode, int[]> hits = new HashMap<TrieNode, int[]>();
+	
+	/**
+	 * Finds a descendant of a <code>TrieNode</code>, recording a visit to
+	 * each node along the way.
+	 * @param node The <code>TrieNode</code> to start from.
+	 * @param s The <code>String</code> identifying the path to follow.
+	 * @return The specified descendant <code>TrieNode</code>, or
+	 * 		<code>null</code> if no such descendant exists.
+	 * @see TrieNode#findDescendant(String)
+	 */
+	public TrieNode findDescendant(TrieNode node, String s) {
+		for (int i = 0, n = s.length(); i < n && node != null; i++) {
+			node = node.findChild(s.charAt(i));
+			if (node != null) {
+				hit(node);
+			}
+		}
+		return node;
+	}
+	
+	/**
+	 * Finds a descendant of a <code>TrieNode</code>, recording a visit to
+	 * each node along the way.
+	 * @param node The <code>TrieNode</code> to start from.
+	 * @param s The array holding the ASCII bytes identifying the path to
+	 * 		follow.
+	 * @param from The index of the first byte of the path.
+	 * @param to The index following the last byte of the path.
+	 * @return The specified descendant <code>TrieNode</code>, or
+	 * 		<code>null</code> if no such descendant exists.
+	 * @see TrieNode#findDescendant(byte[], int, int)
+	 */
+	public TrieNode findDescendant(TrieNode node, byte[] s, int from, int to) {
+		for (int i = from; i < to && node != null; i++) {
+			node = node.findChild((char) s[i]);
+			if (node != null) {
+				hit(node);
+			}
+		}
+		return node;
+	}
+	
+	/**
+	 * Records a visit to a node.
+	 * @param node The <code>TrieNode</code> that was visited.
+	 */
+	public void hit(TrieNode node) {
+		int[] count = hits.get(node);
+		if (count == null) {
+			count = new int[1];
+			hits.put(node, count);
+		}
+		count[0]++;
+	}
+	
+	/**
+	 * Gets the number of times a node has been visited.
+	 * @param node The <code>TrieNode</code>.
+	 * @return The number of times <code>node</code> has been visited.
+	 */
+	public int getHits(TrieNode node) {
+		int[] count = hits.get(node);
+		return count != null ? count[0] : 0;
+	}
+
+}
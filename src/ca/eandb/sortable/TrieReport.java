@@ -0,0 +1,116 @@
+/**
+ * 
+ */
+package ca.eandb.sortable;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.json.simple.JSONValue;
+
+
+/**
+ * An application that reports statistics about the tries built from a
+ * collection of products (see {@link TrieStatistics}).  The report is written
+ * as a single JSON object so that it may be collected and compared over time.
+ * 
+ * @author Brad Kimmel
+ */
+public final class TrieReport {
+
+	/**
+	 * Usage: ca.eandb.sortable.TrieReport <products_file> [<output_file>]
+	 * Reports statistics about the tries built from a collection of products.
+	 *
+	 *   <products_file> - A file containing a list of products formatted as JSON
+	 *                     objects, one per line.
+	 *   <output_file>   - A file to which to write the report.  If not specified,
+	 *                     stdout is used.  A dash (-) may also be specified for
+	 *                     stdout.
+	 *                     
+	 * @param args The program arguments as specified above.
+	 */
+	public static void main(String[] args) {
+
+		if (args.length < 1 || args.length > 2) {
+			System.out.printf("Usage: %s <products_file> [<output_file>]", TrieReport.class.getName());
+			System.out.println();
+			System.exit(1);
+		}
+
+		try {
+
+			final ProductTrieBuilder builder = new ProductTrieBuilder();
+			final int[] count = new int[1];
+			Catalogs.read(new File(args[0]), new ProductVisitor() {
+				public void visit(Product product) {
+					builder.visit(product);
+					count[0]++;
+				}
+			});
+
+			Map<String, Object> report = new LinkedHashMap<String, Object>();
+			report.put("products", count[0]);
+			report.put("manufacturer", toMap(new TrieStatistics(
+					builder.getProducts(), builder.getManufacturerRoot())));
+			report.put("model", toMap(new TrieStatistics(
+					builder.getProducts(), builder.getModelRoot())));
+
+			Writer out = args.length > 1 && !args[1].equals("-") ?
+				new FileWriter(args[1]) : 
+				new PrintWriter(System.out);
+			JSONValue.writeJSONString(report, out);
+			out.write(String.format("%n"));
+			out.close();
+
+		} catch (Exception e) {
+
+			e.printStackTrace();
+			System.exit(1);
+
+		}
+
+	}
+
+	/**
+	 * Converts <code>TrieStatistics</code> to a <code>Map</code> that may be
+	 * written as JSON.
+	 * @param stats The <code>TrieStatistics</code> to convert.
+	 * @return The <code>Map</code> representing <code>stats</code>.
+	 */
+	private static Map<String, Object> toMap(TrieStatistics stats) {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		map.put("nodes", stats.getNodeCount());
+		map.put("edges", stats.getEdgeCount());
+		map.put("payloadNodes", stats.getPayloadNodeCount());
+		map.put("matches", stats.getMatchCount());
+		map.put("maximalMatches", stats.getMaximalMatchCount());
+		map.put("nonMaximalMatches", stats.getMatchCount() - stats.getMaximalMatchCount());
+		map.put("referencedProducts", stats.getProductCount());
+		map.put("retainedBytes", stats.getRetainedBytes());
+		map.put("retainedBytesPerProduct", stats.getRetainedBytesPerProduct());
+		map.put("depthHistogram", toMap(stats.getDepthHistogram()));
+		map.put("fanOutHistogram", toMap(stats.getFanOutHistogram()));
+		map.put("payloadHistogram", toMap(stats.getPayloadHistogram()));
+		return map;
+	}
+
+	/**
+	 * Converts a histogram to a <code>Map</code> with <code>String</code>
+	 * keys, so that it may be written as a JSON object.
+	 * @param histogram The histogram to convert.
+	 * @return The <code>Map</code> representing <code>histogram</code>.
+	 */
+	private static Map<String, Object> toMap(Map<Integer, Integer> histogram) {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		for (Map.Entry<Integer, Integer> entry : histogram.entrySet()) {
+			map.put(entry.getKey().toString(), entry.getValue());
+		}
+		return map;
+	}
+
+}
@@ -0,0 +1,304 @@
+/**
+ * 
+ */
+package ca.eandb.sortable;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Statistics describing the shape and approximate memory footprint of a trie
+ * built by a {@link ProductTrieBuilder}.
+ *
+ * The memory estimate assumes a 64-bit JVM with compressed object pointers
+ * (12 byte object headers, 4 byte references, 8 byte alignment) and compact
+ * (one byte per character) strings.  It includes the <code>TrieNode</code>s,
+ * the shared map of edges (or, for a frozen trie, the arrays of children at
+ * each node), the match lists stored at the nodes, and the columns of the
+ * {@link ProductStore} for the products referenced by the trie.  Since the
+ * products are shared between the manufacturer and model tries, the
+ * estimates for the two tries should not simply be added together.
+ *
+ * @author Brad Kimmel
+ */
+public final class TrieStatistics {
+
+	/** The estimated size of a <code>TrieNode</code>. */
+	private static final int TRIE_NODE_BYTES = 32;
+
+	/**
+	 * The estimated size of an edge in a trie that is not frozen (a
+	 * <code>ChildRef</code> and a map entry).
+	 */
+	private static final int EDGE_BYTES = 24 + 32;
+
+	/** The estimated size of a <code>MatchList</code>, excluding its arrays. */
+	private static final int MATCH_LIST_BYTES = 24;
+
+	/**
+	 * The estimated size of a product's entries in the columns of a
+	 * <code>ProductStore</code> (two references, three dictionary codes, and
+	 * a slot in the cache), excluding its strings.
+	 */
+	private static final int PRODUCT_BYTES = 4 + 4 + 3 * 4 + 4;
+
+	/** The number of nodes in the trie. */
+	private int nodes = 0;
+
+	/** The number of edges in the trie. */
+	private int edges = 0;
+
+	/** The number of nodes with a non-empty product list. */
+	private int payloadNodes = 0;
+
+	/** The total number of product matches stored in the trie. */
+	private int matches = 0;
+
+	/** The number of product matches that are flagged as maximal. */
+	private int maximalMatches = 0;
+
+	/** The number of distinct products referenced by the trie. */
+	private int products = 0;
+
+	/** The estimated number of bytes of heap retained by the trie. */
+	private long retainedBytes = 0;
+
+	/** The number of nodes at each depth. */
+	private final SortedMap<Integer, Integer> depthHistogram = new TreeMap<Integer, Integer>();
+
+	/** The number of nodes with each number of children. */
+	private final SortedMap<Integer, Integer> fanOutHistogram = new TreeMap<Integer, Integer>();
+
+	/** The number of nodes with each length of product list. */
+	private final SortedMap<Integer, Integer> payloadHistogram = new TreeMap<Integer, Integer>();
+
+	/**
+	 * Computes the statistics for a trie.
+	 * @param products The <code>ProductStore</code> holding the products
+	 * 		referred to by the trie.
+	 * @param root The <code>TrieNode</code> at the root of the trie.  The
+	 * 		data associated with each node must be either <code>null</code> or
+	 * 		a <code>MatchList</code>.
+	 */
+	public TrieStatistics(ProductStore products, TrieNode root) {
+
+		final Map<TrieNode, Integer> fanOut = new HashMap<TrieNode, Integer>();
+		fanOut.put(root, 0);
+		root.visitEdges(new TrieEdgeVisitor() {
+			public void visit(TrieNode parent, char c, TrieNode child) {
+				Integer n = fanOut.get(parent);
+				fanOut.put(parent, n != null ? n + 1 : 1);
+				if (!fanOut.containsKey(child)) {
+					fanOut.put(child, 0);
+				}
+			}
+		});
+
+		Map<TrieNode, Integer> depths = new HashMap<TrieNode, Integer>();
+		Set<Integer> productSet = new HashSet<Integer>();
+
+		for (Map.Entry<TrieNode, Integer> entry : fanOut.entrySet()) {
+			TrieNode node = entry.getKey();
+			nodes++;
+			edges += entry.getValue();
+			increment(fanOutHistogram, entry.getValue());
+			if (root.isFrozen() && entry.getValue() > 0) {
+				retainedBytes += align(16 + 2 * entry.getValue())
+						+ align(16 + 4 * entry.getValue());
+			}
+			increment(depthHistogram, depth(node, depths));
+
+			MatchList list = (MatchList) node.getData();
+			int size = list != null ? list.size() : 0;
+			increment(payloadHistogram, size);
+			if (list != null) {
+				payloadNodes++;
+				retainedBytes += MATCH_LIST_BYTES + align(16 + 4 * size);
+				if (list.getMaximalMatches() != list.getMatches()) {
+					retainedBytes += align(16 + 4 * list.getMaximalMatches().length);
+				}
+				for (int match : list.getMatches()) {
+					matches++;
+					if (ProductMatch.isMaximal(match)) {
+						maximalMatches++;
+					}
+					productSet.add(ProductMatch.getProductId(match));
+				}
+			}
+		}
+
+		/* Dictionary-encoded values are stored once, however many products
+		 * share them.
+		 */
+		Map<String, String> values = new IdentityHashMap<String, String>();
+		this.products = productSet.size();
+		for (int id : productSet) {
+			retainedBytes += PRODUCT_BYTES
+					+ stringBytes(products.getName(id))
+					+ stringBytes(products.getModel(id));
+			values.put(products.getManufacturer(id), products.getManufacturer(id));
+			values.put(products.getFamily(id), products.getFamily(id));
+			values.put(products.getAnnouncedDate(id), products.getAnnouncedDate(id));
+		}
+		for (String value : values.keySet()) {
+			retainedBytes += stringBytes(value);
+		}
+
+		/* The edge map's table has a power-of-two capacity and is kept at
+		 * most 75% full.
+		 */
+		if (!root.isFrozen()) {
+			long capacity = 16;
+			while (capacity * 3 / 4 < edges) {
+				capacity *= 2;
+			}
+			retainedBytes += align(16 + 4 * capacity) + (long) edges * EDGE_BYTES;
+		}
+
+		retainedBytes += (long) nodes * TRIE_NODE_BYTES;
+
+	}
+
+	/**
+	 * Computes the depth of a node, using the depths of nodes computed so far.
+	 * @param node The <code>TrieNode</code>.
+	 * @param depths The <code>Map</code> of depths computed so far.
+	 * @return The depth of <code>node</code> (zero for the root).
+	 */
+	private static int depth(TrieNode node, Map<TrieNode, Integer> depths) {
+		Integer depth = depths.get(node);
+		if (depth == null) {
+			depth = node.isRoot() ? 0 : depth(node.getParent(), depths) + 1;
+			depths.put(node, depth);
+		}
+		return depth;
+	}
+
+	/**
+	 * Increments a bucket of a histogram.
+	 * @param histogram The histogram to update.
+	 * @param key The bucket to increment.
+	 */
+	private static void increment(SortedMap<Integer, Integer> histogram, int key) {
+		Integer n = histogram.get(key);
+		histogram.put(key, n != null ? n + 1 : 1);
+	}
+
+	/**
+	 * Estimates the size of a <code>String</code>, including its backing
+	 * array.
+	 * @param s The <code>String</code> (may be <code>null</code>).
+	 * @return The estimated size of <code>s</code>, in bytes.
+	 */
+	private static long stringBytes(String s) {
+		return s != null ? 24 + align(16 + s.length()) : 0;
+	}
+
+	/**
+	 * Rounds a size up to the JVM's object alignment.
+	 * @param bytes The unaligned size, in bytes.
+	 * @return The aligned size, in bytes.
+	 */
+	private static long align(long bytes) {
+		return (bytes + 7) & ~7L;
+	}
+
+	/**
+	 * Gets the number of nodes in the trie.
+	 * @return The number of nodes in the trie.
+	 */
+	public int getNodeCount() {
+		return nodes;
+	}
+
+	/**
+	 * Gets the number of edges in the trie.
+	 * @return The number of edges in the trie.
+	 */
+	public int getEdgeCount() {
+		return edges;
+	}
+
+	/**
+	 * Gets the number of nodes with a non-empty product list.
+	 * @return The number of nodes with a non-empty product list.
+	 */
+	public int getPayloadNodeCount() {
+		return payloadNodes;
+	}
+
+	/**
+	 * Gets the total number of product matches stored in the trie.
+	 * @return The total number of product matches stored in the trie.
+	 */
+	public int getMatchCount() {
+		return matches;
+	}
+
+	/**
+	 * Gets the number of product matches that are flagged as maximal.
+	 * @return The number of product matches that are flagged as maximal.
+	 * @see ProductMatch#isMaximal()
+	 */
+	public int getMaximalMatchCount() {
+		return maximalMatches;
+	}
+
+	/**
+	 * Gets the number of distinct products referenced by the trie.
+	 * @return The number of distinct products referenced by the trie.
+	 */
+	public int getProductCount() {
+		return products;
+	}
+
+	/**
+	 * Gets the estimated number of bytes of heap retained by the trie.
+	 * @return The estimated number of bytes of heap retained by the trie.
+	 */
+	public long getRetainedBytes() {
+		return retainedBytes;
+	}
+
+	/**
+	 * Gets the estimated number of bytes of heap retained by the trie per
+	 * product referenced by the trie.
+	 * @return The estimated number of bytes per product.
+	 */
+	public double getRetainedBytesPerProduct() {
+		return products > 0 ? (double) retainedBytes / (double) products : 0.0;
+	}
+
+	/**
+	 * Gets the number of nodes at each depth (the root having depth zero).
+	 * @return A <code>SortedMap</code> from depth to the number of nodes.
+	 */
+	public SortedMap<Integer, Integer> getDepthHistogram() {
+		return Collections.unmodifiableSortedMap(depthHistogram);
+	}
+
+	/**
+	 * Gets the number of nodes with each number of children.
+	 * @return A <code>SortedMap</code> from the number of children to the
+	 * 		number of nodes.
+	 */
+	public SortedMap<Integer, Integer> getFanOutHistogram() {
+		return Collections.unmodifiableSortedMap(fanOutHistogram);
+	}
+
+	/**
+	 * Gets the number of nodes with each length of product list.
+	 * @return A <code>SortedMap</code> from the length of the product list to
+	 * 		the number of nodes.
+	 */
+	public SortedMap<Integer, Integer> getPayloadHistogram() {
+		return Collections.unmodifiableSortedMap(payloadHistogram);
+	}
+
+}
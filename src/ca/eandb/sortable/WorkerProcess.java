@@ -0,0 +1,87 @@
+/**
+ * 
+ */
+package ca.eandb.sortable;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Utility methods for launching worker processes running on the same JVM and
+ * class path as the current process.
+ * @author Brad Kimmel
+ */
+public final class WorkerProcess {
+
+	/**
+	 * Builds the command line for a worker process.  The worker runs on the
+	 * same JVM and class path as this process, and receives the same
+	 * <code>ca.eandb.sortable.*</code> system properties.
+	 * @param main The <code>Class</code> containing the worker's
+	 * 		<code>main</code> method.
+	 * @param args The arguments to pass to the worker.
+	 * @return The command line.
+	 */
+	public static List<String> command(Class<?> main, String... args) {
+		List<String> command = new ArrayList<String>();
+		command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		for (Map.Entry<Object, Object> e : System.getProperties().entrySet()) {
+			String key = e.getKey().toString();
+			if (key.startsWith("ca.eandb.sortable.")) {
+				command.add(String.format("-D%s=%s", key, e.getValue()));
+			}
+		}
+		command.add(main.getName());
+		for (String arg : args) {
+			command.add(arg);
+		}
+		return command;
+	}
+
+	/**
+	 * Copies the output of a worker process to <code>System.err</code>, one
+	 * line at a time, until the end of the stream is reached.
+	 * @param in The <code>InputStream</code> to copy.
+	 * @throws IOException If an error occurs while reading from
+	 * 		<code>in</code>.
+	 */
+	public static void copyToStderr(InputStream in) throws IOException {
+		BufferedReader buf = new BufferedReader(new InputStreamReader(in));
+		String line;
+		while ((line = buf.readLine()) != null) {
+			System.err.println(line);
+		}
+	}
+
+	/**
+	 * Starts a daemon thread that copies the output of a worker process to
+	 * <code>System.err</code>.
+	 * @param in The <code>InputStream</code> to copy.
+	 * @see #copyToStderr(InputStream)
+	 */
+	public static void startCopyToStderr(final InputStream in) {
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				try {
+					copyToStderr(in);
+				} catch (IOException e) {
+					/* the process has exited, nothing to do. */
+				}
+			}
+		});
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/** Private constructor. */
+	private WorkerProcess() {}
+
+}
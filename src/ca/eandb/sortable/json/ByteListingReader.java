@@ -0,0 +1,520 @@
+/**
+ * 
+ */
+package ca.eandb.sortable.json;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import ca.eandb.sortable.CutoffPhrases;
+import ca.eandb.sortable.DuplicateFilter;
+import ca.eandb.sortable.MatchLogWriter;
+import ca.eandb.sortable.NormalizedText;
+import ca.eandb.sortable.Product;
+import ca.eandb.sortable.ProductMatch;
+import ca.eandb.sortable.TrieMatchEngine;
+
+/**
+ * An object that processes a set of product listings in the same way as a
+ * {@link JSONListingReader}, but without decoding them to
+ * <code>String</code>s.  The listings are read as UTF-8 bytes into a
+ * <code>ByteBuffer</code>, and the "manufacturer" and "title" values are
+ * located within each line in place.  Each value is then normalized into a
+ * reusable {@link NormalizedText} buffer, whose words are followed down the
+ * tries directly.
+ *
+ * A line is instead parsed in full and matched by a
+ * <code>JSONListingReader</code> if either value contains an escape
+ * sequence, if either value is missing or is not a string, or if the line is
+ * not a flat JSON object, so the results are always identical to those of a
+ * <code>JSONListingReader</code>.  Other than that, the line is not
+ * validated.
+ *
+ * When the results are written as JSON, a listing must still be parsed if it
+ * is to be printed in full (i.e., if it matched a product, unless only the
+ * unmatched listings are printed).  When writing a compact binary log (see
+ * {@link MatchLogWriter}), no <code>String</code>s are created for a listing
+ * at all.  This class is not thread-safe.
+ *
+ * @author Brad Kimmel
+ */
+public final class ByteListingReader {
+
+	/** The initial size of the input buffer. */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/** The key of the "manufacturer" field of a listing. */
+	private static final byte[] MANUFACTURER = "manufacturer".getBytes(StandardCharsets.US_ASCII);
+
+	/** The key of the "title" field of a listing. */
+	private static final byte[] TITLE = "title".getBytes(StandardCharsets.US_ASCII);
+
+	/** Receives the lines of input. */
+	private interface LineVisitor {
+
+		/**
+		 * Processes a line of input.
+		 * @param b The array containing the line.
+		 * @param from The index of the first byte of the line.
+		 * @param to The index following the last byte of the line, excluding
+		 * 		its terminator.
+		 * @param offset The byte offset of the line within the input.
+		 * @throws IOException If an error occurs while writing the results.
+		 * @throws ParseException If the line does not represent a valid JSON
+		 * 		object.
+		 */
+		void visit(byte[] b, int from, int to, long offset) throws IOException, ParseException;
+
+	}
+
+	/** The <code>TrieMatchEngine</code> used to match listings to products. */
+	private final TrieMatchEngine engine;
+
+	/**
+	 * The <code>JSONListingReader</code> used to match the listings that
+	 * cannot be matched in place.
+	 */
+	private final JSONListingReader fallback;
+
+	/**
+	 * The phrases after which the remainder of a listing title is ignored
+	 * (see {@link JSONListingReader#matchModel(JSONObject, Set)}).
+	 */
+	private final CutoffPhrases cutoffPhrases = new CutoffPhrases(
+			System.getProperty("ca.eandb.sortable.cutoffPhrases", "for,pour").split(","));
+
+	/** The <code>JSONParser</code> used to parse listings when required. */
+	private final JSONParser parser = new JSONParser();
+
+	/** The normalized "manufacturer" field of the current listing. */
+	private final NormalizedText manufacturer = new NormalizedText();
+
+	/** The normalized "title" field of the current listing. */
+	private final NormalizedText title = new NormalizedText();
+
+	/** The index of the first byte of the current "manufacturer" value. */
+	private int manufacturerStart;
+
+	/** The index following the current "manufacturer" value. */
+	private int manufacturerEnd;
+
+	/** The index of the first byte of the current "title" value. */
+	private int titleStart;
+
+	/** The index following the current "title" value. */
+	private int titleEnd;
+
+	/** The number of listings that could not be matched in place. */
+	private long fallbackCount = 0;
+
+	/**
+	 * Creates a new <code>ByteListingReader</code>.
+	 * @param engine The <code>TrieMatchEngine</code> to use to match
+	 * 		listings to products.
+	 */
+	public ByteListingReader(TrieMatchEngine engine) {
+		this.engine = engine;
+		this.fallback = new JSONListingReader(engine);
+	}
+
+	/**
+	 * Reads the JSON-formatted listings (one listing per line), matches the
+	 * listings to at most one product, and prints the results to the
+	 * specified <code>Writer</code>.  The results are the same as those
+	 * written by {@link JSONListingReader#read(java.io.Reader, Writer)}.
+	 * @param in The <code>InputStream</code> to read the listings from
+	 * 		(encoded as UTF-8).
+	 * @param out The <code>Writer</code> to write the results to.
+	 * @throws IOException If an exception is thrown while reading from
+	 * 		<code>in</code> or writing to <code>out</code>.
+	 * @throws ParseException If a line in the file does not represent a valid
+	 * 		JSON object.
+	 */
+	public void read(InputStream in, Writer out) throws IOException, ParseException {
+
+		final JSONResultWriter results = new JSONResultWriter(out);
+
+		read(in, new LineVisitor() {
+			public void visit(byte[] b, int from, int to, long offset) throws IOException, ParseException {
+				Product product;
+				JSONObject json = null;
+				if (locate(b, from, to)) {
+					Set<ProductMatch> manufacturerProducts = matchManufacturer(b);
+					product = manufacturerProducts != null ? matchModel(b, manufacturerProducts) : null;
+				} else {
+					json = parse(b, from, to);
+					product = fallback.match(json);
+				}
+
+				String line = null;
+				if (product == null ? results.usesUnmatchedLines() : results.usesMatchedListings()) {
+					line = new String(b, from, to - from, StandardCharsets.UTF_8);
+					if (json == null) {
+						json = (JSONObject) parser.parse(line);
+					}
+				}
+				results.write(line, json, product);
+			}
+		});
+
+		results.close();
+		reportFallbacks();
+
+	}
+
+	/**
+	 * Reads the JSON-formatted listings (one listing per line), matches the
+	 * listings to at most one product, and records the outcome for each
+	 * listing in a compact binary log.  The log is the same as that written
+	 * by {@link JSONListingReader#read(InputStream, MatchLogWriter)}.
+	 * @param in The <code>InputStream</code> to read the listings from
+	 * 		(encoded as UTF-8).
+	 * @param log The <code>MatchLogWriter</code> to write the results to.
+	 * @throws IOException If an exception is thrown while reading from
+	 * 		<code>in</code> or writing to <code>log</code>.
+	 * @throws ParseException If a line in the file does not represent a valid
+	 * 		JSON object.
+	 */
+	public void read(InputStream in, final MatchLogWriter log) throws IOException, ParseException {
+
+		read(in, new LineVisitor() {
+			public void visit(byte[] b, int from, int to, long offset) throws IOException, ParseException {
+				Set<ProductMatch> manufacturerProducts;
+				JSONObject json = null;
+				if (locate(b, from, to)) {
+					manufacturerProducts = matchManufacturer(b);
+				} else {
+					json = parse(b, from, to);
+					manufacturerProducts = fallback.matchManufacturer(json);
+				}
+
+				if (manufacturerProducts == null || manufacturerProducts.isEmpty()) {
+					log.write(offset, MatchLogWriter.NO_MANUFACTURER, null);
+					return;
+				}
+
+				Product product = json == null
+						? matchModel(b, manufacturerProducts)
+						: fallback.matchModel(json, manufacturerProducts);
+				if (product != null) {
+					log.write(offset, MatchLogWriter.MATCHED, product);
+				} else {
+					log.write(offset, MatchLogWriter.NO_MODEL, null);
+				}
+			}
+		});
+
+		log.close();
+		reportFallbacks();
+
+	}
+
+	/**
+	 * Reads the lines of input into a buffer and passes each one to a
+	 * <code>LineVisitor</code>, skipping duplicate lines if so configured
+	 * (see {@link DuplicateFilter#fromProperties()}).  Lines may be terminated by a line feed or a
+	 * carriage return followed by a line feed, as for
+	 * {@link ca.eandb.sortable.LineReader}.
+	 * @param in The <code>InputStream</code> to read from.
+	 * @param visitor The <code>LineVisitor</code> to pass the lines to.
+	 * @throws IOException If an exception is thrown while reading from
+	 * 		<code>in</code> or by <code>visitor</code>.
+	 * @throws ParseException If thrown by <code>visitor</code>.
+	 */
+	private void read(InputStream in, LineVisitor visitor) throws IOException, ParseException {
+
+		ReadableByteChannel channel = Channels.newChannel(in);
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		long offset = 0;	// the offset of the next line
+		boolean eof = false;
+		DuplicateFilter duplicates = DuplicateFilter.fromProperties();
+
+		while (!eof) {
+			eof = channel.read(buffer) < 0;
+			buffer.flip();
+
+			byte[] b = buffer.array();
+			int start = buffer.position();
+			int limit = buffer.limit();
+			for (int i = start; i < limit; i++) {
+				if (b[i] == '\n') {
+					int end = trimReturn(b, start, i);
+					if (duplicates == null || duplicates.accept(b, start, end)) {
+						visitor.visit(b, start, end, offset);
+					}
+					offset += i + 1 - start;
+					start = i + 1;
+				}
+			}
+			if (eof && start < limit) {
+				int end = trimReturn(b, start, limit);
+				if (duplicates == null || duplicates.accept(b, start, end)) {
+					visitor.visit(b, start, end, offset);
+				}
+			}
+
+			// Keep the partial line at the end of the buffer, growing the
+			// buffer if the line fills it.
+			buffer.position(start);
+			buffer.compact();
+			if (!buffer.hasRemaining()) {
+				ByteBuffer larger = ByteBuffer.allocate(2 * buffer.capacity());
+				buffer.flip();
+				larger.put(buffer);
+				buffer = larger;
+			}
+		}
+
+		if (duplicates != null) {
+			duplicates.report();
+		}
+
+	}
+
+	/**
+	 * Excludes a trailing carriage return from a line.
+	 * @param b The array containing the line.
+	 * @param from The index of the first byte of the line.
+	 * @param to The index following the last byte of the line.
+	 * @return The index following the last byte of the line, excluding any
+	 * 		trailing carriage return.
+	 */
+	private static int trimReturn(byte[] b, int from, int to) {
+		return to > from && b[to - 1] == '\r' ? to - 1 : to;
+	}
+
+	/**
+	 * Parses a line in full.
+	 * @param b The array containing the line.
+	 * @param from The index of the first byte of the line.
+	 * @param to The index following the last byte of the line.
+	 * @return The <code>JSONObject</code> represented by the line.
+	 * @throws ParseException If the line does not represent a valid JSON
+	 * 		object.
+	 */
+	private JSONObject parse(byte[] b, int from, int to) throws ParseException {
+		fallbackCount++;
+		return (JSONObject) parser.parse(new String(b, from, to - from, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Finds the products whose manufacturer matches that of the current
+	 * listing.
+	 * @param b The array containing the current listing.
+	 * @return A <code>Set</code> containing the matching
+	 * 		<code>Product</code>s, or <code>null</code> if there are none.
+	 */
+	private Set<ProductMatch> matchManufacturer(byte[] b) {
+		manufacturer.set(b, manufacturerStart, manufacturerEnd);
+		return engine.matchManufacturer(manufacturer);
+	}
+
+	/**
+	 * Matches the current listing with at most one of the products whose
+	 * manufacturer matches that of the listing, ignoring the remainder of the
+	 * title following any of the cutoff phrases.
+	 * @param b The array containing the current listing.
+	 * @param manufacturerProducts The <code>Set</code> of
+	 * 		<code>Product</code>s whose manufacturer matches that of the
+	 * 		listing.
+	 * @return The matching <code>Product</code>, or <code>null</code> if the
+	 * 		listing does not match exactly one <code>Product</code>.
+	 */
+	private Product matchModel(byte[] b, Set<ProductMatch> manufacturerProducts) {
+		if (cutoffPhrases.isAscii()) {
+			title.set(b, titleStart, cutoffPhrases.find(b, titleStart, titleEnd));
+		} else {
+			String s = new String(b, titleStart, titleEnd - titleStart, StandardCharsets.UTF_8);
+			title.set(cutoffPhrases.truncate(s));
+		}
+		return engine.matchModel(title, manufacturerProducts);
+	}
+
+	/**
+	 * Finds the "manufacturer" and "title" values within a line.
+	 * @param b The array containing the line.
+	 * @param from The index of the first byte of the line.
+	 * @param to The index following the last byte of the line.
+	 * @return A value indicating whether both values were found as strings
+	 * 		without escape sequences, in a flat JSON object.
+	 */
+	private boolean locate(byte[] b, int from, int to) {
+		manufacturerStart = titleStart = -1;
+
+		int i = skipSpace(b, from, to);
+		if (i >= to || b[i] != '{') {
+			return false;
+		}
+		i = skipSpace(b, i + 1, to);
+		if (i < to && b[i] == '}') {
+			return false;	// no fields
+		}
+
+		while (true) {
+
+			// the key
+			if (i >= to || b[i] != '"') {
+				return false;
+			}
+			int keyStart = i + 1;
+			int keyEnd = endOfString(b, keyStart, to);
+			if (keyEnd < 0 || contains(b, keyStart, keyEnd, '\\')) {
+				return false;
+			}
+			i = skipSpace(b, keyEnd + 1, to);
+			if (i >= to || b[i] != ':') {
+				return false;
+			}
+			i = skipSpace(b, i + 1, to);
+
+			// the value
+			boolean isManufacturer = equals(b, keyStart, keyEnd, MANUFACTURER);
+			boolean isTitle = equals(b, keyStart, keyEnd, TITLE);
+			if (i < to && b[i] == '"') {
+				int valueStart = i + 1;
+				int valueEnd = endOfString(b, valueStart, to);
+				if (valueEnd < 0) {
+					return false;
+				}
+				if ((isManufacturer || isTitle) && contains(b, valueStart, valueEnd, '\\')) {
+					return false;
+				}
+				if (isManufacturer) {
+					manufacturerStart = valueStart;
+					manufacturerEnd = valueEnd;
+				} else if (isTitle) {
+					titleStart = valueStart;
+					titleEnd = valueEnd;
+				}
+				i = valueEnd + 1;
+			} else if (isManufacturer || isTitle) {
+				return false;
+			} else {
+				while (i < to && b[i] != ',' && b[i] != '}' && b[i] != '{'
+						&& b[i] != '[' && b[i] != '"') {
+					i++;
+				}
+				if (i < to && b[i] != ',' && b[i] != '}') {
+					return false;	// nested value
+				}
+			}
+
+			i = skipSpace(b, i, to);
+			if (i < to && b[i] == ',') {
+				i = skipSpace(b, i + 1, to);
+			} else if (i < to && b[i] == '}') {
+				break;
+			} else {
+				return false;
+			}
+		}
+
+		return skipSpace(b, i + 1, to) == to
+				&& manufacturerStart >= 0 && titleStart >= 0;
+	}
+
+	/**
+	 * Finds the end of a JSON string.
+	 * @param b The array containing the string.
+	 * @param from The index following the opening quote.
+	 * @param to The index at which to stop searching.
+	 * @return The index of the closing quote, or -1 if the string is not
+	 * 		terminated.
+	 */
+	private static int endOfString(byte[] b, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (b[i] == '"') {
+				return i;
+			} else if (b[i] == '\\') {
+				i++;	// skip the escaped character
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Determines whether a range of bytes contains a particular byte.
+	 * @param b The array containing the bytes.
+	 * @param from The index of the first byte.
+	 * @param to The index following the last byte.
+	 * @param c The byte to search for.
+	 * @return A value indicating whether <code>c</code> occurs in the range.
+	 */
+	private static boolean contains(byte[] b, int from, int to, char c) {
+		for (int i = from; i < to; i++) {
+			if (b[i] == c) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Skips over JSON whitespace.
+	 * @param b The array containing the text.
+	 * @param from The index at which to start.
+	 * @param to The index at which to stop.
+	 * @return The index of the first byte that is not whitespace, or
+	 * 		<code>to</code> if there is none.
+	 */
+	private static int skipSpace(byte[] b, int from, int to) {
+		int i = from;
+		while (i < to && (b[i] == ' ' || b[i] == '\t' || b[i] == '\r' || b[i] == '\n')) {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * Determines whether a range of bytes is equal to a key.
+	 * @param b The array containing the bytes.
+	 * @param from The index of the first byte.
+	 * @param to The index following the last byte.
+	 * @param key The key to compare with.
+	 * @return A value indicating whether the bytes are equal to
+	 * 		<code>key</code>.
+	 */
+	private static boolean equals(byte[] b, int from, int to, byte[] key) {
+		if (to - from != key.length) {
+			return false;
+		}
+		for (int i = 0; i < key.length; i++) {
+			if (b[from + i] != key[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Reports the number of listings that could not be matched in place, if
+	 * any, to <code>System.err</code>.
+	 */
+	private void reportFallbacks() {
+		if (fallbackCount > 0) {
+			System.err.printf("Parsed %d listings in full.", fallbackCount);
+			System.err.println();
+		}
+	}
+
+	/**
+	 * Gets the number of times the work budget has been exhausted while
+	 * matching listings.
+	 * @return The number of times the work budget has been exhausted.
+	 * @see TrieMatchEngine#getBudgetExceededCount()
+	 */
+	public long getBudgetExceededCount() {
+		return engine.getBudgetExceededCount();
+	}
+
+}
@@ -0,0 +1,493 @@
+/**
+ * 
+ */
+package ca.eandb.sortable.json;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+
+import ca.eandb.sortable.Product;
+
+/**
+ * A <code>Flow.Processor</code> that matches a stream of listings, given as
+ * JSON-formatted lines, against the products and publishes the results, for
+ * embedding the matcher in a reactive pipeline.  The results are published in
+ * the same order as the listings were received.
+ *
+ * The processor honours the demand of its subscriber: it requests from its
+ * upstream publisher only as many listings as the subscriber has requested
+ * results for (and at most <code>batchSize * maxBatches</code> at a time), so
+ * it buffers no more listings than the subscriber has asked for.  Listings
+ * are matched in batches of up to <code>batchSize</code>, each batch run as a
+ * single task on the supplied <code>Executor</code>, with up to
+ * <code>maxBatches</code> batches in progress at once.  Any
+ * <code>Executor</code> may be used, including one that runs each task on a
+ * new virtual thread.  Whenever fewer than <code>maxBatches</code> batches
+ * are in progress, the listings received so far are started as a batch,
+ * even if there are fewer than <code>batchSize</code> of them, so a slow
+ * trickle of listings is never held back waiting for a batch to fill;
+ * batches only fill up while all of the batch slots are busy.
+ *
+ * A processor supports a single subscriber.  If a listing cannot be parsed,
+ * the executor rejects a batch, or the subscriber's <code>onNext</code>
+ * throws an exception, the subscriber receives <code>onError</code> and the
+ * upstream subscription is cancelled.  An error from the upstream publisher
+ * is passed on to the subscriber immediately, discarding any listings not
+ * yet published.
+ *
+ * @author Brad Kimmel
+ */
+public final class FlowListingProcessor implements Flow.Processor<String, FlowListingProcessor.Result> {
+
+	/** The result of matching a listing. */
+	public static final class Result {
+
+		/** The original line of input representing the listing. */
+		private final String line;
+
+		/** The <code>JSONObject</code> parsed from <code>line</code>. */
+		private final JSONObject json;
+
+		/** The matching <code>Product</code>, if any. */
+		private final Product product;
+
+		/**
+		 * Creates a new <code>Result</code>.
+		 * @param line The original line of input representing the listing.
+		 * @param json The <code>JSONObject</code> parsed from
+		 * 		<code>line</code>.
+		 * @param product The matching <code>Product</code>, or
+		 * 		<code>null</code> if there is none.
+		 */
+		public Result(String line, JSONObject json, Product product) {
+			this.line = line;
+			this.json = json;
+			this.product = product;
+		}
+
+		/**
+		 * Gets the original line of input representing the listing.
+		 * @return The original line of input representing the listing.
+		 */
+		public String getLine() {
+			return line;
+		}
+
+		/**
+		 * Gets the listing.
+		 * @return The <code>JSONObject</code> representing the listing.
+		 */
+		public JSONObject getJson() {
+			return json;
+		}
+
+		/**
+		 * Gets the matching product.
+		 * @return The matching <code>Product</code>, or <code>null</code> if
+		 * 		the listing does not match exactly one product.
+		 */
+		public Product getProduct() {
+			return product;
+		}
+
+	}
+
+	/** A batch of listings to be matched as a single task. */
+	private final class Batch implements Runnable {
+
+		/** The listings. */
+		private final String[] lines;
+
+		/** The results, once matched. */
+		private final Result[] results;
+
+		/** The number of results already published. */
+		private int published = 0;
+
+		/** The exception thrown while matching, if any. */
+		private volatile Throwable error = null;
+
+		/** A value indicating whether the batch has been matched. */
+		private volatile boolean done = false;
+
+		/**
+		 * Creates a new <code>Batch</code>.
+		 * @param lines The listings to match.
+		 */
+		public Batch(List<String> lines) {
+			this.lines = lines.toArray(new String[lines.size()]);
+			this.results = new Result[this.lines.length];
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Runnable#run()
+		 */
+		@Override
+		public void run() {
+			try {
+				JSONParser parser = new JSONParser();
+				for (int i = 0; i < lines.length; i++) {
+					JSONObject json = (JSONObject) parser.parse(lines[i]);
+					results[i] = new Result(lines[i], json, matcher.match(json));
+				}
+			} catch (Throwable e) {
+				error = e;
+			}
+			done = true;
+			drain();
+		}
+
+	}
+
+	/** The <code>JSONListingReader</code> to use to match listings. */
+	private final JSONListingReader matcher;
+
+	/** The <code>Executor</code> on which to match batches of listings. */
+	private final Executor executor;
+
+	/** The maximum number of listings in a batch. */
+	private final int batchSize;
+
+	/** The maximum number of batches in progress at once. */
+	private final int maxBatches;
+
+	/** The listings received from upstream but not yet batched. */
+	private final Queue<String> received = new ConcurrentLinkedQueue<String>();
+
+	/** The number of results requested by the subscriber but not published. */
+	private final AtomicLong demand = new AtomicLong();
+
+	/**
+	 * The number of pending requests to run {@link #drain()}.  Only the thread
+	 * that increments this from zero runs the drain loop, so the fields below
+	 * that are not <code>volatile</code> are only accessed by one thread at a
+	 * time.
+	 */
+	private final AtomicInteger wip = new AtomicInteger();
+
+	/** The subscription to the upstream publisher. */
+	private volatile Flow.Subscription upstream = null;
+
+	/** The subscriber to which to publish the results. */
+	private volatile Flow.Subscriber<? super Result> downstream = null;
+
+	/**
+	 * A value indicating whether the call to the subscriber's
+	 * <code>onSubscribe</code> method has returned, so that it may be sent
+	 * other signals.
+	 */
+	private volatile boolean subscribed = false;
+
+	/** A value indicating whether the upstream publisher has completed. */
+	private volatile boolean upstreamDone = false;
+
+	/**
+	 * The error to signal to the subscriber, if the upstream publisher has
+	 * signalled one or the subscriber has made an invalid request.
+	 */
+	private volatile Throwable error = null;
+
+	/** A value indicating whether the subscriber has cancelled. */
+	private volatile boolean cancelled = false;
+
+	/** The batches in progress or awaiting publication, in order. */
+	private final Queue<Batch> batches = new ArrayDeque<Batch>();
+
+	/** The listings received but not yet placed in a batch. */
+	private List<String> pending = new ArrayList<String>();
+
+	/**
+	 * The number of listings requested from upstream but not yet taken from
+	 * {@link #received}.
+	 */
+	private long requested = 0;
+
+	/** The number of listings in batches, but not yet published. */
+	private long buffered = 0;
+
+	/** A value indicating whether a terminal signal has been published. */
+	private boolean terminated = false;
+
+	/**
+	 * Creates a new <code>FlowListingProcessor</code> whose batch size and
+	 * number of batches in progress are given by the
+	 * <code>ca.eandb.sortable.flowBatchSize</code> (default: 64) and
+	 * <code>ca.eandb.sortable.flowMaxBatches</code> (default: the number of
+	 * CPUs) properties.
+	 * @param matcher The <code>JSONListingReader</code> to use to match
+	 * 		listings.
+	 * @param executor The <code>Executor</code> on which to match batches of
+	 * 		listings.
+	 */
+	public FlowListingProcessor(JSONListingReader matcher, Executor executor) {
+		this(matcher, executor,
+				Integer.parseInt(System.getProperty("ca.eandb.sortable.flowBatchSize", "64")),
+				Integer.parseInt(System.getProperty("ca.eandb.sortable.flowMaxBatches",
+						Integer.toString(Runtime.getRuntime().availableProcessors()))));
+	}
+
+	/**
+	 * Creates a new <code>FlowListingProcessor</code>.
+	 * @param matcher The <code>JSONListingReader</code> to use to match
+	 * 		listings.
+	 * @param executor The <code>Executor</code> on which to match batches of
+	 * 		listings.
+	 * @param batchSize The maximum number of listings in a batch.
+	 * @param maxBatches The maximum number of batches in progress at once.
+	 */
+	public FlowListingProcessor(JSONListingReader matcher, Executor executor,
+			int batchSize, int maxBatches) {
+		if (batchSize <= 0 || maxBatches <= 0) {
+			throw new IllegalArgumentException("batchSize and maxBatches must be positive.");
+		}
+		this.matcher = matcher;
+		this.executor = executor;
+		this.batchSize = batchSize;
+		this.maxBatches = maxBatches;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.concurrent.Flow.Publisher#subscribe(java.util.concurrent.Flow.Subscriber)
+	 */
+	@Override
+	public void subscribe(final Flow.Subscriber<? super Result> subscriber) {
+		if (subscriber == null) {
+			throw new NullPointerException();
+		}
+		synchronized (this) {
+			if (downstream != null) {
+				subscriber.onSubscribe(new Flow.Subscription() {
+					public void request(long n) {}
+					public void cancel() {}
+				});
+				subscriber.onError(new IllegalStateException("FlowListingProcessor supports only one subscriber."));
+				return;
+			}
+			downstream = subscriber;
+		}
+		subscriber.onSubscribe(new Flow.Subscription() {
+			public void request(long n) {
+				if (n <= 0) {
+					error = new IllegalArgumentException("Non-positive request: " + n);
+				} else {
+					long current, next;
+					do {
+						current = demand.get();
+						next = current + n < 0 ? Long.MAX_VALUE : current + n;
+					} while (!demand.compareAndSet(current, next));
+				}
+				drain();
+			}
+			public void cancel() {
+				cancelled = true;
+				drain();
+			}
+		});
+		subscribed = true;
+		drain();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.concurrent.Flow.Subscriber#onSubscribe(java.util.concurrent.Flow.Subscription)
+	 */
+	@Override
+	public void onSubscribe(Flow.Subscription subscription) {
+		synchronized (this) {
+			if (upstream != null) {
+				subscription.cancel();
+				return;
+			}
+			upstream = subscription;
+		}
+		drain();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.concurrent.Flow.Subscriber#onNext(java.lang.Object)
+	 */
+	@Override
+	public void onNext(String line) {
+		received.add(line);
+		drain();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.concurrent.Flow.Subscriber#onError(java.lang.Throwable)
+	 */
+	@Override
+	public void onError(Throwable error) {
+		this.error = error;
+		upstreamDone = true;
+		drain();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.concurrent.Flow.Subscriber#onComplete()
+	 */
+	@Override
+	public void onComplete() {
+		upstreamDone = true;
+		drain();
+	}
+
+	/**
+	 * Publishes the results that are ready and demanded, starts batches of
+	 * received listings, and requests more listings from upstream, until
+	 * there is nothing more to do.  This may be called from any thread, but
+	 * the loop runs on only one thread at a time.
+	 */
+	private void drain() {
+		if (wip.getAndIncrement() != 0) {
+			return;
+		}
+
+		int missed = 1;
+		do {
+			Flow.Subscriber<? super Result> subscriber = subscribed ? downstream : null;
+			Flow.Subscription subscription = upstream;
+
+			if (!terminated && subscriber != null) {
+				if (error != null) {
+					terminate(subscriber, subscription, error);
+				} else if (cancelled) {
+					terminate(subscriber, subscription, null);
+				} else {
+					publish(subscriber, subscription);
+				}
+			}
+
+			if (!terminated && subscriber != null) {
+				startBatches();
+
+				/* Request as many listings as are needed to meet the demand,
+				 * less those already on their way, up to the maximum number
+				 * of listings in progress.
+				 */
+				if (subscription != null && !upstreamDone) {
+					long window = (long) batchSize * (long) maxBatches;
+					long wanted = Math.min(demand.get(), window) - (requested + buffered + pending.size());
+					if (wanted > 0) {
+						requested += wanted;
+						subscription.request(wanted);
+					}
+				}
+
+				if (upstreamDone && received.isEmpty() && pending.isEmpty() && batches.isEmpty()) {
+					terminate(subscriber, subscription, null);
+					try {
+						subscriber.onComplete();
+					} catch (Throwable e) {
+						/* the subscriber is broken, nothing more to do. */
+					}
+				}
+			}
+
+			missed = wip.addAndGet(-missed);
+		} while (missed != 0);
+	}
+
+	/**
+	 * Publishes the results at the head of the batch queue that are ready, in
+	 * order, as long as there is demand for them.
+	 * @param subscriber The subscriber to publish to.
+	 * @param subscription The subscription to the upstream publisher.
+	 */
+	private void publish(Flow.Subscriber<? super Result> subscriber, Flow.Subscription subscription) {
+		while (!batches.isEmpty() && batches.peek().done) {
+			Batch batch = batches.peek();
+			if (batch.error != null) {
+				terminate(subscriber, subscription, batch.error);
+				return;
+			}
+			while (batch.published < batch.results.length && demand.get() > 0) {
+				if (cancelled) {
+					return;
+				}
+				try {
+					subscriber.onNext(batch.results[batch.published++]);
+				} catch (Throwable e) {
+					terminate(subscriber, subscription, e);
+					return;
+				}
+				demand.decrementAndGet();
+				buffered--;
+			}
+			if (batch.published < batch.results.length) {
+				return;	// no more demand
+			}
+			batches.remove();
+		}
+	}
+
+	/**
+	 * Takes the listings received from upstream and starts matching them in
+	 * batches, up to the maximum number of batches in progress.  A partial
+	 * batch is started if there are no more listings waiting, rather than
+	 * waiting for more to arrive.  If the executor rejects a batch, the batch
+	 * fails, so that its error is published in order.
+	 */
+	private void startBatches() {
+		while (batches.size() < maxBatches) {
+			String line;
+			while (pending.size() < batchSize && (line = received.poll()) != null) {
+				pending.add(line);
+				requested--;
+			}
+			if (pending.isEmpty()) {
+				return;
+			}
+
+			Batch batch = new Batch(pending);
+			pending = new ArrayList<String>();
+			buffered += batch.lines.length;
+			batches.add(batch);
+			try {
+				executor.execute(batch);
+			} catch (RejectedExecutionException e) {
+				batch.error = e;
+				batch.done = true;
+				drain();	// make another pass, to publish the error
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Stops processing: cancels the upstream subscription, discards any
+	 * listings not yet published, and, if an error is provided, signals it to
+	 * the subscriber.
+	 * @param subscriber The subscriber.
+	 * @param subscription The subscription to the upstream publisher (may be
+	 * 		<code>null</code>).
+	 * @param error The error to signal, or <code>null</code> if none.
+	 */
+	private void terminate(Flow.Subscriber<? super Result> subscriber,
+			Flow.Subscription subscription, Throwable error) {
+		terminated = true;
+		if (subscription != null && !upstreamDone) {
+			subscription.cancel();
+		}
+		received.clear();
+		pending.clear();
+		batches.clear();
+		if (error != null) {
+			try {
+				subscriber.onError(error);
+			} catch (Throwable e) {
+				/* the subscriber is broken, nothing more to do. */
+			}
+		}
+	}
+
+}
@@ -0,0 +1,396 @@
+/**
+ * 
+ */
+package ca.eandb.sortable.json;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import ca.eandb.sortable.LineReader;
+import ca.eandb.sortable.ListingIndex;
+import ca.eandb.sortable.Product;
+import ca.eandb.sortable.TrieNode;
+
+/**
+ * Updates the results of a previous run after the product catalog has
+ * changed, by matching again only those listings that may be affected by the
+ * change (see {@link ListingIndex}) and patching the previous results file.
+ * The previous results must have been written in the same format (as selected
+ * by the <code>ca.eandb.sortable.printMisses</code> and
+ * <code>ca.eandb.sortable.groupByListing</code> properties) and with the same
+ * matching parameters.
+ *
+ * When the results are grouped by product, a listing that now matches a
+ * different product is appended to the listings for that product, so the
+ * listings for a product may not appear in the same order as they would after
+ * a full run.  Otherwise, the patched results are identical to those of a
+ * full run.
+ *
+ * @author Brad Kimmel
+ */
+public final class IncrementalMatcher {
+
+	/**
+	 * A value indicating whether the results consist of a list of the
+	 * unmatched listings.
+	 *
+	 * @see JSONResultWriter
+	 */
+	private final boolean printMisses = Boolean.parseBoolean(
+			System.getProperty("ca.eandb.sortable.printMisses", "false"));
+
+	/**
+	 * A value indicating whether the results are grouped by listing, rather
+	 * than by product.
+	 *
+	 * @see JSONResultWriter
+	 */
+	private final boolean groupByListing = printMisses || Boolean.parseBoolean(
+			System.getProperty("ca.eandb.sortable.groupByListing", "false"));
+
+	/** The <code>JSONListingReader</code> to use to match listings. */
+	private final JSONListingReader matcher;
+
+	/** The <code>ListingIndex</code> for the listings file. */
+	private final ListingIndex index;
+
+	/** The listings file. */
+	private final File listings;
+
+	/** The root of the manufacturer trie built from the new catalog. */
+	private final TrieNode manufacturerRoot;
+
+	/** A listing that has been matched again. */
+	private static final class Rematch {
+
+		/** The original line of input representing the listing. */
+		public final String line;
+
+		/** The <code>JSONObject</code> parsed from <code>line</code>. */
+		public final JSONObject json;
+
+		/** The name of the product previously matched (or null). */
+		public final String previous;
+
+		/** The <code>Product</code> now matched (or null). */
+		public final Product product;
+
+		/**
+		 * Creates a new <code>Rematch</code>.
+		 * @param line The original line of input representing the listing.
+		 * @param json The <code>JSONObject</code> parsed from
+		 * 		<code>line</code>.
+		 * @param previous The name of the product previously matched, or
+		 * 		<code>null</code> if there was none.
+		 * @param product The <code>Product</code> now matched, or
+		 * 		<code>null</code> if there is none.
+		 */
+		public Rematch(String line, JSONObject json, String previous, Product product) {
+			this.line = line;
+			this.json = json;
+			this.previous = previous;
+			this.product = product;
+		}
+
+	}
+
+	/**
+	 * Creates a new <code>IncrementalMatcher</code>.
+	 * @param matcher The <code>JSONListingReader</code> to use to match
+	 * 		listings (built from the new product catalog).
+	 * @param index The <code>ListingIndex</code> for the listings file, which
+	 * 		will be updated with the new results.
+	 * @param listings The listings file.
+	 * @param manufacturerRoot The root <code>TrieNode</code> of the
+	 * 		manufacturer trie built from the new product catalog.
+	 */
+	public IncrementalMatcher(JSONListingReader matcher, ListingIndex index,
+			File listings, TrieNode manufacturerRoot) {
+		this.matcher = matcher;
+		this.index = index;
+		this.listings = listings;
+		this.manufacturerRoot = manufacturerRoot;
+	}
+
+	/**
+	 * Compares two product catalogs.  Products are identified by their
+	 * <code>product_name</code> field.
+	 * @param oldProducts The <code>Reader</code> to read the old catalog
+	 * 		from.
+	 * @param newProducts The <code>Reader</code> to read the new catalog
+	 * 		from.
+	 * @return The <code>Product</code>s that have been added or removed, and
+	 * 		both the old and new versions of those that have changed.
+	 * @throws IOException If an error occurs while reading the catalogs.
+	 * @throws ParseException If a line in either catalog does not represent a
+	 * 		valid JSON object.
+	 */
+	public static List<Product> diff(Reader oldProducts, Reader newProducts)
+			throws IOException, ParseException {
+
+		Map<String, List<JSONObject>> before = readCatalog(oldProducts);
+		Map<String, List<JSONObject>> after = readCatalog(newProducts);
+
+		Set<String> names = new HashSet<String>(before.keySet());
+		names.addAll(after.keySet());
+
+		List<Product> changed = new ArrayList<Product>();
+		for (String name : names) {
+			List<JSONObject> a = before.get(name);
+			List<JSONObject> b = after.get(name);
+			if (a == null || b == null || !a.equals(b)) {
+				addProducts(changed, a);
+				addProducts(changed, b);
+			}
+		}
+		return changed;
+
+	}
+
+	/**
+	 * Adds products to a list.
+	 * @param products The <code>List</code> to add the products to.
+	 * @param list The <code>JSONObject</code>s representing the products to
+	 * 		add (may be <code>null</code>).
+	 */
+	private static void addProducts(List<Product> products, List<JSONObject> list) {
+		if (list != null) {
+			for (JSONObject json : list) {
+				products.add(JSONProductReader.toProduct(json));
+			}
+		}
+	}
+
+	/**
+	 * Reads a product catalog.
+	 * @param in The <code>Reader</code> to read the catalog from.
+	 * @return A <code>Map</code> from <code>product_name</code> to the
+	 * 		products with that name.
+	 * @throws IOException If an error occurs while reading the catalog.
+	 * @throws ParseException If a line does not represent a valid JSON
+	 * 		object.
+	 */
+	private static Map<String, List<JSONObject>> readCatalog(Reader in)
+			throws IOException, ParseException {
+		BufferedReader buf = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in);
+		JSONParser parser = new JSONParser();
+		Map<String, List<JSONObject>> catalog = new HashMap<String, List<JSONObject>>();
+		while (true) {
+			String line = buf.readLine();
+			if (line == null) {
+				break;
+			}
+
+			JSONObject json = (JSONObject) parser.parse(line);
+			String name = (String) json.get("product_name");
+			List<JSONObject> list = catalog.get(name);
+			if (list == null) {
+				list = new ArrayList<JSONObject>();
+				catalog.put(name, list);
+			}
+			list.add(json);
+		}
+		return catalog;
+	}
+
+	/**
+	 * Matches again the listings that may be affected by a change to the
+	 * product catalog, writes the patched results, and updates the index.
+	 * @param changed The <code>Product</code>s that have been added, removed,
+	 * 		or changed (see {@link #diff(Reader, Reader)}).
+	 * @param previous The <code>Reader</code> to read the previous results
+	 * 		from.
+	 * @param out_ The <code>Writer</code> to write the patched results to.
+	 * @return The number of listings that were matched again.
+	 * @throws IOException If an error occurs while reading the listings or
+	 * 		the previous results, or while writing the patched results.
+	 * @throws ParseException If a listing or a line of the previous results
+	 * 		does not represent a valid JSON object.
+	 */
+	public int rematch(Collection<Product> changed, Reader previous, Writer out_)
+			throws IOException, ParseException {
+
+		SortedSet<Integer> affected = index.affectedBy(changed, manufacturerRoot);
+		SortedMap<Integer, Rematch> rematched = new TreeMap<Integer, Rematch>();
+		JSONParser parser = new JSONParser();
+
+		FileInputStream file = new FileInputStream(listings);
+		try {
+			for (int listing : affected) {
+				long offset = index.getOffset(listing);
+				file.getChannel().position(offset);
+				String line = new LineReader(new BufferedInputStream(file), offset).readLine();
+				JSONObject json = (JSONObject) parser.parse(line);
+				Product product = matcher.match(json);
+				rematched.put(listing, new Rematch(line, json, index.getResult(listing), product));
+			}
+		} finally {
+			file.close();
+		}
+
+		BufferedReader prev = previous instanceof BufferedReader ? (BufferedReader) previous : new BufferedReader(previous);
+		PrintWriter out = out_ instanceof PrintWriter ? (PrintWriter) out_ : new PrintWriter(out_);
+		if (groupByListing) {
+			patchByListing(rematched, prev, out);
+		} else {
+			patchByProduct(rematched, prev, out);
+		}
+		out.flush();
+
+		int numMatches = 0;
+		for (Map.Entry<Integer, Rematch> entry : rematched.entrySet()) {
+			Product product = entry.getValue().product;
+			index.setResult(entry.getKey(), product != null ? product.getName() : null);
+		}
+		for (int i = 0, n = index.size(); i < n; i++) {
+			if (index.getResult(i) != null) {
+				numMatches++;
+			}
+		}
+
+		double pctMatch = 100.0 * (double) numMatches / (double) index.size();
+		System.err.printf("Matched %d of %d listings (%4.1f%%).", numMatches, index.size(), pctMatch);
+		System.err.println();
+
+		return affected.size();
+
+	}
+
+	/**
+	 * Patches results that are grouped by listing (or that list only the
+	 * unmatched listings).  Such results contain one line for each listing
+	 * that is printed, in the order of the listings file.
+	 * @param rematched The listings that have been matched again.
+	 * @param previous The <code>BufferedReader</code> to read the previous
+	 * 		results from.
+	 * @param out The <code>PrintWriter</code> to write the patched results to.
+	 * @throws IOException If an error occurs while reading the previous
+	 * 		results or writing the patched results.
+	 */
+	private void patchByListing(SortedMap<Integer, Rematch> rematched,
+			BufferedReader previous, PrintWriter out) throws IOException {
+
+		for (int i = 0, n = index.size(); i < n; i++) {
+			Rematch r = rematched.get(i);
+			String oldLine = null;
+			if (isPrinted(index.getResult(i) != null)) {
+				oldLine = previous.readLine();
+				if (oldLine == null) {
+					throw new IOException("Previous results are incomplete.");
+				}
+			}
+
+			if (r == null) {
+				if (oldLine != null) {
+					out.println(oldLine);
+				}
+			} else if (isPrinted(r.product != null)) {
+				if (printMisses) {
+					out.println(r.line);
+				} else {
+					JSONResultWriter.annotate(r.json, r.product);
+					r.json.writeJSONString(out);
+					out.println();
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * Determines whether a listing is printed when grouping by listing.
+	 * @param matched A value indicating whether the listing matched a
+	 * 		product.
+	 * @return A value indicating whether the listing is printed.
+	 */
+	private boolean isPrinted(boolean matched) {
+		return printMisses ? !matched : matched;
+	}
+
+	/**
+	 * Patches results that are grouped by product.  The products are written
+	 * in order of <code>product_name</code>.
+	 * @param rematched The listings that have been matched again.
+	 * @param previous The <code>BufferedReader</code> to read the previous
+	 * 		results from.
+	 * @param out The <code>PrintWriter</code> to write the patched results to.
+	 * @throws IOException If an error occurs while reading the previous
+	 * 		results or writing the patched results.
+	 * @throws ParseException If a line of the previous results does not
+	 * 		represent a valid JSON object.
+	 */
+	@SuppressWarnings("unchecked")
+	private void patchByProduct(SortedMap<Integer, Rematch> rematched,
+			BufferedReader previous, PrintWriter out) throws IOException, ParseException {
+
+		Map<String, JSONArray> matches = new TreeMap<String, JSONArray>();
+		JSONParser parser = new JSONParser();
+		while (true) {
+			String line = previous.readLine();
+			if (line == null) {
+				break;
+			}
+
+			JSONObject json = (JSONObject) parser.parse(line);
+			matches.put((String) json.get("product_name"), (JSONArray) json.get("listings"));
+		}
+
+		/* Only move the listings whose matching product has changed, so that
+		 * the others keep their position.
+		 */
+		for (Rematch r : rematched.values()) {
+			String name = r.product != null ? r.product.getName() : null;
+			if (name == null ? r.previous == null : name.equals(r.previous)) {
+				continue;
+			}
+			if (r.previous != null) {
+				JSONArray array = matches.get(r.previous);
+				if (array == null || !array.remove(r.json)) {
+					throw new IOException("Listing not found in previous results.");
+				}
+				if (array.isEmpty()) {
+					matches.remove(r.previous);
+				}
+			}
+			if (name != null) {
+				JSONArray array = matches.get(name);
+				if (array == null) {
+					array = new JSONArray();
+					matches.put(name, array);
+				}
+				array.add(r.json);
+			}
+		}
+
+		for (Map.Entry<String, JSONArray> e : matches.entrySet()) {
+			JSONObject obj = new JSONObject();
+			obj.put("product_name", e.getKey());
+			obj.put("listings", e.getValue());
+			obj.writeJSONString(out);
+			out.println();
+		}
+
+	}
+
+}
@@ -41,16 +41,43 @@ public final class JSONProductReader implements ProductReader {
 			
 			JSONObject json = (JSONObject) parser.parse(line);
 			
-			Product product = new Product(
-					(String) json.get("product_name"),
-					(String) json.get("manufacturer"),
-					(String) json.get("model"),
-					(String) json.get("family"),
-					(String) json.get("announced-date"));
-
-			visitor.visit(product);
+			visitor.visit(toProduct(json));
 		}
 		
 	}
+	
+	/**
+	 * Creates a <code>Product</code> from its JSON representation.
+	 * @param json The <code>JSONObject</code> representing the product.
+	 * @return The <code>Product</code>.
+	 */
+	public static Product toProduct(JSONObject json) {
+		return new Product(
+				(String) json.get("product_name"),
+				(String) json.get("manufacturer"),
+				(String) json.get("model"),
+				(String) json.get("family"),
+				(String) json.get("announced-date"));
+	}
+	
+	/**
+	 * Creates the JSON representation of a <code>Product</code>.
+	 * @param product The <code>Product</code>.
+	 * @return The <code>JSONObject</code> representing <code>product</code>.
+	 */
+	@SuppressWarnings("unchecked")
+	public static JSONObject toJSON(Product product) {
+		JSONObject json = new JSONObject();
+		json.put("product_name", product.getName());
+		json.put("manufacturer", product.getManufacturer());
+		json.put("model", product.getModel());
+		if (product.getFamily() != null) {
+			json.put("family", product.getFamily());
+		}
+		if (product.getAnnouncedDate() != null) {
+			json.put("announced-date", product.getAnnouncedDate());
+		}
+		return json;
+	}
 
 }
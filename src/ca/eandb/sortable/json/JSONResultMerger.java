@@ -0,0 +1,103 @@
+/**
+ * 
+ */
+package ca.eandb.sortable.json;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Merges several result files written by {@link JSONResultWriter} for
+ * consecutive partitions of the same listings file into a single result.  The
+ * merged result does not depend on how the listings were partitioned:
+ *
+ *   - If the results are grouped by listing (or if only the misses are being
+ *     printed), the partial results are concatenated in partition order, which
+ *     yields the listings in their original order.
+ *   - If the results are grouped by product, the listings for each product are
+ *     combined across partitions (in partition order), and the products are
+ *     written in order of <code>product_name</code>.
+ *
+ * @author Brad Kimmel
+ */
+public final class JSONResultMerger {
+
+	/**
+	 * A value indicating whether the results are grouped by listing, rather
+	 * than by product.
+	 *
+	 * @see JSONResultWriter
+	 */
+	private final boolean groupByListing = Boolean.parseBoolean(
+			System.getProperty("ca.eandb.sortable.printMisses", "false"))
+			|| Boolean.parseBoolean(
+					System.getProperty("ca.eandb.sortable.groupByListing", "false"));
+
+	/**
+	 * Merges the specified partial results.
+	 * @param parts The <code>List</code> of result files, in partition order.
+	 * @param out_ The <code>Writer</code> to write the merged results to.
+	 * @throws IOException If an error occurs while reading the partial
+	 * 		results or writing the merged results.
+	 * @throws ParseException If a line in a result file grouped by product
+	 * 		does not represent a valid JSON object.
+	 */
+	@SuppressWarnings("unchecked")
+	public void merge(List<File> parts, Writer out_) throws IOException, ParseException {
+
+		PrintWriter out = out_ instanceof PrintWriter ? (PrintWriter) out_ : new PrintWriter(out_);
+		Map<String, JSONArray> matches = new TreeMap<String, JSONArray>();
+		JSONParser parser = new JSONParser();
+
+		for (File part : parts) {
+			BufferedReader buf = new BufferedReader(new FileReader(part));
+			try {
+				while (true) {
+					String line = buf.readLine();
+					if (line == null) {
+						break;
+					}
+
+					if (groupByListing) {
+						out.println(line);
+					} else {
+						JSONObject json = (JSONObject) parser.parse(line);
+						String name = (String) json.get("product_name");
+						JSONArray array = matches.get(name);
+						if (array == null) {
+							matches.put(name, (JSONArray) json.get("listings"));
+						} else {
+							array.addAll((JSONArray) json.get("listings"));
+						}
+					}
+				}
+			} finally {
+				buf.close();
+			}
+		}
+
+		for (Map.Entry<String, JSONArray> e : matches.entrySet()) {
+			JSONObject obj = new JSONObject();
+			obj.put("product_name", e.getKey());
+			obj.put("listings", e.getValue());
+			obj.writeJSONString(out);
+			out.println();
+		}
+
+		out.flush();
+
+	}
+
+}
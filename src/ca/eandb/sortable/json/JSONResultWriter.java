@@ -0,0 +1,246 @@
+/**
+ * 
+ */
+package ca.eandb.sortable.json;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import ca.eandb.sortable.OutputFilePool;
+import ca.eandb.sortable.Product;
+
+/**
+ * An object that accumulates the results of matching listings against
+ * <code>Product</code>s and prints them in the format specified by the
+ * <a href="http://sortable.com/blog/coding-challenge/">challenge
+ * specifications</a> (or one of the alternative formats selected by system
+ * properties).  Listings must be written in the order in which they were
+ * read.  This class is not thread-safe.
+ *
+ * @author Brad Kimmel
+ */
+public final class JSONResultWriter {
+
+	/**
+	 * A value indicating whether the results should consist of a list of the
+	 * unmatched listings, rather than the results specified in the
+	 * <a href="http://sortable.com/blog/coding-challenge/">challenge
+	 * specifications</a>.
+	 */
+	private final boolean printMisses = Boolean.parseBoolean(
+			System.getProperty("ca.eandb.sortable.printMisses", "false"));
+
+	/**
+	 * A value indicating whether the results should be grouped by listing,
+	 * rather than by product.  Note that <code>ca.eandb.sortable.printMisses</code>
+	 * implies this should be the case.  If this is set and
+	 * <code>printMisses</code> is not set, the matching listings will be
+	 * reprinted to the output with the matching <code>product_name</code>,
+	 * <code>model</code>, and <code>family</code> fields added.
+	 *
+	 * @see #printMisses
+	 */
+	private final boolean groupByListing = printMisses || Boolean.parseBoolean(
+			System.getProperty("ca.eandb.sortable.groupByListing", "false"));
+
+	/**
+	 * The directory in which to write a file for each product, to which the
+	 * listings matching that product are appended as they are matched, or
+	 * <code>null</code> to print the matching listings to the output.
+	 */
+	private final String productDir = System.getProperty("ca.eandb.sortable.productDir");
+
+	/** The maximum number of product files to keep open at once. */
+	private final int productFileHandles = Integer.parseInt(
+			System.getProperty("ca.eandb.sortable.productFileHandles", "64"));
+
+	/** The size of the write buffer for each open product file, in bytes. */
+	private static final int PRODUCT_FILE_BUFFER_SIZE = 8192;
+
+	/**
+	 * The files to which to append the listings matching each product, or
+	 * <code>null</code> if the matching listings are printed to the output.
+	 *
+	 * @see #productDir
+	 */
+	private final OutputFilePool productFiles;
+
+	/** The <code>PrintWriter</code> to write the results to. */
+	private final PrintWriter out;
+
+	/** Map to store the matching listings corresponding to each product. */
+	private final Map<String, JSONArray> matches = new HashMap<String, JSONArray>();
+
+	/** The total number of listings. */
+	private int numListings = 0;
+
+	/** The number of listings with a unique product match. */
+	private int numMatches = 0;
+
+	/**
+	 * Creates a new <code>JSONResultWriter</code>.
+	 * @param out The <code>Writer</code> to write the results to.
+	 */
+	public JSONResultWriter(Writer out) {
+
+		// Wrap the output writer in a PrintWriter if it is not already a
+		// PrintWriter.
+		this.out = out instanceof PrintWriter ? (PrintWriter) out : new PrintWriter(out);
+
+		try {
+			this.productFiles = productDir != null && !printMisses
+					? new OutputFilePool(new File(productDir), productFileHandles, PRODUCT_FILE_BUFFER_SIZE)
+					: null;
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Invalid value for ca.eandb.sortable.productDir: " + productDir, e);
+		}
+
+	}
+
+	/**
+	 * Records the result of matching a listing.
+	 * @param line The original line of input representing the listing.
+	 * @param json The <code>JSONObject</code> parsed from <code>line</code>.
+	 * @param product The matching <code>Product</code>, or <code>null</code>
+	 * 		if the listing did not match exactly one <code>Product</code>.
+	 * @throws IOException If an error occurs while writing the results.
+	 */
+	public void write(String line, JSONObject json, Product product)
+			throws IOException {
+
+		/* If we found a match, add some fields identifying the matched
+		 * product to the listing JSON and reprint it.
+		 */
+		if (product != null) {
+			numMatches++;
+
+			if (productFiles != null) {
+				byte[] b = (json.toJSONString() + "\n").getBytes(StandardCharsets.UTF_8);
+				productFiles.append(productFileName(product.getName()), b, 0, b.length);
+			} else if (!printMisses) {
+				if (groupByListing) {
+					annotate(json, product);
+					json.writeJSONString(out);
+					out.println();
+				} else { // !groupByListing
+					JSONArray array = matches.get(product.getName());
+					if (array == null) {
+						array = new JSONArray();
+						matches.put(product.getName(), array);
+					}
+
+					array.add(json);
+				}
+			}
+
+		} else if (printMisses) {	// no unique match
+			out.println(line);
+		}
+
+		numListings++;
+
+	}
+
+	/**
+	 * Gets the name of the file to which to append the listings matching a
+	 * product.  Upper case letters are written in lower case, preceded by
+	 * '^', and characters other than letters, digits, '_', '-', and '.' are
+	 * replaced by '%' and the hexadecimal value of each of their UTF-8 bytes,
+	 * so that distinct products have distinct files, even on filesystems
+	 * that ignore case.
+	 * @param name The name of the product.
+	 * @return The name of the file.
+	 */
+	private static String productFileName(String name) {
+		StringBuilder file = new StringBuilder(name.length() + 8);
+		for (byte b : name.getBytes(StandardCharsets.UTF_8)) {
+			if (b >= 'A' && b <= 'Z') {
+				file.append('^').append((char) (b - 'A' + 'a'));
+			} else if ((b >= 'a' && b <= 'z') || (b >= '0' && b <= '9')
+					|| b == '_' || b == '-' || b == '.') {
+				file.append((char) b);
+			} else {
+				file.append(String.format("%%%02X", b & 0xff));
+			}
+		}
+		return file.append(".txt").toString();
+	}
+
+	/**
+	 * Determines whether the listings that match a product are printed, in
+	 * which case the <code>JSONObject</code> must be passed to
+	 * {@link #write(String, JSONObject, Product)} for such listings.
+	 * Otherwise, <code>null</code> may be passed in its place.
+	 * @return A value indicating whether matching listings are printed.
+	 */
+	boolean usesMatchedListings() {
+		return !printMisses;
+	}
+
+	/**
+	 * Determines whether the listings that do not match a product are
+	 * printed, in which case the original line must be passed to
+	 * {@link #write(String, JSONObject, Product)} for such listings.
+	 * Otherwise, <code>null</code> may be passed in its place.
+	 * @return A value indicating whether unmatched listings are printed.
+	 */
+	boolean usesUnmatchedLines() {
+		return printMisses;
+	}
+
+	/**
+	 * Adds the fields identifying the matching product to a listing, as
+	 * printed when the results are grouped by listing.
+	 * @param json The <code>JSONObject</code> representing the listing.
+	 * @param product The matching <code>Product</code>.
+	 */
+	@SuppressWarnings("unchecked")
+	static void annotate(JSONObject json, Product product) {
+		json.put("product_name", product.getName());
+		json.put("model", product.getModel());
+		if (product.getFamily() != null) {
+			json.put("family", product.getFamily());
+		}
+	}
+
+	/**
+	 * Prints any results that could not be printed until all listings were
+	 * read, flushes the output, and prints a summary to
+	 * <code>System.err</code>.
+	 * @throws IOException If an error occurs while writing the results.
+	 */
+	public void close() throws IOException {
+
+		if (productFiles != null) {
+			productFiles.close();
+			System.err.printf("Wrote listings for %d products to %s (%d files reopened).",
+					productFiles.getFileCount(), productDir, productFiles.getEvictionCount());
+			System.err.println();
+		} else if (!groupByListing) {
+			// print the list of matching listings.
+			for (Map.Entry<String, JSONArray> e : matches.entrySet()) {
+				JSONObject obj = new JSONObject();
+				obj.put("product_name", e.getKey());
+				obj.put("listings", e.getValue());
+				obj.writeJSONString(out);
+				out.println();
+			}
+		}
+
+		out.flush();
+
+		double pctMatch = 100.0 * (double) numMatches / (double) numListings;
+		System.err.printf("Matched %d of %d listings (%4.1f%%).", numMatches, numListings, pctMatch);
+		System.err.println();
+
+	}
+
+}
@@ -0,0 +1,159 @@
+/**
+ * 
+ */
+package ca.eandb.sortable.json;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import ca.eandb.sortable.MatchEngine;
+import ca.eandb.sortable.SortableChallenge;
+
+/**
+ * Warms up the matcher using a small, built-in training set of products and
+ * listings, so that the methods on which matching spends most of its time
+ * (following the tries, normalizing strings, and parsing listings) have been
+ * compiled before the real input is read.  This is intended for short runs,
+ * in which otherwise much of the input would be matched by the interpreter.
+ *
+ * The training set may also be run through the whole application (see
+ * {@link #main(String[])}), in order to record the classes it loads in a
+ * class data sharing archive.
+ *
+ * @author Brad Kimmel
+ */
+public final class MatcherWarmup {
+
+	/** The products in the training set, as JSON objects. */
+	private static final String[] PRODUCTS = {
+		"{\"product_name\":\"Sony_Cyber-shot_DSC-W310\",\"manufacturer\":\"Sony\",\"model\":\"DSC-W310\",\"family\":\"Cyber-shot\",\"announced-date\":\"2010-01-06T19:00:00.000-05:00\"}",
+		"{\"product_name\":\"Sony_Alpha_NEX-5\",\"manufacturer\":\"Sony\",\"model\":\"NEX-5\",\"family\":\"Alpha\",\"announced-date\":\"2010-05-10T20:00:00.000-04:00\"}",
+		"{\"product_name\":\"Canon_PowerShot_SX130_IS\",\"manufacturer\":\"Canon\",\"model\":\"SX130 IS\",\"family\":\"PowerShot\",\"announced-date\":\"2010-08-18T20:00:00.000-04:00\"}",
+		"{\"product_name\":\"Canon_EOS_Rebel_T2i\",\"manufacturer\":\"Canon\",\"model\":\"T2i\",\"family\":\"Rebel\",\"announced-date\":\"2010-02-07T19:00:00.000-05:00\"}",
+		"{\"product_name\":\"Canon_IXUS_300_HS\",\"manufacturer\":\"Canon\",\"model\":\"300 HS\",\"family\":\"IXUS\",\"announced-date\":\"2010-05-10T20:00:00.000-04:00\"}",
+		"{\"product_name\":\"Nikon_Coolpix_S6100\",\"manufacturer\":\"Nikon\",\"model\":\"S6100\",\"family\":\"Coolpix\",\"announced-date\":\"2011-02-08T19:00:00.000-05:00\"}",
+		"{\"product_name\":\"Nikon_D3100\",\"manufacturer\":\"Nikon\",\"model\":\"D3100\",\"announced-date\":\"2010-08-18T20:00:00.000-04:00\"}",
+		"{\"product_name\":\"Samsung_TL240\",\"manufacturer\":\"Samsung\",\"model\":\"TL240\",\"announced-date\":\"2010-01-05T19:00:00.000-05:00\"}",
+		"{\"product_name\":\"Panasonic_Lumix_DMC-FZ100\",\"manufacturer\":\"Panasonic\",\"model\":\"DMC-FZ100\",\"family\":\"Lumix\",\"announced-date\":\"2010-07-20T20:00:00.000-04:00\"}",
+		"{\"product_name\":\"Panasonic_Lumix_DMC-TZ10\",\"manufacturer\":\"Panasonic\",\"model\":\"DMC-TZ10\",\"family\":\"Lumix\",\"announced-date\":\"2010-01-26T19:00:00.000-05:00\"}",
+		"{\"product_name\":\"Olympus_Stylus_Tough_6000\",\"manufacturer\":\"Olympus\",\"model\":\"Tough 6000\",\"family\":\"Stylus\",\"announced-date\":\"2008-01-07T19:00:00.000-05:00\"}",
+		"{\"product_name\":\"Fujifilm_FinePix_XP10\",\"manufacturer\":\"Fujifilm\",\"model\":\"XP10\",\"family\":\"FinePix\",\"announced-date\":\"2010-02-03T19:00:00.000-05:00\"}",
+	};
+
+	/** The listings in the training set, as JSON objects. */
+	private static final String[] LISTINGS = {
+		"{\"title\":\"Sony Cyber-shot DSC-W310 12.1MP Digital Camera with 4x Wide Angle Zoom (Black)\",\"manufacturer\":\"Sony\",\"currency\":\"USD\",\"price\":\"89.99\"}",
+		"{\"title\":\"Sony DSCW310 Cyber-shot 12.1 MP Digital Camera - Silver\",\"manufacturer\":\"Sony\",\"currency\":\"CAD\",\"price\":\"109.99\"}",
+		"{\"title\":\"Sony Alpha NEX-5 Interchangeable Lens Digital Camera with 18-55mm Lens\",\"manufacturer\":\"Sony\",\"currency\":\"USD\",\"price\":\"649.99\"}",
+		"{\"title\":\"Leather Case for Sony NEX-5 and NEX-3\",\"manufacturer\":\"Generic\",\"currency\":\"USD\",\"price\":\"19.99\"}",
+		"{\"title\":\"Canon PowerShot SX130IS 12.1 MP Digital Camera with 12x Wide Angle Optical Image Stabilized Zoom\",\"manufacturer\":\"Canon Canada\",\"currency\":\"CAD\",\"price\":\"199.99\"}",
+		"{\"title\":\"Canon EOS Rebel T2i 18 MP CMOS Digital SLR Camera with 3.0-Inch LCD and EF-S 18-55mm Lens\",\"manufacturer\":\"Canon\",\"currency\":\"USD\",\"price\":\"799.00\"}",
+		"{\"title\":\"Canon EOS 550D / Rebel T2i Kit\",\"manufacturer\":\"Canon\",\"currency\":\"GBP\",\"price\":\"629.00\"}",
+		"{\"title\":\"Batterie pour Canon Rebel T2i\",\"manufacturer\":\"Canon\",\"currency\":\"EUR\",\"price\":\"24.90\"}",
+		"{\"title\":\"Canon IXUS 300 HS Digitalkamera (10 Megapixel, 3,8-fach opt. Zoom, 7,6 cm (3 Zoll) Display, bildstabilisiert) schwarz\",\"manufacturer\":\"Canon\",\"currency\":\"EUR\",\"price\":\"269.00\"}",
+		"{\"title\":\"Canon PowerShot SD4000 IS 10 MP CMOS Digital Camera\",\"manufacturer\":\"Canon\",\"currency\":\"USD\",\"price\":\"279.99\"}",
+		"{\"title\":\"Nikon Coolpix S6100 16 MP Digital Camera with 7x Optical Zoom\",\"manufacturer\":\"Nikon\",\"currency\":\"USD\",\"price\":\"179.95\"}",
+		"{\"title\":\"Nikon D3100 14.2MP Digital SLR Camera with 18-55mm f/3.5-5.6 AF-S DX VR Nikkor Zoom Lens\",\"manufacturer\":\"Nikon\",\"currency\":\"USD\",\"price\":\"599.95\"}",
+		"{\"title\":\"Nikon D3100 + AF-S DX 18-55 VR + Sac + Carte SD 8 Go\",\"manufacturer\":\"Nikon\",\"currency\":\"EUR\",\"price\":\"549.00\"}",
+		"{\"title\":\"Nikon EN-EL14 Rechargeable Li-ion Battery for D3100, D5100, P7000\",\"manufacturer\":\"Nikon\",\"currency\":\"USD\",\"price\":\"39.95\"}",
+		"{\"title\":\"Samsung TL240 14.2 MP Digital Camera with 7x Optical Zoom and 3.5 inch Touchscreen LCD (Silver)\",\"manufacturer\":\"Samsung\",\"currency\":\"CAD\",\"price\":\"229.99\"}",
+		"{\"title\":\"Samsung ST5500 14.2MP Digital Camera (Black)\",\"manufacturer\":\"Samsung\",\"currency\":\"USD\",\"price\":\"249.99\"}",
+		"{\"title\":\"Panasonic Lumix DMC-FZ100 14.1 MP Digital Camera with 24x Optical Image Stabilized Zoom\",\"manufacturer\":\"Panasonic\",\"currency\":\"USD\",\"price\":\"399.95\"}",
+		"{\"title\":\"Panasonic DMC-TZ10EG-K Lumix Digitalkamera (12 Megapixel, 12-fach opt. Zoom, 7,5 cm Display, GPS) schwarz\",\"manufacturer\":\"Panasonic\",\"currency\":\"EUR\",\"price\":\"249.00\"}",
+		"{\"title\":\"Panasonic Lumix DMC-FZ100 + DMC-TZ10 Bundle\",\"manufacturer\":\"Panasonic\",\"currency\":\"USD\",\"price\":\"699.00\"}",
+		"{\"title\":\"Olympus Stylus Tough-6000 10MP Digital Camera with 3.6x Wide Angle Zoom and 2.7 inch LCD (Blue)\",\"manufacturer\":\"Olympus\",\"currency\":\"USD\",\"price\":\"149.99\"}",
+		"{\"title\":\"Appareil photo num\u00e9rique Fujifilm FinePix XP10 \u00e9tanche - Noir\",\"manufacturer\":\"Fujifilm\",\"currency\":\"EUR\",\"price\":\"119.00\"}",
+		"{\"title\":\"FUJIFILM FINEPIX XP-10 12MP WATERPROOF DIGITAL CAMERA\",\"manufacturer\":\"FUJIFILM\",\"currency\":\"GBP\",\"price\":\"99.99\"}",
+		"{\"title\":\"Kodak EasyShare C143 12 MP Digital Camera\",\"manufacturer\":\"Kodak\",\"currency\":\"USD\",\"price\":\"69.99\"}",
+		"{\"title\":\"SanDisk 8GB SDHC Class 4 Memory Card\",\"manufacturer\":\"SanDisk\",\"currency\":\"USD\",\"price\":\"14.99\"}",
+	};
+
+	/**
+	 * Runs the listings in the training set through the matcher.  The
+	 * results are discarded.
+	 * @param engine The <code>MatchEngine</code> to warm up.
+	 * @param iterations The number of times to match each listing.
+	 * @throws ParseException If a listing in the training set cannot be
+	 * 		parsed.
+	 */
+	public static void run(MatchEngine engine, int iterations) throws ParseException {
+		JSONListingReader reader = new JSONListingReader(engine);
+		JSONParser parser = new JSONParser();
+		for (int i = 0; i < iterations; i++) {
+			for (String line : LISTINGS) {
+				reader.match((JSONObject) parser.parse(line));
+			}
+		}
+	}
+
+	/**
+	 * Usage: ca.eandb.sortable.json.MatcherWarmup
+	 * Runs the training set through {@link SortableChallenge}, with the
+	 * current system properties, discarding the results.  Running this with
+	 * <code>-XX:ArchiveClassesAtExit</code> records the classes used by a
+	 * typical run in a class data sharing archive.
+	 *
+	 * @param args The program arguments (none).
+	 */
+	public static void main(String[] args) {
+
+		if (args.length != 0) {
+			System.out.printf("Usage: %s", MatcherWarmup.class.getName());
+			System.out.println();
+			System.out.println("Runs the built-in training set through the matcher and discards the results.");
+			System.exit(1);
+		}
+
+		try {
+
+			File products = File.createTempFile("products", ".txt");
+			File listings = File.createTempFile("listings", ".txt");
+			File results = File.createTempFile("results", ".txt");
+			try {
+				write(products, PRODUCTS);
+				write(listings, LISTINGS);
+				SortableChallenge.main(new String[] {
+						products.getPath(), listings.getPath(), results.getPath() });
+			} finally {
+				products.delete();
+				listings.delete();
+				results.delete();
+			}
+
+		} catch (Exception e) {
+
+			// For now just print the error if one occurs.
+			e.printStackTrace();
+
+		}
+
+	}
+
+	/**
+	 * Writes lines to a file.
+	 * @param file The file to write.
+	 * @param lines The lines to write.
+	 * @throws IOException If an error occurs while writing the file.
+	 */
+	private static void write(File file, String[] lines) throws IOException {
+		Writer out = new FileWriter(file);
+		try {
+			for (String line : lines) {
+				out.write(line);
+				out.write('\n');
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/** Private constructor. */
+	private MatcherWarmup() {}
+
+}
@@ -0,0 +1,451 @@
+/**
+ * 
+ */
+package ca.eandb.sortable.json;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import ca.eandb.sortable.DuplicateFilter;
+import ca.eandb.sortable.Product;
+
+/**
+ * An object that processes a stream of product listings in a pipeline of
+ * concurrent stages connected by bounded queues.  The stages are:
+ *
+ *   1) reader  - reads lines from the input (one thread),
+ *   2) parser  - parses each line into a <code>JSONObject</code> (a pool of
+ *                <code>ca.eandb.sortable.parserThreads</code> threads),
+ *   3) matcher - matches each listing against the products using a
+ *                {@link JSONListingReader} (a pool of
+ *                <code>ca.eandb.sortable.matcherThreads</code> threads), and
+ *   4) writer  - writes the results, in input order, using a
+ *                {@link JSONResultWriter} (one thread).
+ *
+ * Each queue holds at most <code>ca.eandb.sortable.queueCapacity</code>
+ * listings, so a slow stage blocks the stages upstream of it rather than
+ * letting listings accumulate in memory, and the stream as a whole proceeds
+ * at the rate of the slowest stage.  The reader also limits the number of
+ * listings that have been read but not yet written, so that a listing that
+ * is slow to match cannot cause an unbounded number of later listings to be
+ * held by the writer while it waits.  The results are identical to those
+ * produced by {@link JSONListingReader#read(Reader, Writer)}.
+ *
+ * @author Brad Kimmel
+ */
+public final class PipelinedListingReader {
+
+	/** The number of threads to use for parsing listings. */
+	private final int parserThreads = Integer.parseInt(
+			System.getProperty("ca.eandb.sortable.parserThreads", "1"));
+
+	/** The number of threads to use for matching listings. */
+	private final int matcherThreads = Integer.parseInt(
+			System.getProperty("ca.eandb.sortable.matcherThreads",
+					Integer.toString(Runtime.getRuntime().availableProcessors())));
+
+	/** The maximum number of listings held in each queue. */
+	private final int queueCapacity = Integer.parseInt(
+			System.getProperty("ca.eandb.sortable.queueCapacity", "1024"));
+
+	/**
+	 * The interval (in milliseconds) at which to report the depth of each
+	 * queue to <code>System.err</code> while the pipeline is running, or zero
+	 * to only report a summary once the input is exhausted.
+	 */
+	private final long reportInterval = Long.parseLong(
+			System.getProperty("ca.eandb.sortable.reportInterval", "0"));
+
+	/** The <code>JSONListingReader</code> to use to match listings. */
+	private final JSONListingReader matcher;
+
+	/** A listing passing through the pipeline. */
+	private static final class Item {
+
+		/** The position of the listing within the input. */
+		public final long index;
+
+		/** The original line of input representing the listing. */
+		public final String line;
+
+		/** The <code>JSONObject</code> parsed from <code>line</code>. */
+		public JSONObject json;
+
+		/** The matching <code>Product</code>, if any. */
+		public Product product;
+
+		/**
+		 * Creates a new <code>Item</code>.
+		 * @param index The position of the listing within the input.
+		 * @param line The original line of input representing the listing.
+		 */
+		public Item(long index, String line) {
+			this.index = index;
+			this.line = line;
+		}
+
+	}
+
+	/** An <code>Item</code> marking the end of the input. */
+	private static final Item END = new Item(-1, null);
+
+	/**
+	 * A bounded queue connecting two stages of the pipeline, along with
+	 * statistics about how full the queue has been.
+	 */
+	private static final class Channel {
+
+		/** The name of the stage consuming from this queue. */
+		public final String name;
+
+		/** The underlying <code>BlockingQueue</code>. */
+		private final BlockingQueue<Item> queue;
+
+		/** The number of items put into the queue. */
+		private final AtomicLong puts = new AtomicLong();
+
+		/** The sum of the queue depths observed at each put. */
+		private final AtomicLong totalDepth = new AtomicLong();
+
+		/** The maximum queue depth observed. */
+		private final AtomicInteger maxDepth = new AtomicInteger();
+
+		/**
+		 * Creates a new <code>Channel</code>.
+		 * @param name The name of the stage consuming from this queue.
+		 * @param capacity The maximum number of items held in the queue.
+		 */
+		public Channel(String name, int capacity) {
+			this.name = name;
+			this.queue = new ArrayBlockingQueue<Item>(capacity);
+		}
+
+		/**
+		 * Adds an item to the queue, waiting for space to become available if
+		 * necessary.
+		 * @param item The <code>Item</code> to add.
+		 * @throws InterruptedException If the thread is interrupted while
+		 * 		waiting.
+		 */
+		public void put(Item item) throws InterruptedException {
+			queue.put(item);
+
+			int depth = queue.size();
+			puts.incrementAndGet();
+			totalDepth.addAndGet(depth);
+			for (int max = maxDepth.get(); depth > max; max = maxDepth.get()) {
+				if (maxDepth.compareAndSet(max, depth)) {
+					break;
+				}
+			}
+		}
+
+		/**
+		 * Removes an item from the queue, waiting for one to become available
+		 * if necessary.
+		 * @return The <code>Item</code> at the head of the queue.
+		 * @throws InterruptedException If the thread is interrupted while
+		 * 		waiting.
+		 */
+		public Item take() throws InterruptedException {
+			return queue.take();
+		}
+
+		/**
+		 * Gets the number of items currently in the queue.
+		 * @return The number of items currently in the queue.
+		 */
+		public int depth() {
+			return queue.size();
+		}
+
+		/**
+		 * Gets the average queue depth observed when items were added.
+		 * @return The average queue depth observed when items were added.
+		 */
+		public double averageDepth() {
+			long n = puts.get();
+			return n > 0 ? (double) totalDepth.get() / (double) n : 0.0;
+		}
+
+		/**
+		 * Gets the maximum queue depth observed.
+		 * @return The maximum queue depth observed.
+		 */
+		public int maxDepth() {
+			return maxDepth.get();
+		}
+
+	}
+
+	/** The queue feeding the parser stage. */
+	private Channel parseQueue;
+
+	/** The queue feeding the matcher stage. */
+	private Channel matchQueue;
+
+	/** The queue feeding the writer stage. */
+	private Channel writeQueue;
+
+	/** The threads running the stages of the pipeline. */
+	private final List<Thread> threads = new ArrayList<Thread>();
+
+	/** The first exception thrown by any stage of the pipeline. */
+	private Throwable failure;
+
+	/**
+	 * Creates a new <code>PipelinedListingReader</code>.
+	 * @param matcher The <code>JSONListingReader</code> to use to match
+	 * 		listings against the products.
+	 */
+	public PipelinedListingReader(JSONListingReader matcher) {
+		this.matcher = matcher;
+	}
+
+	/**
+	 * Reads the JSON-formatted listings from the file (one listing per line),
+	 * matches the listings to at most one product, and prints the results to
+	 * the specified <code>Writer</code>.  This method may not be called by
+	 * more than one thread at a time.
+	 * @param in The <code>Reader</code> to read the listings from.
+	 * @param out The <code>Writer</code> to write the results to.
+	 * @throws IOException If an exception is thrown while reading from
+	 * 		<code>in</code>.
+	 * @throws ParseException If a line in the file does not represent a valid
+	 * 		JSON object.
+	 * @throws InterruptedException If the calling thread is interrupted while
+	 * 		waiting for the pipeline to complete.
+	 */
+	public void read(Reader in, Writer out) throws IOException,
+			ParseException, InterruptedException {
+
+		final BufferedReader buf = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in);
+		final JSONResultWriter results = new JSONResultWriter(out);
+
+		parseQueue = new Channel("parser", queueCapacity);
+		matchQueue = new Channel("matcher", queueCapacity);
+		writeQueue = new Channel("writer", queueCapacity);
+		threads.clear();
+		failure = null;
+
+		/* Each listing takes a permit when it is read and returns it once it
+		 * has been written, so the listings held anywhere in the pipeline
+		 * (including those the writer holds back to restore their order)
+		 * never exceed what the queues and threads could hold at once.
+		 */
+		final Semaphore inFlight = new Semaphore(3 * queueCapacity + parserThreads + matcherThreads);
+
+		start("reader", new Stage() {
+			public void run() throws Exception {
+				DuplicateFilter duplicates = DuplicateFilter.fromProperties();
+				long index = 0;
+				String line;
+				while ((line = buf.readLine()) != null) {
+					if (duplicates == null || duplicates.accept(line)) {
+						inFlight.acquire();
+						parseQueue.put(new Item(index++, line));
+					}
+				}
+				parseQueue.put(END);
+				if (duplicates != null) {
+					duplicates.report();
+				}
+			}
+		});
+
+		final AtomicInteger activeParsers = new AtomicInteger(parserThreads);
+		for (int i = 0; i < parserThreads; i++) {
+			start("parser-" + i, new Stage() {
+				public void run() throws Exception {
+					JSONParser parser = new JSONParser();
+					Item item;
+					while ((item = parseQueue.take()) != END) {
+						item.json = (JSONObject) parser.parse(item.line);
+						matchQueue.put(item);
+					}
+					finish(parseQueue, activeParsers, matchQueue);
+				}
+			});
+		}
+
+		final AtomicInteger activeMatchers = new AtomicInteger(matcherThreads);
+		for (int i = 0; i < matcherThreads; i++) {
+			start("matcher-" + i, new Stage() {
+				public void run() throws Exception {
+					Item item;
+					while ((item = matchQueue.take()) != END) {
+						item.product = matcher.match(item.json);
+						writeQueue.put(item);
+					}
+					finish(matchQueue, activeMatchers, writeQueue);
+				}
+			});
+		}
+
+		start("writer", new Stage() {
+			public void run() throws Exception {
+
+				/* Items may arrive out of order when there are multiple
+				 * parser or matcher threads, so hold on to them until all
+				 * preceding items have been written.  The number of items
+				 * held is bounded by the permits in inFlight.
+				 */
+				Map<Long, Item> pending = new HashMap<Long, Item>();
+				long next = 0;
+				Item item;
+				while ((item = writeQueue.take()) != END) {
+					pending.put(item.index, item);
+					while ((item = pending.remove(next)) != null) {
+						results.write(item.line, item.json, item.product);
+						inFlight.release();
+						next++;
+					}
+				}
+				results.close();
+
+			}
+		});
+
+		Thread reporter = null;
+		if (reportInterval > 0) {
+			reporter = new Thread(new Runnable() {
+				public void run() {
+					try {
+						while (true) {
+							Thread.sleep(reportInterval);
+							System.err.printf(
+									"Queue depth: parser=%d, matcher=%d, writer=%d",
+									parseQueue.depth(), matchQueue.depth(),
+									writeQueue.depth());
+							System.err.println();
+						}
+					} catch (InterruptedException e) {
+						/* nothing to do. */
+					}
+				}
+			}, "reporter");
+			reporter.setDaemon(true);
+			reporter.start();
+		}
+
+		try {
+			for (int i = 0, n = threads.size(); i < n; i++) {
+				threads.get(i).join();
+			}
+		} finally {
+			if (reporter != null) {
+				reporter.interrupt();
+			}
+		}
+
+		for (Channel channel : new Channel[]{ parseQueue, matchQueue, writeQueue }) {
+			System.err.printf(
+					"Queue depth at %s stage: average %.1f, maximum %d (capacity %d).",
+					channel.name, channel.averageDepth(), channel.maxDepth(),
+					queueCapacity);
+			System.err.println();
+		}
+
+		if (failure instanceof IOException) {
+			throw (IOException) failure;
+		} else if (failure instanceof ParseException) {
+			throw (ParseException) failure;
+		} else if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		} else if (failure instanceof Error) {
+			throw (Error) failure;
+		} else if (failure != null) {
+			throw new RuntimeException(failure);
+		}
+
+	}
+
+	/**
+	 * Signals that a thread in a pool has exhausted its input.  The end of
+	 * input marker is passed on to the remaining threads in the pool, or to
+	 * the next stage if this was the last active thread in the pool.
+	 * @param in The <code>Channel</code> from which the pool reads.
+	 * @param active The number of threads in the pool that are still active.
+	 * @param out The <code>Channel</code> to which the pool writes.
+	 * @throws InterruptedException If the thread is interrupted while
+	 * 		waiting.
+	 */
+	private void finish(Channel in, AtomicInteger active, Channel out)
+			throws InterruptedException {
+		if (active.decrementAndGet() > 0) {
+			in.put(END);
+		} else {
+			out.put(END);
+		}
+	}
+
+	/** The body of a stage of the pipeline. */
+	private static interface Stage {
+
+		/**
+		 * Runs the stage.
+		 * @throws Exception If an error occurs.
+		 */
+		void run() throws Exception;
+
+	}
+
+	/**
+	 * Starts a thread to run a stage of the pipeline.  If the stage fails,
+	 * the failure is recorded and all other stages are interrupted.  If
+	 * another stage has already failed, the thread is not started, since
+	 * it could otherwise wait forever for a stage that has stopped.
+	 * @param name The name of the thread.
+	 * @param stage The <code>Stage</code> to run.
+	 */
+	private void start(String name, final Stage stage) {
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				try {
+					stage.run();
+				} catch (InterruptedException e) {
+					/* Another stage has failed, nothing to do. */
+				} catch (Throwable e) {
+					abort(e);
+				}
+			}
+		}, name);
+		synchronized (threads) {
+			threads.add(thread);
+			if (failure == null) {
+				thread.start();
+			}
+		}
+	}
+
+	/**
+	 * Records a failure and interrupts all stages of the pipeline.
+	 * @param e The <code>Throwable</code> that caused the failure.
+	 */
+	private void abort(Throwable e) {
+		synchronized (threads) {
+			if (failure == null) {
+				failure = e;
+				for (Thread thread : threads) {
+					thread.interrupt();
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,370 @@
+/**
+ * 
+ */
+package ca.eandb.sortable.json;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+
+import ca.eandb.sortable.Catalogs;
+import ca.eandb.sortable.Product;
+import ca.eandb.sortable.ProductMatch;
+import ca.eandb.sortable.ProductTrieBuilder;
+import ca.eandb.sortable.ProductVisitor;
+import ca.eandb.sortable.ShardFilter;
+import ca.eandb.sortable.ShardWorker;
+import ca.eandb.sortable.WorkerProcess;
+
+/**
+ * Matches listings against a product catalog that is sharded by manufacturer
+ * across several {@link ShardWorker} processes, each of which builds the
+ * tries for only its own shard of the catalog.  The router itself only builds
+ * a manufacturer trie (containing one entry per distinct manufacturer), which
+ * it uses to determine which shard(s) each listing must be sent to.  Listings
+ * whose manufacturer does not match are not sent to any shard.
+ *
+ * If a listing is sent to more than one shard and more than one shard reports
+ * a match, the listing is considered not to match any product (just as when
+ * there are conflicting matches within a single trie).  Note that since each
+ * shard resolves matches against only its own products, a listing that
+ * refers to several manufacturers may occasionally be resolved differently
+ * than it would be against the whole catalog.
+ *
+ * @author Brad Kimmel
+ */
+public final class ShardRouter {
+
+	/**
+	 * The maximum number of listings that have been sent to the shards but
+	 * whose results have not yet been written.
+	 */
+	private final int queueCapacity = Integer.parseInt(
+			System.getProperty("ca.eandb.sortable.queueCapacity", "1024"));
+
+	/** The file containing the products. */
+	private final File products;
+
+	/** The number of shards. */
+	private final int shards;
+
+	/** A listing that has been sent to zero or more shards. */
+	private static final class Pending {
+
+		/** The original line of input representing the listing. */
+		public final String line;
+
+		/** The <code>JSONObject</code> parsed from <code>line</code>. */
+		public final JSONObject json;
+
+		/** Counts down the shards that have yet to respond. */
+		public final CountDownLatch latch;
+
+		/** The matching <code>Product</code> reported by the shards. */
+		private Product product = null;
+
+		/** A value indicating whether more than one shard reported a match. */
+		private boolean conflict = false;
+
+		/**
+		 * Creates a new <code>Pending</code> listing.
+		 * @param line The original line of input representing the listing.
+		 * @param json The <code>JSONObject</code> parsed from <code>line</code>.
+		 * @param shards The number of shards the listing is sent to.
+		 */
+		public Pending(String line, JSONObject json, int shards) {
+			this.line = line;
+			this.json = json;
+			this.latch = new CountDownLatch(shards);
+		}
+
+		/**
+		 * Records the response from a shard.
+		 * @param match The <code>Product</code> matched by the shard, or
+		 * 		<code>null</code> if the shard did not report a match.
+		 */
+		public synchronized void respond(Product match) {
+			if (match != null) {
+				conflict = conflict || product != null;
+				product = match;
+			}
+			latch.countDown();
+		}
+
+		/**
+		 * Waits for all shards to respond and gets the resolved match.
+		 * @return The matching <code>Product</code>, or <code>null</code> if
+		 * 		no shard, or more than one shard, reported a match.
+		 * @throws InterruptedException If the thread is interrupted while
+		 * 		waiting.
+		 */
+		public Product await() throws InterruptedException {
+			latch.await();
+			synchronized (this) {
+				return conflict ? null : product;
+			}
+		}
+
+	}
+
+	/** A <code>Pending</code> listing marking the end of the input. */
+	private static final Pending END = new Pending(null, null, 0);
+
+	/** A running shard worker process. */
+	private final class Shard {
+
+		/** The worker <code>Process</code>. */
+		private final Process process;
+
+		/** The <code>Writer</code> used to send listings to the worker. */
+		private final BufferedWriter in;
+
+		/** The listings sent to the worker that have not been responded to. */
+		private final BlockingQueue<Pending> sent = new LinkedBlockingQueue<Pending>();
+
+		/** The thread reading responses from the worker. */
+		private final Thread reader;
+
+		/**
+		 * Starts a shard worker process.
+		 * @param shard The index of the shard.
+		 * @throws IOException If the process cannot be started.
+		 */
+		public Shard(int shard) throws IOException {
+			ProcessBuilder pb = new ProcessBuilder(WorkerProcess.command(
+					ShardWorker.class, products.getAbsolutePath(),
+					Integer.toString(shard), Integer.toString(shards)));
+			process = pb.start();
+			WorkerProcess.startCopyToStderr(process.getErrorStream());
+			in = new BufferedWriter(new OutputStreamWriter(process.getOutputStream()));
+			reader = new Thread(new Runnable() {
+				public void run() {
+					readResponses();
+				}
+			}, "shard-" + shard);
+			reader.start();
+		}
+
+		/**
+		 * Sends a listing to the worker.
+		 * @param pending The <code>Pending</code> listing to send.
+		 * @throws IOException If an error occurs while writing to the worker.
+		 */
+		public void send(Pending pending) throws IOException {
+			sent.add(pending);
+			in.write(pending.line);
+			in.newLine();
+		}
+
+		/**
+		 * Reads the responses from the worker until it exits.  If the worker
+		 * exits before responding to all the listings sent to it, the failure
+		 * is recorded.
+		 */
+		private void readResponses() {
+			try {
+				BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream()));
+				JSONParser parser = new JSONParser();
+				String line;
+				while ((line = out.readLine()) != null) {
+					Pending pending = sent.poll();
+					if (pending == null) {
+						throw new IOException("Unexpected response from shard.");
+					}
+					pending.respond(line.length() > 0
+							? JSONProductReader.toProduct((JSONObject) parser.parse(line))
+							: null);
+				}
+			} catch (Exception e) {
+				fail(e);
+			}
+
+			if (!sent.isEmpty()) {
+				fail(new IOException("Shard exited without responding to all listings."));
+				Pending pending;
+				while ((pending = sent.poll()) != null) {
+					pending.respond(null);
+				}
+			}
+		}
+
+	}
+
+	/** The first failure encountered by any thread. */
+	private volatile Exception failure;
+
+	/**
+	 * Creates a new <code>ShardRouter</code>.
+	 * @param products The file containing the products (which must be
+	 * 		readable by the shard worker processes).
+	 * @param shards The number of shards.
+	 */
+	public ShardRouter(File products, int shards) {
+		this.products = products;
+		this.shards = shards;
+	}
+
+	/**
+	 * Reads the JSON-formatted listings from the file (one listing per line),
+	 * sends each listing to the shards that may contain a matching product,
+	 * and prints the results to the specified <code>Writer</code>.
+	 * @param in The <code>Reader</code> to read the listings from.
+	 * @param out The <code>Writer</code> to write the results to.
+	 * @throws Exception If an error occurs while reading the products or
+	 * 		listings, or in any shard.
+	 */
+	public void read(Reader in, Writer out) throws Exception {
+
+		failure = null;
+
+		/* Build a manufacturer trie with one representative product for
+		 * each distinct manufacturer.
+		 */
+		final ProductTrieBuilder builder = new ProductTrieBuilder();
+		Catalogs.read(products, new ProductVisitor() {
+			private final Set<String> manufacturers = new HashSet<String>();
+			public void visit(Product product) {
+				if (manufacturers.add(product.getManufacturer())) {
+					builder.addManufacturer(product);
+				}
+			}
+		});
+		JSONListingReader matcher = new JSONListingReader(
+				builder.getProducts(), builder.getManufacturerRoot(),
+				builder.getModelRoot());
+
+		Shard[] workers = new Shard[shards];
+		for (int i = 0; i < shards; i++) {
+			workers[i] = new Shard(i);
+		}
+
+		/* Write the results, in input order, as the shards respond. */
+		final BlockingQueue<Pending> order = new LinkedBlockingQueue<Pending>();
+		final Semaphore inFlight = new Semaphore(queueCapacity);
+		final JSONResultWriter results = new JSONResultWriter(out);
+		Thread writer = new Thread(new Runnable() {
+			public void run() {
+				try {
+					Pending pending;
+					while ((pending = order.take()) != END) {
+						Product product = pending.await();
+						if (failure == null) {
+							results.write(pending.line, pending.json, product);
+						}
+						inFlight.release();
+					}
+					if (failure == null) {
+						results.close();
+					}
+				} catch (Exception e) {
+					fail(e);
+				}
+			}
+		}, "writer");
+		writer.start();
+
+		BufferedReader buf = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in);
+		JSONParser parser = new JSONParser();
+
+		try {
+
+			while (failure == null) {
+				String line = buf.readLine();
+				if (line == null) {
+					break;
+				}
+
+				/* Don't hold on to listings in our buffers while waiting for
+				 * the shards to catch up.
+				 */
+				if (!inFlight.tryAcquire()) {
+					for (Shard shard : workers) {
+						shard.in.flush();
+					}
+					inFlight.acquire();
+				}
+
+				JSONObject json = (JSONObject) parser.parse(line);
+				Set<Integer> targets = new TreeSet<Integer>();
+				Set<ProductMatch> manufacturers = matcher.matchManufacturer(json);
+				if (manufacturers != null) {
+					for (ProductMatch match : manufacturers) {
+						String manufacturer = builder.getProducts().getManufacturer(match.getProductId());
+						targets.add(ShardFilter.shardOf(manufacturer, shards));
+					}
+				}
+
+				Pending pending = new Pending(line, json, targets.size());
+				order.put(pending);
+				for (int shard : targets) {
+					workers[shard].send(pending);
+				}
+
+				if (!buf.ready()) {
+					for (Shard shard : workers) {
+						shard.in.flush();
+					}
+				}
+			}
+
+		} finally {
+
+			for (Shard shard : workers) {
+				try {
+					shard.in.close();
+				} catch (IOException e) {
+					fail(e);
+				}
+			}
+
+			for (Shard shard : workers) {
+				shard.reader.join();
+				int status = shard.process.waitFor();
+				if (status != 0) {
+					fail(new IOException("Shard process failed with exit code " + status));
+				}
+
+				// release any listings the shard will never respond to.
+				Pending pending;
+				while ((pending = shard.sent.poll()) != null) {
+					pending.respond(null);
+				}
+			}
+
+			order.put(END);
+			writer.join();
+
+		}
+
+		if (failure != null) {
+			throw failure;
+		}
+
+	}
+
+	/**
+	 * Records a failure, if one has not already been recorded.
+	 * @param e The <code>Exception</code> that caused the failure.
+	 */
+	private synchronized void fail(Exception e) {
+		if (failure == null) {
+			failure = e;
+		}
+	}
+
+}
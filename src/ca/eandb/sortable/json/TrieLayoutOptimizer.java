@@ -0,0 +1,75 @@
+/**
+ * 
+ */
+package ca.eandb.sortable.json;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import ca.eandb.sortable.ProductStore;
+import ca.eandb.sortable.TrieNode;
+import ca.eandb.sortable.TrieProfile;
+
+/**
+ * Lays out the manufacturer and model tries according to how they are used
+ * when matching a representative sample of listings.  The sample is matched
+ * against the tries while recording how often each node is visited, and the
+ * tries are then frozen so that the hottest nodes are allocated close
+ * together and the hottest children of each node are probed first (see
+ * {@link TrieNode#freeze(TrieProfile)}).
+ * 
+ * @author Brad Kimmel
+ */
+public final class TrieLayoutOptimizer {
+	
+	/**
+	 * Profiles the tries over a sample of listings and freezes them.
+	 * @param products The <code>ProductStore</code> holding the products
+	 * 		referred to by the tries.
+	 * @param manufacturerTrie The root <code>TrieNode</code> of the
+	 * 		manufacturer trie.
+	 * @param modelTrie The root <code>TrieNode</code> of the model trie.
+	 * @param sample The <code>Reader</code> to read the sample of
+	 * 		JSON-formatted listings (one per line) from.
+	 * @return An array containing the roots of the frozen manufacturer and
+	 * 		model tries, in that order.
+	 * @throws IOException If an error occurs while reading from
+	 * 		<code>sample</code>.
+	 * @throws ParseException If a line in the sample does not represent a
+	 * 		valid JSON object.
+	 */
+	public static TrieNode[] optimize(ProductStore products,
+			TrieNode manufacturerTrie, TrieNode modelTrie, Reader sample)
+			throws IOException, ParseException {
+		
+		TrieProfile profile = new TrieProfile();
+		JSONListingReader profiler = new JSONListingReader(
+				products, manufacturerTrie, modelTrie, profile);
+		
+		BufferedReader buf = sample instanceof BufferedReader ? (BufferedReader) sample : new BufferedReader(sample);
+		JSONParser parser = new JSONParser();
+		
+		while (true) {
+			String line = buf.readLine();
+			if (line == null) {
+				break;
+			}
+			
+			profiler.match((JSONObject) parser.parse(line));
+		}
+		
+		return new TrieNode[]{
+				manufacturerTrie.freeze(profile),
+				modelTrie.freeze(profile) };
+		
+	}
+	
+	/** Private constructor. */
+	private TrieLayoutOptimizer() {}
+
+}